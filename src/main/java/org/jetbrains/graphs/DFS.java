@@ -1,38 +1,100 @@
 package org.jetbrains.graphs;
 
-import com.google.common.collect.ListMultimap;
-
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- *   Encapsulates the resulting state after running a depth first search 
+ *   Encapsulates the resulting state after running a depth first search.
+ *   <p>
+ *   The search keeps its own stack instead of recursing, so any graph can be searched however deep
+ *   its paths are. A vertex is marked with the number of the search that visited it, so starting a new
+ *   search is only counting up, and a search object can be reused without clearing or allocating.
  */
-class DFS {
+public final class DFS {
 
-  private final ListMultimap<Integer, Integer> digraph;
-  private final int maximalVertexCount;
-  private final boolean[] marked;
+  private final DirectedGraph digraph;
+  private final int[] stamps;
+  private final int[] stack;
+  private final int[] visited;
+  private int generation = 1;
+  private int visitedCount = 0;
 
-  DFS(ListMultimap<Integer, Integer> digraph, int maximalVertexCount) {
+  DFS(DirectedGraph digraph) {
     this.digraph = digraph;
-    this.maximalVertexCount = maximalVertexCount;
-    this.marked = new boolean[maximalVertexCount];
-  }
-  
-  void search(int v) {
-    marked[v] = true;
-    for (int w : digraph.get(v)) {
-      if (!marked[w]) search(w);
+    this.stamps = new int[digraph.vertexCount()];
+    this.stack = new int[digraph.vertexCount()];
+    this.visited = new int[digraph.vertexCount()];
+  }
+
+  /**
+   * @return a rough count of the bytes held by the search: the object and its three arrays
+   */
+  public long retainedBytes() {
+    return 16 + 4 * 6 + 3 * (16 + 4L * stamps.length);
+  }
+
+  /**
+   * forgets the vertices visited so far, the searches after it start from a clean graph
+   */
+  public void reset() {
+    if (++generation == 0) {
+      Arrays.fill(stamps, 0);
+      generation = 1;
+    }
+    visitedCount = 0;
+  }
+
+  /**
+   * visits every vertex reachable from v that has not been visited since the last reset
+   */
+  public void search(int v) {
+    if (stamps[v] == generation) {
+      return;
     }
+    stamps[v] = generation;
+    visited[visitedCount++] = v;
+    int top = 0;
+    stack[top++] = v;
+    while (top > 0) {
+      final int u = stack[--top];
+      for (int edge = digraph.firstEdge(u); edge < digraph.lastEdge(u); edge++) {
+        final int w = digraph.target(edge);
+        if (stamps[w] != generation) {
+          stamps[w] = generation;
+          visited[visitedCount++] = w;
+          stack[top++] = w;
+        }
+      }
+    }
+  }
+
+  public int visitedCount() {
+    return visitedCount;
+  }
+
+  /**
+   * @return the visited vertex with the given index, in the order they were visited
+   */
+  public int visited(int index) {
+    return visited[index];
+  }
+
+  public boolean isVisited(int v) {
+    return stamps[v] == generation;
   }
-  
+
+  /**
+   * @return the visited vertices in ascending order
+   */
   List<Integer> visited() {
-    List<Integer> visited = new LinkedList<Integer>();
-    for (int v = 0; v < maximalVertexCount; v++) {
-      if (marked[v]) visited.add(v);
+    final int[] sorted = Arrays.copyOf(visited, visitedCount);
+    Arrays.sort(sorted);
+    List<Integer> vertices = new ArrayList<Integer>(visitedCount);
+    for (int v : sorted) {
+      vertices.add(v);
     }
-    return visited;
+    return vertices;
   }
 
 }
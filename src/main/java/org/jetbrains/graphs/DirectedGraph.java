@@ -1,20 +1,26 @@
 package org.jetbrains.graphs;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
-
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Representation of a graph of simple nodes (Integers). 
  * Integers in this case are pointers to regular expression states.
+ * <p>
+ *   While the graph is built the edges are collected as pairs, once it is built they are compacted into
+ *   compressed sparse rows: the targets of all vertices in a single array, vertex v owning the slots 
+ *   from offsets[v] to offsets[v + 1]. Walking the edges is then a scan of plain ints.
  * 
  * @author sasha.malahov@here.com (Sasha Malahov)
  */
 public class DirectedGraph {
 
-  private final ListMultimap<Integer, Integer> digraph = ArrayListMultimap.create();
   private final int maximalVertexCount;
+  private int[] edgeSources = new int[16];
+  private int[] edgeTargets = new int[16];
+  private int edgeCount = 0;
+  private int[] offsets = null;
+  private int[] targets = null;
 
   /**
    * 
@@ -26,7 +32,7 @@ public class DirectedGraph {
   }
 
   public List<Integer> dfsFrom(List<Integer> vs) {
-    final DFS dfs = new DFS(digraph, maximalVertexCount);
+    final DFS dfs = newSearch();
     for (int v : vs) {
       dfs.search(v);
     }
@@ -34,14 +40,83 @@ public class DirectedGraph {
   }
 
   public List<Integer> dfsFrom(Integer v) {
-    final DFS dfs = new DFS(digraph, maximalVertexCount);
+    final DFS dfs = newSearch();
     dfs.search(v);
     return dfs.visited();
   }
 
-  void addEdge(Integer from, Integer to) {
-    digraph.put(from, to);
-    assert digraph.keySet().size() <= maximalVertexCount;
+  /**
+   * @return a search over this graph that can be run again and again without allocating, 
+   *         by a single thread at a time
+   */
+  public DFS newSearch() {
+    return new DFS(this);
+  }
+
+  public int vertexCount() {
+    return maximalVertexCount;
+  }
+
+  public int edgeCount() {
+    return edgeCount;
+  }
+
+  int firstEdge(int v) {
+    return offsets[v];
+  }
+
+  int lastEdge(int v) {
+    return offsets[v + 1];
+  }
+
+  int target(int edge) {
+    return targets[edge];
+  }
+
+  void addEdge(int from, int to) {
+    if (offsets != null) {
+      throw new IllegalStateException("graph is already built");
+    }
+    assert from < maximalVertexCount && to < maximalVertexCount;
+    if (edgeCount == edgeSources.length) {
+      edgeSources = Arrays.copyOf(edgeSources, 2 * edgeCount);
+      edgeTargets = Arrays.copyOf(edgeTargets, 2 * edgeCount);
+    }
+    edgeSources[edgeCount] = from;
+    edgeTargets[edgeCount++] = to;
+  }
+
+  /**
+   * @return a rough count of the bytes held by the graph: the object and its arrays
+   */
+  public long retainedBytes() {
+    return 16 + 4 * 6 + bytesOf(edgeSources) + bytesOf(edgeTargets) + bytesOf(offsets) + bytesOf(targets);
+  }
+
+  private static long bytesOf(int[] array) {
+    return array == null ? 0 : 16 + 4L * array.length;
+  }
+
+  /**
+   * turns the collected edges into rows, keeping the order the edges of every vertex were added in
+   */
+  void compact() {
+    int[] rows = new int[maximalVertexCount + 1];
+    for (int i = 0; i < edgeCount; i++) {
+      rows[edgeSources[i] + 1]++;
+    }
+    for (int v = 0; v < maximalVertexCount; v++) {
+      rows[v + 1] += rows[v];
+    }
+    int[] columns = new int[edgeCount];
+    int[] cursor = Arrays.copyOf(rows, maximalVertexCount);
+    for (int i = 0; i < edgeCount; i++) {
+      columns[cursor[edgeSources[i]]++] = edgeTargets[i];
+    }
+    offsets = rows;
+    targets = columns;
+    edgeSources = null;
+    edgeTargets = null;
   }
 
 }
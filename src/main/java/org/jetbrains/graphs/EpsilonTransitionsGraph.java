@@ -70,6 +70,7 @@ public class EpsilonTransitionsGraph extends DirectedGraph {
         addEdge(i, i + 1);
       }
     }
+    compact();
   }
   
 }
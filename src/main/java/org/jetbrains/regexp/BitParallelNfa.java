@@ -0,0 +1,119 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.token.element.Token;
+
+/**
+ * Matches whole texts with an NFA of at most 64 states, keeping the set of states as the bits of a long.
+ * <p>
+ *   For every state that reads a character the mask of the states its epsilon closure reaches after the
+ *   character is computed once, and so is the mask of the states reading each ASCII character. A step is
+ *   then the current states masked by the character, and the union of the masks of the states left.
+ *   Nothing is allocated while matching.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Engine#BIT_PARALLEL
+ */
+final class BitParallelNfa {
+
+  static final int MAX_STATES = 64;
+
+  private static final int ASCII = 128;
+
+  private final Token[] tokens;
+  private final long start;
+  private final long accept;
+  private final long consuming;
+  /**
+   * for every state reading a character, the states reached once it has read it
+   */
+  private final long[] follow;
+  /**
+   * for every ASCII character, the states reading it
+   */
+  private final long[] reading = new long[ASCII];
+
+  BitParallelNfa(NfaProgram program) {
+    if (program.stateCount() > MAX_STATES) {
+      throw new IllegalArgumentException(program.stateCount() + " states do not fit in " + MAX_STATES + " bits");
+    }
+    this.tokens = program.tokens();
+    this.start = mask(program.closure(0));
+    this.accept = 1L << program.acceptState();
+    this.follow = new long[program.acceptState()];
+    long consuming = 0;
+    for (int state = 0; state < program.acceptState(); state++) {
+      if (program.consumes(state)) {
+        consuming |= 1L << state;
+        follow[state] = mask(program.closure(state + 1));
+        for (char c = 0; c < ASCII; c++) {
+          if (tokens[state].matches(c)) {
+            reading[c] |= 1L << state;
+          }
+        }
+      }
+    }
+    this.consuming = consuming;
+  }
+
+  boolean matches(CharSequence text, int start, int end) {
+    long states = this.start;
+    for (int i = start; i < end && states != 0; i++) {
+      final char character = text.charAt(i);
+      long read = states & (character < ASCII ? reading[character] : reading(states, character));
+      long next = 0;
+      while (read != 0) {
+        next |= follow[Long.numberOfTrailingZeros(read)];
+        read &= read - 1;
+      }
+      states = next;
+    }
+    return (states & accept) != 0;
+  }
+
+  boolean matches(IntSequence symbols, int start, int end) {
+    long states = this.start;
+    for (int i = start; i < end && states != 0; i++) {
+      final int symbol = symbols.symbolAt(i);
+      long read = states & (symbol >= 0 && symbol < ASCII ? reading[symbol] : reading(states, symbol));
+      long next = 0;
+      while (read != 0) {
+        next |= follow[Long.numberOfTrailingZeros(read)];
+        read &= read - 1;
+      }
+      states = next;
+    }
+    return (states & accept) != 0;
+  }
+
+  /**
+   * the states reading a character or a symbol outside of ASCII, only the current ones are asked
+   */
+  private long reading(long states, int character) {
+    long candidates = states & consuming;
+    long read = 0;
+    while (candidates != 0) {
+      final int state = Long.numberOfTrailingZeros(candidates);
+      if (tokens[state].matches(character)) {
+        read |= 1L << state;
+      }
+      candidates &= candidates - 1;
+    }
+    return read;
+  }
+
+  /**
+   * @return a rough count of the bytes of the object and its masks
+   */
+  long retainedBytes() {
+    return 16 + 4 * 6 + 16 + 8L * follow.length + 16 + 8L * ASCII;
+  }
+
+  private static long mask(int[] states) {
+    long mask = 0;
+    for (int state : states) {
+      mask |= 1L << state;
+    }
+    return mask;
+  }
+
+}
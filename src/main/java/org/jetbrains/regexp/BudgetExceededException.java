@@ -0,0 +1,46 @@
+package org.jetbrains.regexp;
+
+/**
+ * Thrown by a matcher that used up its budget in the middle of a scan.
+ * It tells how far the scan got, matches reported before it was thrown are valid.
+ * When it is thrown because the thread was interrupted, the interrupted flag is left set.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.MatchBudget
+ */
+public class BudgetExceededException extends RuntimeException {
+
+  public enum Reason {
+    STEPS, TIME, INTERRUPTED
+  }
+
+  private final Reason reason;
+  private final int position;
+  private final long steps;
+
+  BudgetExceededException(Reason reason, int position, long steps) {
+    super("match budget exceeded (" + reason + ") at index " + position + " after " + steps + " steps");
+    this.reason = reason;
+    this.position = position;
+    this.steps = steps;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  /**
+   * @return index into the text of the character that was about to be read
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * @return the steps used up to then
+   */
+  public long getSteps() {
+    return steps;
+  }
+
+}
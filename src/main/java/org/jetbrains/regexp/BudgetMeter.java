@@ -0,0 +1,45 @@
+package org.jetbrains.regexp;
+
+/**
+ * Counts the work of a matcher against its budget. The engines charge it once per character read.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.MatchBudget
+ */
+final class BudgetMeter {
+
+  private final long maxSteps;
+  private final long deadline;
+  private final int checkInterval;
+  private long steps = 0;
+  private int untilCheck;
+
+  BudgetMeter(long maxSteps, long deadline, int checkInterval) {
+    this.maxSteps = maxSteps;
+    this.deadline = deadline;
+    this.checkInterval = checkInterval;
+    this.untilCheck = checkInterval;
+  }
+
+  /**
+   * @param states the number of states followed over the character
+   * @param position index of the character in the text
+   * @throws BudgetExceededException if the budget is used up
+   */
+  void charge(int states, int position) {
+    steps += states;
+    if (steps > maxSteps) {
+      throw new BudgetExceededException(BudgetExceededException.Reason.STEPS, position, steps);
+    }
+    if (--untilCheck == 0) {
+      untilCheck = checkInterval;
+      if (Thread.currentThread().isInterrupted()) {
+        throw new BudgetExceededException(BudgetExceededException.Reason.INTERRUPTED, position, steps);
+      }
+      if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+        throw new BudgetExceededException(BudgetExceededException.Reason.TIME, position, steps);
+      }
+    }
+  }
+
+}
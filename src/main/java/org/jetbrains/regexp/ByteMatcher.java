@@ -0,0 +1,197 @@
+package org.jetbrains.regexp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds matching patterns in UTF-8 encoded bytes without decoding them into a String.
+ * <p>
+ *   The matcher runs the byte program of the pattern over a slice of an array, or over the bytes between
+ *   the position and the limit of a buffer. Direct buffers are read in place with absolute gets, heap buffers
+ *   through their backing array, in neither case is the content copied nor the buffer position moved.
+ *   Positions returned by start and end are indices into the array or the buffer, so they can be used
+ *   on it right away.
+ *   Like {@link Matcher#find()}, every find returns the leftmost match after the previous one,
+ *   and of the matches that start there the longest.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Utf8Program
+ * @see org.jetbrains.regexp.Pattern#matcher(byte[], int, int)
+ */
+public class ByteMatcher {
+
+  private final Utf8Program program;
+  /**
+   * the array holding the text, for heap buffers their backing array starting at base
+   */
+  private final byte[] bytes;
+  private final int base;
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int limit;
+  private StateSet current;
+  private StateSet next;
+  private int searchFrom;
+  private int matchStart = -1;
+  private int matchEnd = -1;
+
+  ByteMatcher(Utf8Program program, byte[] bytes, int offset, int length) {
+    this(program, bytes, 0, null, offset, offset + length);
+    if (offset < 0 || length < 0 || offset + length > bytes.length) {
+      throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bytes.length);
+    }
+  }
+
+  ByteMatcher(Utf8Program program, ByteBuffer buffer) {
+    this(program, buffer.hasArray() ? buffer.array() : null, buffer.hasArray() ? buffer.arrayOffset() : 0,
+        buffer, buffer.position(), buffer.limit());
+  }
+
+  private ByteMatcher(Utf8Program program, byte[] bytes, int base, ByteBuffer buffer, int offset, int limit) {
+    this.program = program;
+    this.bytes = bytes;
+    this.base = base;
+    this.buffer = buffer;
+    this.offset = offset;
+    this.limit = limit;
+    this.current = new StateSet(program.stateCount());
+    this.next = new StateSet(program.stateCount());
+    this.searchFrom = offset;
+  }
+
+  /**
+   * @return true if the whole slice is matched by the pattern
+   */
+  public boolean matches() {
+    current.clear();
+    addClosure(current, 0, offset);
+    for (int i = offset; i < limit && !current.isEmpty(); i++) {
+      step(byteAt(i), Integer.MAX_VALUE);
+    }
+    final boolean matches = current.contains(program.acceptState());
+    if (matches) {
+      matchStart = offset;
+      matchEnd = limit;
+      searchFrom = limit + 1;
+    }
+    return matches;
+  }
+
+  /**
+   * Runs all partial matches side by side from the search position, each state remembering the leftmost
+   * position its partial match started at. New matches are started at every character until one is
+   * accepted, after that only the partial matches that started no later than the accepted one are
+   * followed, until all of them die. Anchored patterns are handled like in {@link Matcher#find()}.
+   *
+   * @return true if another match was found after the previous one
+   */
+  public boolean find() {
+    if (searchFrom > limit || (program.startAnchored() && searchFrom > offset)) {
+      searchFrom = limit + 1;
+      return false;
+    }
+    current.clear();
+    int bestStart = -1;
+    int bestEnd = -1;
+    int first = searchFrom;
+    if (program.endAnchored() && program.maxLength() >= 0 && limit - program.maxLength() > searchFrom) {
+      first = program.startAnchored() ? limit + 1 : limit - program.maxLength();
+    }
+    for (int i = first; i <= limit; i++) {
+      if (bestStart == -1 && (!program.startAnchored() || i == offset)
+          && (i == limit || Utf8Program.isBoundary(byteAt(i)))) {
+        addClosure(current, 0, i);
+      }
+      final int acceptState = program.acceptState();
+      if (current.contains(acceptState) && (!program.endAnchored() || i == limit)) {
+        final int start = current.startOf(acceptState);
+        if (bestStart == -1 || start <= bestStart) {
+          bestStart = start;
+          bestEnd = i;
+          current.removeStartingAfter(bestStart);
+        }
+      }
+      if (i == limit || (current.isEmpty() && (bestStart != -1 || program.startAnchored()))) {
+        break;
+      }
+      if (!current.isEmpty()) {
+        step(byteAt(i), bestStart == -1 ? Integer.MAX_VALUE : bestStart);
+      }
+    }
+    if (bestStart == -1) {
+      searchFrom = limit + 1;
+      return false;
+    }
+    matchStart = bestStart;
+    matchEnd = bestEnd;
+    searchFrom = bestEnd > bestStart ? bestEnd : bestEnd + 1;
+    return true;
+  }
+
+  /**
+   * @return index into the byte array or buffer of the first byte of the last match
+   */
+  public int start() {
+    assertState();
+    return matchStart;
+  }
+
+  /**
+   * @return index into the byte array or buffer after the last byte of the last match
+   */
+  public int end() {
+    assertState();
+    return matchEnd;
+  }
+
+  /**
+   * forgets the previous matches, the next find starts from the beginning of the slice or buffer again
+   */
+  public ByteMatcher reset() {
+    searchFrom = offset;
+    matchStart = -1;
+    matchEnd = -1;
+    return this;
+  }
+
+  private byte byteAt(int index) {
+    return bytes != null ? bytes[base + index] : buffer.get(index);
+  }
+
+  private void step(byte b, int latestStart) {
+    final int unsigned = b & 0xFF;
+    next.clear();
+    for (int i = 0; i < current.size(); i++) {
+      final int state = current.get(i);
+      final int start = current.startOf(state);
+      if (start > latestStart) {
+        continue;
+      }
+      for (int t = program.firstTransition(state); t < program.lastTransition(state); t++) {
+        if (program.accepts(t, unsigned)) {
+          final int target = program.target(t);
+          if (program.isTokenState(target)) {
+            addClosure(next, target, start);
+          } else {
+            next.add(target, start);
+          }
+        }
+      }
+    }
+    StateSet swap = current;
+    current = next;
+    next = swap;
+  }
+
+  private void addClosure(StateSet states, int tokenState, int start) {
+    for (int state : program.closure(tokenState)) {
+      states.add(state, start);
+    }
+  }
+
+  private void assertState() {
+    if (matchStart == -1) {
+      throw new IllegalStateException();
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+package org.jetbrains.regexp;
+
+/**
+ * The NFA states of a DFA state as the key it is found with: the first size members of an array, in
+ * increasing order. The stored keys own their array, the lookup key of a scratch points to the scratch.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.DfaScratch
+ */
+final class DfaKey {
+
+  private int[] members;
+  private int size;
+  private int hash;
+
+  /**
+   * @return the bytes of a state with the members and the transitions kept in an array, with its key
+   *         and its entry in the map of states
+   */
+  static long stateBytes(int members, int cachedCharacters) {
+    return 16 + 16 + 4L * members + 16 + 4L * cachedCharacters + 48 + 32;
+  }
+
+  /**
+   * @return a key owning the members
+   */
+  static DfaKey of(int[] members) {
+    final DfaKey key = new DfaKey();
+    key.set(members, members.length);
+    return key;
+  }
+
+  void set(int[] members, int size) {
+    this.members = members;
+    this.size = size;
+    int hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + members[i];
+    }
+    this.hash = hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof DfaKey)) {
+      return false;
+    }
+    final DfaKey other = (DfaKey) o;
+    if (size != other.size || hash != other.hash) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (members[i] != other.members[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.jetbrains.regexp;
+
+import java.util.Arrays;
+
+/**
+ * The NFA states reached on a character, without repeats, and the key to look them up with, so that
+ * finding a DFA state that exists allocates nothing. Owned by one thread at a time.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.LexerDfa
+ * @see org.jetbrains.regexp.SetDfa
+ */
+final class DfaScratch {
+
+  private final int[] stamps;
+  private final int[] reached;
+  private final DfaKey key = new DfaKey();
+  private int generation = 0;
+  private int size = 0;
+
+  DfaScratch(int stateCount) {
+    this.stamps = new int[stateCount];
+    this.reached = new int[stateCount];
+  }
+
+  void begin() {
+    if (++generation == 0) {
+      Arrays.fill(stamps, 0);
+      generation = 1;
+    }
+    size = 0;
+  }
+
+  void add(int state) {
+    if (stamps[state] != generation) {
+      stamps[state] = generation;
+      reached[size++] = state;
+    }
+  }
+
+  /**
+   * puts the states reached in increasing order, the order of the keys
+   */
+  void sort() {
+    Arrays.sort(reached, 0, size);
+  }
+
+  int size() {
+    return size;
+  }
+
+  int get(int index) {
+    return reached[index];
+  }
+
+  /**
+   * @return the key of the states reached, until the next begin
+   */
+  DfaKey key() {
+    key.set(reached, size);
+    return key;
+  }
+
+  /**
+   * @return a copy of the states reached
+   */
+  int[] members() {
+    return Arrays.copyOf(reached, size);
+  }
+
+  /**
+   * copies the states reached into the array
+   *
+   * @return their number
+   */
+  int copyTo(int[] states) {
+    System.arraycopy(reached, 0, states, 0, size);
+    return size;
+  }
+
+}
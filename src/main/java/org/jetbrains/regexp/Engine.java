@@ -0,0 +1,36 @@
+package org.jetbrains.regexp;
+
+/**
+ * The ways a pattern can match a whole text, from the cheapest to the most general.
+ * The engine is picked for each pattern when it is compiled and may change while the pattern is used.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#engine()
+ */
+public enum Engine {
+
+  /**
+   * the pattern matches a single string, the text is compared to it
+   */
+  LITERAL,
+
+  /**
+   * the pattern matches a small set of strings, like cat|dog, the text is looked up in the set
+   */
+  LITERAL_SET,
+
+  /**
+   * the NFA has at most 64 states, a set of states is a bit mask and a step is a few masks and shifts
+   */
+  BIT_PARALLEL,
+
+  /**
+   * the lazily built DFA shared by all threads, a step is an array lookup once the states are built
+   */
+  DFA,
+
+  /**
+   * the NFA scanner, for the patterns too large for a DFA and the ones whose DFA keeps running out of memory
+   */
+  NFA
+}
@@ -0,0 +1,437 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.LanguageSymbols;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the engine a pattern matches whole texts with, and changes it as the pattern is used.
+ * <p>
+ *   When the pattern is compiled its tokens are looked at once. A pattern matching a single string
+ *   is compared to the text, one matching a few strings looks the text up in a set. Otherwise a pattern
+ *   with at most 64 states runs on bit masks, which are cheap to build, and a larger one on the lazy DFA.
+ *   The patterns with so many states that building DFA states would cost more than it saves run on the NFA.
+ *   This library has no capture groups, so no pattern needs an engine that tracks them.
+ * <p>
+ *   Then the choice is revisited with two counters, both only written until they have decided:
+ *   a bit parallel pattern that has matched many texts is hot and moves to the DFA, whose transitions are
+ *   cheaper once built, and a DFA that keeps running out of memory is thrashing, it is dropped for good
+ *   and the pattern goes back to bit masks or to the NFA.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Engine
+ * @see org.jetbrains.regexp.Pattern#engine()
+ */
+final class EnginePlanner {
+
+  /**
+   * the matches after which a bit parallel pattern moves to the DFA
+   */
+  static final int HOT_CALLS = 256;
+
+  /**
+   * the texts the DFA can fail to match for lack of memory before it is dropped
+   */
+  static final int THRASH_MISSES = 64;
+
+  /**
+   * the most states of a pattern that is given a DFA
+   */
+  static final int MAX_DFA_STATES = 2048;
+
+  /**
+   * the most strings of a literal set
+   */
+  static final int MAX_LITERALS = 64;
+
+  private final NfaProgram program;
+  private final long dfaMemoryLimit;
+  private final Set<String> literals;
+  /**
+   * the same strings, to compare int symbols and texts that are not strings to without an iterator
+   */
+  private final String[] literalArray;
+  private final String literal;
+  private final int minLength;
+  private final int maxLength;
+  private final boolean fitsBitParallel;
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private volatile Engine engine;
+  private volatile LazyDfa dfa = null;
+  private volatile BitParallelNfa bitParallel = null;
+
+  EnginePlanner(NfaProgram program) {
+    this(program, LazyDfa.DEFAULT_MEMORY_LIMIT);
+  }
+
+  EnginePlanner(NfaProgram program, long dfaMemoryLimit) {
+    this.program = program;
+    this.dfaMemoryLimit = dfaMemoryLimit;
+    this.literals = new LiteralSet(program.tokens()).getLiterals();
+    this.literal = literals != null && literals.size() == 1 ? literals.iterator().next() : null;
+    this.literalArray = literals != null ? literals.toArray(new String[literals.size()]) : null;
+    int minLength = Integer.MAX_VALUE;
+    int maxLength = 0;
+    if (literals != null) {
+      for (String string : literals) {
+        minLength = Math.min(minLength, string.length());
+        maxLength = Math.max(maxLength, string.length());
+      }
+    }
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+    this.fitsBitParallel = literals == null && program.stateCount() <= BitParallelNfa.MAX_STATES;
+    if (literal != null) {
+      engine = Engine.LITERAL;
+    } else if (literals != null) {
+      engine = Engine.LITERAL_SET;
+    } else if (fitsBitParallel) {
+      engine = Engine.BIT_PARALLEL;
+    } else if (program.stateCount() <= MAX_DFA_STATES) {
+      engine = Engine.DFA;
+    } else {
+      engine = Engine.NFA;
+    }
+  }
+
+  Engine engine() {
+    return engine;
+  }
+
+  /**
+   * @return the strings the pattern matches when they are few and all known, null otherwise
+   */
+  Set<String> literals() {
+    return literals;
+  }
+
+  /**
+   * @param scanner a scanner for the NFA, null to make one if the NFA is needed
+   * @param scratch a scratch for the DFA, null to make one if the DFA needs a transition it does not have
+   * @return true if the whole text is matched by the pattern
+   */
+  boolean matches(CharSequence text, NfaScanner scanner, DfaScratch scratch) {
+    switch (engine) {
+      case LITERAL:
+        return text.length() == literal.length() && regionMatches(text, 0, literal);
+      case LITERAL_SET:
+        if (text.length() < minLength || text.length() > maxLength) {
+          return false;
+        }
+        if (text instanceof String) {
+          return literals.contains(text);
+        }
+        // compared in place, a reused buffer is not copied into a string
+        for (String string : literalArray) {
+          if (string.length() == text.length() && regionMatches(text, 0, string)) {
+            return true;
+          }
+        }
+        return false;
+      case BIT_PARALLEL:
+        countCall();
+        return bitParallel().matches(text, 0, text.length());
+      case DFA:
+        final int matches = dfa().matches(text, 0, text.length(), scratch);
+        if (matches != LazyDfa.UNKNOWN) {
+          return matches == 1;
+        }
+        countMiss();
+        break;
+    }
+    if (scanner == null) {
+      scanner = new NfaScanner(program);
+    }
+    return scanner.matches(text, 0, text.length());
+  }
+
+  /**
+   * the same as for characters, with the same engine and counters. The strings of a literal set are few,
+   * they are compared to the symbols one by one.
+   *
+   * @return true if all the symbols are matched by the pattern
+   */
+  boolean matches(IntSequence symbols, NfaScanner scanner, DfaScratch scratch) {
+    final int length = symbols.length();
+    switch (engine) {
+      case LITERAL:
+        return length == literal.length() && regionMatches(symbols, 0, literal);
+      case LITERAL_SET:
+        if (length >= minLength && length <= maxLength) {
+          for (String string : literalArray) {
+            if (string.length() == length && regionMatches(symbols, 0, string)) {
+              return true;
+            }
+          }
+        }
+        return false;
+      case BIT_PARALLEL:
+        countCall();
+        return bitParallel().matches(symbols, 0, length);
+      case DFA:
+        final int matches = dfa().matches(symbols, 0, length, scratch);
+        if (matches != LazyDfa.UNKNOWN) {
+          return matches == 1;
+        }
+        countMiss();
+        break;
+    }
+    if (scanner == null) {
+      scanner = new NfaScanner(program);
+    }
+    return scanner.matches(symbols, 0, length);
+  }
+
+  /**
+   * @return true if the pattern matches any part of the text
+   */
+  boolean contains(CharSequence text) {
+    if (literal == null) {
+      return new NfaScanner(program).contains(text, 0, text.length());
+    }
+    final int last = text.length() - literal.length();
+    if (last < 0) {
+      return false;
+    }
+    if (program.startAnchored()) {
+      return (!program.endAnchored() || last == 0) && regionMatches(text, 0, literal);
+    }
+    if (program.endAnchored()) {
+      return regionMatches(text, last, literal);
+    }
+    for (int i = 0; i <= last; i++) {
+      if (regionMatches(text, i, literal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the pattern matches any part of the symbols
+   */
+  boolean contains(IntSequence symbols) {
+    if (literal == null) {
+      return new NfaScanner(program).contains(symbols, 0, symbols.length());
+    }
+    final int last = symbols.length() - literal.length();
+    if (last < 0) {
+      return false;
+    }
+    if (program.startAnchored()) {
+      return (!program.endAnchored() || last == 0) && regionMatches(symbols, 0, literal);
+    }
+    if (program.endAnchored()) {
+      return regionMatches(symbols, last, literal);
+    }
+    for (int i = 0; i <= last; i++) {
+      if (regionMatches(symbols, i, literal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return a rough count of the bytes held for choosing and running the engines, the DFA included
+   */
+  long retainedBytes() {
+    long bytes = 16 + 4 * 13;
+    if (literals != null) {
+      bytes += 16 + 16 + 4 * 2 * literals.size() + 16 + 4 * literals.size();
+      for (String string : literals) {
+        bytes += 32 + 24 + 16 + 2 * string.length();
+      }
+    }
+    final BitParallelNfa bitParallel = this.bitParallel;
+    if (bitParallel != null) {
+      bytes += bitParallel.retainedBytes();
+    }
+    final LazyDfa dfa = this.dfa;
+    if (dfa != null) {
+      bytes += dfa.retainedBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * the masks are only built for a pattern once it is used, two threads building them at once build the same
+   */
+  private BitParallelNfa bitParallel() {
+    BitParallelNfa bitParallel = this.bitParallel;
+    if (bitParallel == null) {
+      bitParallel = new BitParallelNfa(program);
+      this.bitParallel = bitParallel;
+    }
+    return bitParallel;
+  }
+
+  private LazyDfa dfa() {
+    LazyDfa dfa = this.dfa;
+    if (dfa == null) {
+      synchronized (this) {
+        dfa = this.dfa;
+        if (dfa == null) {
+          dfa = new LazyDfa(program, dfaMemoryLimit);
+          this.dfa = dfa;
+        }
+      }
+    }
+    return dfa;
+  }
+
+  /**
+   * a bit parallel pattern that has matched many texts is hot and moves to the DFA
+   */
+  private void countCall() {
+    if (misses.get() < THRASH_MISSES && calls.incrementAndGet() >= HOT_CALLS) {
+      engine = Engine.DFA;
+    }
+  }
+
+  /**
+   * a DFA that keeps running out of memory is dropped for good
+   */
+  private void countMiss() {
+    if (misses.incrementAndGet() >= THRASH_MISSES) {
+      engine = fitsBitParallel ? Engine.BIT_PARALLEL : Engine.NFA;
+      dfa = null;
+    }
+  }
+
+  private static boolean regionMatches(IntSequence symbols, int offset, String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (symbols.symbolAt(offset + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean regionMatches(CharSequence text, int offset, String string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (text.charAt(offset + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The strings a pattern matches, if it is made only of characters, sets of characters, groups,
+   * alternatives and optional parts, and they are few.
+   */
+  private static final class LiteralSet {
+
+    private final Token[] tokens;
+    private int position = 0;
+    /**
+     * the groups open at the position, an optimized group has two alternatives or is optional, so one nested
+     * deeper than MAX_LITERALS has too many strings and is not read, which keeps long x{0,n} off the stack
+     */
+    private int depth = 0;
+    private final Set<String> literals;
+
+    private LiteralSet(Token[] tokens) {
+      this.tokens = tokens;
+      Set<String> literals = null;
+      if (tokens.length > 0 && tokens[0] == LanguageSymbols.OPEN_PAREN) {
+        position = 1;
+        literals = alternatives();
+      }
+      this.literals = position == tokens.length ? literals : null;
+    }
+
+    /**
+     * @return null if the strings are not all known
+     */
+    private Set<String> getLiterals() {
+      return literals;
+    }
+
+    /**
+     * reads the alternatives of a group up to and including its closing parenthesis
+     */
+    private Set<String> alternatives() {
+      Set<String> result = new LinkedHashSet<String>();
+      Set<String> sequence = single("");
+      while (position < tokens.length) {
+        final Token token = tokens[position++];
+        if (token == LanguageSymbols.CLOSE_PAREN) {
+          result.addAll(sequence);
+          return result.size() <= MAX_LITERALS ? result : null;
+        }
+        if (token == LanguageSymbols.OR) {
+          result.addAll(sequence);
+          sequence = single("");
+          continue;
+        }
+        Set<String> item = item(token);
+        if (item == null) {
+          return null;
+        }
+        if (position < tokens.length && tokens[position] == LanguageSymbols.OPTIONAL) {
+          position++;
+          item.add("");
+        }
+        sequence = concatenate(sequence, item);
+        if (sequence == null) {
+          return null;
+        }
+      }
+      return null;
+    }
+
+    private Set<String> item(Token token) {
+      if (token == LanguageSymbols.OPEN_PAREN) {
+        if (++depth > MAX_LITERALS) {
+          return null;
+        }
+        final Set<String> alternatives = alternatives();
+        depth--;
+        return alternatives;
+      }
+      if (token instanceof CharacterToken) {
+        return single(String.valueOf(((CharacterToken) token).getValue()));
+      }
+      if (token instanceof MatchingSet && !((MatchingSet) token).isNegative()) {
+        Set<String> characters = new LinkedHashSet<String>();
+        for (Token member : ((MatchingSet) token).getTokens()) {
+          if (!(member instanceof CharacterToken)) {
+            return null;
+          }
+          characters.add(String.valueOf(((CharacterToken) member).getValue()));
+        }
+        return characters;
+      }
+      return null;
+    }
+
+    private static Set<String> concatenate(Set<String> prefixes, Set<String> suffixes) {
+      if ((long) prefixes.size() * suffixes.size() > MAX_LITERALS) {
+        return null;
+      }
+      Set<String> result = new LinkedHashSet<String>();
+      for (String prefix : prefixes) {
+        for (String suffix : suffixes) {
+          result.add(prefix + suffix);
+        }
+      }
+      return result;
+    }
+
+    private static Set<String> single(String string) {
+      Set<String> set = new HashSet<String>();
+      set.add(string);
+      return set;
+    }
+  }
+
+}
@@ -0,0 +1,516 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the matches of a pattern in a document that is edited, finding them again after an edit
+ * only around the edit.
+ * <p>
+ *   The matches are the ones {@link Matcher#find()} returns one after the other. While looking for
+ *   a match, the scan saves its state every so many characters as a checkpoint: the NFA states
+ *   with the distance back to where their partial matches started. After an edit, the matches that were
+ *   decided before the edit are kept, and the scan resumes from the last checkpoint before the edit.
+ *   Once it is past the edit, the scan stops as soon as it is in the same state at the same place
+ *   relative to the rest of the document as it was before the edit, that is when a search starts where
+ *   a search started before, or when its state is that of a saved checkpoint. From there on everything
+ *   would be found again as it was, so the old matches and checkpoints are shifted by the length
+ *   of the edit and reused. A pattern anchored at the start only matches in the first search, which
+ *   depends on where the text starts, so it is never taken over: an edit it read scans it again from 0.
+ * <p>
+ *   The characters scanned after an edit are roughly the edit and the matches around it. The matches
+ *   and checkpoints are kept with a gap where the last edit was, and the ones after the gap are shifted
+ *   all at once when they are read, so an edit only moves the records between the last edit and this one
+ *   and replaces the ones it scanned again, however long the document.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#incrementalMatcher(CharSequence)
+ */
+public class IncrementalMatcher {
+
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 256;
+
+  private static final long[] EMPTY = new long[0];
+
+  private final NfaProgram program;
+  private final Token[] tokens;
+  private final int acceptState;
+  private final int checkpointInterval;
+  private final StringBuilder text;
+  private StateSet current;
+  private StateSet next;
+  /**
+   * start, end, and the most characters any match up to this one read
+   */
+  private final Records matches = new Records(3, false);
+  /**
+   * the position, the search it was saved in as the number of matches before it, and the states
+   */
+  private final Records checkpoints = new Records(2, true);
+  private int lastScanned = 0;
+
+  /**
+   * true while an edit is scanned, the records not kept are then the old ones
+   */
+  private boolean rescanning = false;
+  private int delta;
+  private int resyncFrom;
+
+  IncrementalMatcher(NfaProgram program, CharSequence text, int checkpointInterval) {
+    if (checkpointInterval <= 0) {
+      throw new IllegalArgumentException("checkpoint interval must be positive");
+    }
+    this.program = program;
+    this.tokens = program.tokens();
+    this.acceptState = program.acceptState();
+    this.checkpointInterval = checkpointInterval;
+    this.text = new StringBuilder(text);
+    this.current = new StateSet(program.stateCount());
+    this.next = new StateSet(program.stateCount());
+    scan(0, 0, EMPTY);
+    matches.endEdit();
+    checkpoints.endEdit();
+  }
+
+  public CharSequence text() {
+    return text;
+  }
+
+  public int matchCount() {
+    return matches.size();
+  }
+
+  public int start(int match) {
+    return matches.get(match, 0);
+  }
+
+  public int end(int match) {
+    return matches.get(match, 1);
+  }
+
+  public String group(int match) {
+    return text.substring(start(match), end(match));
+  }
+
+  /**
+   * @return the number of characters read to update the matches after the last edit
+   */
+  public int lastScanned() {
+    return lastScanned;
+  }
+
+  /**
+   * Replaces the characters from the start to the end of the document and updates the matches.
+   */
+  public void replace(int start, int end, CharSequence replacement) {
+    if (start < 0 || start > end || end > text.length()) {
+      throw new IndexOutOfBoundsException("replace " + start + "," + end + " of " + text.length());
+    }
+    text.replace(start, end, replacement.toString());
+    update(start, end, replacement.length());
+  }
+
+  public void insert(int position, CharSequence inserted) {
+    replace(position, position, inserted);
+  }
+
+  public void delete(int start, int end) {
+    replace(start, end, "");
+  }
+
+  private void update(int start, int end, int length) {
+    delta = length - (end - start);
+    resyncFrom = start + length;
+
+    // the matches found without reading the edited characters stay
+    int kept = 0;
+    int high = matches.oldSize();
+    while (kept < high) {
+      final int middle = (kept + high) >>> 1;
+      if (matches.old(middle, 2) < start) {
+        kept = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    final int searchStart = kept == 0 ? 0 : nextSearch(kept - 1);
+
+    // the last checkpoint of that search before the edit, if there is one
+    int resume = lastCheckpointAtOrBefore(start);
+    while (resume >= 0 && checkpoints.old(resume, 1) != kept && checkpoints.old(resume, 0) > searchStart) {
+      resume--;
+    }
+    final boolean fromCheckpoint = resume >= 0 && checkpoints.old(resume, 1) == kept
+        && checkpoints.old(resume, 0) > searchStart;
+    final int keptCheckpoints = fromCheckpoint ? resume + 1 : lastCheckpointAtOrBefore(searchStart) + 1;
+
+    matches.beginEdit(kept);
+    checkpoints.beginEdit(keptCheckpoints);
+    rescanning = true;
+    final boolean inStep;
+    if (fromCheckpoint) {
+      inStep = scan(checkpoints.old(resume, 0), searchStart, (long[]) checkpoints.oldObject(resume));
+    } else {
+      inStep = scan(searchStart, searchStart, EMPTY);
+    }
+    rescanning = false;
+    if (!inStep) {
+      matches.endEdit();
+      checkpoints.endEdit();
+    }
+  }
+
+  /**
+   * Looks for matches like repeated finds do, from the position in the given state, saving checkpoints
+   * on the way, until the end of the document or until it is back in step with the scan before the edit.
+   *
+   * @return true if it got back in step, the old matches and checkpoints after that are then taken over
+   */
+  private boolean scan(int position, int searchStart, long[] state) {
+    final int end = text.length();
+    current.clear();
+    restore(state, position);
+    int search = searchStart;
+    int lastCheckpoint = position;
+    int bestStart = -1;
+    int bestEnd = -1;
+    int scanned = 0;
+    boolean inStep = false;
+    for (int i = position; ; i++) {
+      if (bestStart == -1) {
+        if (rescanning && !program.startAnchored() && i >= resyncFrom && i - delta > 0 && resync(i, search)) {
+          inStep = true;
+          break;
+        }
+        if (i - lastCheckpoint >= checkpointInterval) {
+          checkpoints.add(i, matches.added(), save(i));
+          lastCheckpoint = i;
+        }
+        if (!program.startAnchored() || i == 0) {
+          addClosure(current, 0, i);
+        }
+      }
+      if (current.contains(acceptState) && (!program.endAnchored() || i == end)) {
+        final int acceptedStart = current.startOf(acceptState);
+        if (bestStart == -1 || acceptedStart <= bestStart) {
+          bestStart = acceptedStart;
+          bestEnd = i;
+          current.removeStartingAfter(bestStart);
+        }
+      }
+      if (i == end || (current.isEmpty() && (bestStart != -1 || program.startAnchored()))) {
+        if (bestStart == -1) {
+          break;
+        }
+        addMatch(bestStart, bestEnd, i);
+        search = bestEnd > bestStart ? bestEnd : bestEnd + 1;
+        if (search > end) {
+          break;
+        }
+        current.clear();
+        bestStart = -1;
+        bestEnd = -1;
+        lastCheckpoint = search;
+        i = search - 1;
+        continue;
+      }
+      step(text.charAt(i), bestStart == -1 ? Integer.MAX_VALUE : bestStart);
+      scanned++;
+    }
+    lastScanned = scanned;
+    return inStep;
+  }
+
+  /**
+   * @return true if the scan at the position is in step with the old scan, the old matches and checkpoints
+   *         after it are then taken over
+   */
+  private boolean resync(int position, int search) {
+    final int oldPosition = position - delta;
+    if (position == search && current.isEmpty()) {
+      // a search starting where one started before
+      final int following = firstStartingAtOrAfter(oldPosition);
+      if (following > 0 && nextSearch(following - 1) == oldPosition) {
+        takeOver(following, oldPosition);
+        return true;
+      }
+      return false;
+    }
+    final int checkpoint = lastCheckpointAtOrBefore(oldPosition);
+    if (checkpoint < 0 || checkpoints.old(checkpoint, 0) != oldPosition
+        || !Arrays.equals((long[]) checkpoints.oldObject(checkpoint), save(position))) {
+      return false;
+    }
+    // the matches of the search the checkpoint was saved in come after the ones before it
+    takeOver(checkpoints.old(checkpoint, 1), oldPosition);
+    return true;
+  }
+
+  /**
+   * takes over the old matches from the given one and the old checkpoints of their searches from the position
+   * on, shifted by the edit
+   */
+  private void takeOver(int firstMatch, int oldPosition) {
+    final int searchDelta = matches.added() - firstMatch;
+    int firstCheckpoint = lastCheckpointAtOrBefore(oldPosition - 1) + 1;
+    while (firstCheckpoint < checkpoints.oldSize() && checkpoints.old(firstCheckpoint, 1) < firstMatch) {
+      firstCheckpoint++;
+    }
+    matches.takeOver(firstMatch, new int[]{delta, delta, delta});
+    checkpoints.takeOver(firstCheckpoint, new int[]{delta, searchDelta});
+  }
+
+  private void addMatch(int start, int end, int read) {
+    final int size = matches.added();
+    matches.add(start, end, size == 0 ? read : Math.max(read, matches.get(size - 1, 2)));
+  }
+
+  /**
+   * the methods below look at the old records while an edit is scanned, at all of them otherwise
+   */
+  private int nextSearch(int match) {
+    final int start = matches.old(match, 0);
+    final int end = matches.old(match, 1);
+    return end > start ? end : end + 1;
+  }
+
+  private int firstStartingAtOrAfter(int position) {
+    int low = 0;
+    int high = matches.oldSize();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (matches.old(middle, 0) < position) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int lastCheckpointAtOrBefore(int position) {
+    int low = 0;
+    int high = checkpoints.oldSize();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (checkpoints.old(middle, 0) <= position) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low - 1;
+  }
+
+  /**
+   * @return the current states with the distances back to their starts, in a canonical order
+   */
+  private long[] save(int position) {
+    if (current.isEmpty()) {
+      return EMPTY;
+    }
+    long[] state = new long[current.size()];
+    for (int i = 0; i < current.size(); i++) {
+      final int nfaState = current.get(i);
+      state[i] = ((long) nfaState << 32) | (position - current.startOf(nfaState));
+    }
+    Arrays.sort(state);
+    return state;
+  }
+
+  private void restore(long[] state, int position) {
+    for (long value : state) {
+      current.add((int) (value >>> 32), position - (int) value);
+    }
+  }
+
+  private void step(char character, int latestStart) {
+    next.clear();
+    for (int i = 0; i < current.size(); i++) {
+      final int state = current.get(i);
+      final int start = current.startOf(state);
+      if (state != acceptState && start <= latestStart && tokens[state].matches(character)) {
+        addClosure(next, state + 1, start);
+      }
+    }
+    StateSet swap = current;
+    current = next;
+    next = swap;
+  }
+
+  private void addClosure(StateSet states, int state, int start) {
+    for (int v : program.closure(state)) {
+      states.add(v, start);
+    }
+  }
+
+  /**
+   * Records of a few ints, and an object for the checkpoints, in one array with a gap where the last edit was.
+   * The ints after the gap are stored less the shift of their column, which is added when they are read,
+   * so the records after an edit are shifted by changing the shifts.
+   * <p>
+   *   An edit keeps the records before it, moving the gap there, and adds the new ones in the gap. The old
+   *   records are then the kept ones and the ones after the gap, until the ones still right are taken over
+   *   or all of them are dropped.
+   */
+  private static final class Records {
+
+    private final int width;
+    private final int[] shifts;
+    private int[] values;
+    private Object[] objects;
+    private int gapStart = 0;
+    private int gapEnd;
+    private int kept = 0;
+
+    Records(int width, boolean withObjects) {
+      this.width = width;
+      this.shifts = new int[width];
+      this.values = new int[16 * width];
+      this.objects = withObjects ? new Object[16] : null;
+      this.gapEnd = 16;
+    }
+
+    int size() {
+      return gapStart + capacity() - gapEnd;
+    }
+
+    /**
+     * @return the records kept and added by the edit
+     */
+    int added() {
+      return gapStart;
+    }
+
+    int get(int record, int column) {
+      return record < gapStart ? values[record * width + column] : after(record - gapStart, column);
+    }
+
+    int oldSize() {
+      return kept + capacity() - gapEnd;
+    }
+
+    int old(int record, int column) {
+      return record < kept ? values[record * width + column] : after(record - kept, column);
+    }
+
+    Object oldObject(int record) {
+      return objects[record < kept ? record : gapEnd + record - kept];
+    }
+
+    void add(int first, int second, int third) {
+      final int offset = open() * width;
+      values[offset] = first;
+      values[offset + 1] = second;
+      values[offset + 2] = third;
+    }
+
+    void add(int first, int second, Object object) {
+      final int record = open();
+      values[record * width] = first;
+      values[record * width + 1] = second;
+      objects[record] = object;
+    }
+
+    /**
+     * moves the gap after the first records, the others are the old ones until the edit ends
+     */
+    void beginEdit(int kept) {
+      while (gapStart > kept) {
+        gapStart--;
+        gapEnd--;
+        for (int column = 0; column < width; column++) {
+          values[gapEnd * width + column] = values[gapStart * width + column] - shifts[column];
+        }
+        moveObject(gapStart, gapEnd);
+      }
+      while (gapStart < kept) {
+        for (int column = 0; column < width; column++) {
+          values[gapStart * width + column] = values[gapEnd * width + column] + shifts[column];
+        }
+        moveObject(gapEnd, gapStart);
+        gapStart++;
+        gapEnd++;
+      }
+      this.kept = kept;
+    }
+
+    /**
+     * ends the edit with the old records from the given one on, shifted
+     */
+    void takeOver(int from, int[] deltas) {
+      for (int record = from; record < kept; record++) {
+        final int copy = open();
+        for (int column = 0; column < width; column++) {
+          values[copy * width + column] = values[record * width + column] + deltas[column];
+        }
+        if (objects != null) {
+          objects[copy] = objects[record];
+        }
+      }
+      drop(Math.max(from, kept) - kept);
+      for (int column = 0; column < width; column++) {
+        shifts[column] += deltas[column];
+      }
+      kept = gapStart;
+    }
+
+    /**
+     * ends the edit dropping the old records after the gap
+     */
+    void endEdit() {
+      drop(capacity() - gapEnd);
+      kept = gapStart;
+    }
+
+    private int capacity() {
+      return values.length / width;
+    }
+
+    private int after(int index, int column) {
+      return values[(gapEnd + index) * width + column] + shifts[column];
+    }
+
+    /**
+     * the two are the same slot when the gap is empty
+     */
+    private void moveObject(int from, int to) {
+      if (objects != null && from != to) {
+        objects[to] = objects[from];
+        objects[from] = null;
+      }
+    }
+
+    private void drop(int count) {
+      if (objects != null) {
+        Arrays.fill(objects, gapEnd, gapEnd + count, null);
+      }
+      gapEnd += count;
+    }
+
+    /**
+     * @return the index of a new record at the start of the gap
+     */
+    private int open() {
+      if (gapStart == gapEnd) {
+        final int capacity = capacity();
+        final int after = capacity - gapEnd;
+        final int grown = 2 * capacity;
+        final int[] values = new int[grown * width];
+        System.arraycopy(this.values, 0, values, 0, gapStart * width);
+        System.arraycopy(this.values, gapEnd * width, values, (grown - after) * width, after * width);
+        this.values = values;
+        if (objects != null) {
+          final Object[] objects = new Object[grown];
+          System.arraycopy(this.objects, 0, objects, 0, gapStart);
+          System.arraycopy(this.objects, gapEnd, objects, grown - after, after);
+          this.objects = objects;
+        }
+        gapEnd = grown - after;
+      }
+      return gapStart++;
+    }
+  }
+
+}
@@ -0,0 +1,33 @@
+package org.jetbrains.regexp;
+
+/**
+ * The symbols of a part of an int array, the array is not copied.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ */
+final class IntArraySequence implements IntSequence {
+
+  private final int[] symbols;
+  private final int offset;
+  private final int length;
+
+  IntArraySequence(int[] symbols, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > symbols.length) {
+      throw new IndexOutOfBoundsException("offset " + offset + " length " + length + " of " + symbols.length);
+    }
+    this.symbols = symbols;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public int symbolAt(int index) {
+    return symbols[offset + index];
+  }
+
+}
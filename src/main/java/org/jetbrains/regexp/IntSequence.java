@@ -0,0 +1,20 @@
+package org.jetbrains.regexp;
+
+/**
+ * A sequence of int symbols a pattern can be matched against, like a CharSequence is for characters,
+ * for instance event codes or the ids of the words of a text.
+ * <p>
+ *   A character of the pattern matches the symbol equal to its code, and \x{h...h} matches any symbol,
+ *   also those above the characters. A code point above them matches the surrogate pair of a text,
+ *   here the code point itself. The symbols are read as ints, nothing is boxed.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#matches(IntSequence)
+ */
+public interface IntSequence {
+
+  int length();
+
+  int symbolAt(int index);
+
+}
@@ -0,0 +1,237 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A deterministic automaton for matching whole texts, built from the NFA a transition at a time,
+ * as the texts need it, and shared by all the threads using the pattern.
+ * <p>
+ *   A DFA state is the set of NFA states a match can be in after some characters. The transitions
+ *   on characters below 256 are kept in an array per state. They are read without locking and
+ *   published with compare and set, two threads computing the same transition at once get the same
+ *   state, since the states are interned by their NFA states. Transitions on other characters are
+ *   computed every time, only the state they lead to is shared.
+ * <p>
+ *   A transition is computed in a scratch and the state is looked up with the key of the scratch, as
+ *   for a lexer, so following transitions to states that exist allocates nothing. The caller can pass
+ *   a scratch to use for many texts, otherwise one is made on the first transition not cached.
+ * <p>
+ *   The memory taken by the states is bounded. Once the bound is reached no state is added,
+ *   a text that needs a new one is matched by the NFA instead, while the states built so far keep
+ *   being used.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.NfaProgram
+ * @see org.jetbrains.regexp.Pattern#matches(CharSequence)
+ * @see org.jetbrains.regexp.DfaScratch
+ */
+final class LazyDfa {
+
+  static final long DEFAULT_MEMORY_LIMIT = 1 << 20;
+  static final int CACHED_CHARACTERS = 256;
+
+  /**
+   * returned by matches when the memory bound is reached and the NFA has to decide
+   */
+  static final int UNKNOWN = -1;
+
+  private final NfaProgram program;
+  private final Token[] tokens;
+  private final long memoryLimit;
+  private final AtomicLong memoryUsed = new AtomicLong();
+  private final ConcurrentMap<DfaKey, DfaState> states = new ConcurrentHashMap<DfaKey, DfaState>();
+  private final DfaState start;
+
+  LazyDfa(NfaProgram program, long memoryLimit) {
+    this.program = program;
+    this.tokens = program.tokens();
+    this.memoryLimit = memoryLimit;
+    final DfaScratch scratch = newScratch();
+    scratch.begin();
+    for (int state : program.closure(0)) {
+      scratch.add(state);
+    }
+    scratch.sort();
+    this.start = intern(scratch, true);
+  }
+
+  DfaScratch newScratch() {
+    return new DfaScratch(program.stateCount());
+  }
+
+  /**
+   * @param scratch to compute new transitions in, null to make one if a transition is not cached
+   * @return 1 if the characters from the start to the end are matched by the pattern entirely,
+   *         0 if they are not, UNKNOWN if the memory bound did not leave room for a state needed
+   */
+  int matches(CharSequence text, int start, int end, DfaScratch scratch) {
+    DfaState state = this.start;
+    for (int i = start; i < end; i++) {
+      if (state.isDead()) {
+        return 0;
+      }
+      final char character = text.charAt(i);
+      DfaState next = character < CACHED_CHARACTERS ? state.next.get(character) : null;
+      if (next == null) {
+        if (scratch == null) {
+          scratch = newScratch();
+        }
+        next = next(state, character, scratch);
+        if (next == null) {
+          return UNKNOWN;
+        }
+      }
+      state = next;
+    }
+    return state.accepting ? 1 : 0;
+  }
+
+  /**
+   * @return the same as for characters, for the int symbols from the start to the end
+   */
+  int matches(IntSequence symbols, int start, int end, DfaScratch scratch) {
+    DfaState state = this.start;
+    for (int i = start; i < end; i++) {
+      if (state.isDead()) {
+        return 0;
+      }
+      final int symbol = symbols.symbolAt(i);
+      DfaState next = symbol >= 0 && symbol < CACHED_CHARACTERS ? state.next.get(symbol) : null;
+      if (next == null) {
+        if (scratch == null) {
+          scratch = newScratch();
+        }
+        next = next(state, symbol, scratch);
+        if (next == null) {
+          return UNKNOWN;
+        }
+      }
+      state = next;
+    }
+    return state.accepting ? 1 : 0;
+  }
+
+  int stateCount() {
+    return states.size();
+  }
+
+  long memoryUsed() {
+    return memoryUsed.get();
+  }
+
+  /**
+   * @return the memory used by the states, and the map and counter holding them
+   */
+  long retainedBytes() {
+    return 16 + 4 * 6 + 24 + 64 + memoryUsed.get();
+  }
+
+  /**
+   * Builds every state reachable from the start, breadth first, following the transitions on the given
+   * symbols only. With one symbol from each class of symbols the tokens cannot tell apart, that is all the
+   * states the DFA can ever have.
+   *
+   * @return the number of states, UNKNOWN if the memory bound was reached first
+   */
+  int explore(int[] symbols) {
+    final DfaScratch scratch = newScratch();
+    final Deque<DfaState> queue = new ArrayDeque<DfaState>();
+    final Set<DfaState> seen = new HashSet<DfaState>();
+    queue.add(start);
+    seen.add(start);
+    while (!queue.isEmpty()) {
+      final DfaState state = queue.poll();
+      if (state.isDead()) {
+        continue;
+      }
+      for (int symbol : symbols) {
+        final DfaState next = next(state, symbol, scratch);
+        if (next == null) {
+          return UNKNOWN;
+        }
+        if (seen.add(next)) {
+          queue.add(next);
+        }
+      }
+    }
+    return states.size();
+  }
+
+  /**
+   * @param symbol a character, or an int symbol, the symbols from 0 to 255 share the cached transitions
+   */
+  private DfaState next(DfaState state, int symbol, DfaScratch scratch) {
+    final boolean cached = symbol >= 0 && symbol < CACHED_CHARACTERS;
+    if (cached) {
+      final DfaState known = state.next.get(symbol);
+      if (known != null) {
+        return known;
+      }
+    }
+    scratch.begin();
+    for (int nfaState : state.nfaStates) {
+      if (nfaState != program.acceptState() && tokens[nfaState].matches(symbol)) {
+        for (int v : program.closure(nfaState + 1)) {
+          scratch.add(v);
+        }
+      }
+    }
+    scratch.sort();
+    final DfaState next = intern(scratch, false);
+    if (next != null && cached) {
+      state.next.compareAndSet(symbol, null, next);
+    }
+    return next;
+  }
+
+  /**
+   * @return the state for the NFA states in the scratch, null if it is new and there is no memory left for it
+   */
+  private DfaState intern(DfaScratch scratch, boolean force) {
+    DfaState state = states.get(scratch.key());
+    if (state != null) {
+      return state;
+    }
+    final long size = DfaKey.stateBytes(scratch.size(), CACHED_CHARACTERS);
+    if (memoryUsed.addAndGet(size) > memoryLimit && !force) {
+      memoryUsed.addAndGet(-size);
+      return null;
+    }
+    final int[] members = scratch.members();
+    // the accept state is the last state of the program
+    final boolean accepting = members.length > 0 && members[members.length - 1] == program.acceptState();
+    state = new DfaState(members, accepting);
+    final DfaState raced = states.putIfAbsent(DfaKey.of(members), state);
+    if (raced != null) {
+      memoryUsed.addAndGet(-size);
+      return raced;
+    }
+    return state;
+  }
+
+  private static final class DfaState {
+
+    private final int[] nfaStates;
+    private final boolean accepting;
+    private final AtomicReferenceArray<DfaState> next = new AtomicReferenceArray<DfaState>(CACHED_CHARACTERS);
+
+    private DfaState(int[] nfaStates, boolean accepting) {
+      this.nfaStates = nfaStates;
+      this.accepting = accepting;
+    }
+
+    private boolean isDead() {
+      return nfaStates.length == 0;
+    }
+  }
+
+}
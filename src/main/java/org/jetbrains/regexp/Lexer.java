@@ -0,0 +1,253 @@
+package org.jetbrains.regexp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+/**
+ * Splits a text into tokens with an ordered list of rules, each a name and a regexp.
+ * <p>
+ *   A token is the longest text from the current position that a rule matches. When several rules match
+ *   it, the first one in the list wins. A character no rule matches is reported alone with NO_RULE, and
+ *   the lexer goes on after it. Rules matching the empty text never make empty tokens.
+ * <p>
+ *   All the rules are compiled into one DFA, built as the texts need it and shared by all the threads
+ *   using the lexer. A text can be a string or a stream read through a buffer. Once the DFA has the
+ *   states a text needs, nothing is allocated per token.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.LexerCallback
+ */
+public final class Lexer {
+
+  /**
+   * the rule of a character no rule matches
+   */
+  public static final int NO_RULE = -1;
+
+  static final String ANCHORED_RULE = "Lexer rules can not be anchored";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final String[] names;
+  private final LexerDfa dfa;
+
+  private Lexer(String[] names, LexerDfa dfa) {
+    this.names = names;
+    this.dfa = dfa;
+  }
+
+  public static Lexer compile(String[] names, String[] regexps) throws ParseException {
+    return compile(names, regexps, 0);
+  }
+
+  /**
+   * @param names the name of every rule, in the order of priority
+   * @param regexps the regexp of every rule
+   * @param flags a bit mask of Pattern.CASE_INSENSITIVE and Pattern.UNICODE_CASE, for all the rules
+   */
+  public static Lexer compile(String[] names, String[] regexps, int flags) throws ParseException {
+    return compile(names, regexps, flags, LexerDfa.DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * @param memoryLimit the most bytes of DFA states, past it the tokens are read with the NFA of the rules
+   */
+  static Lexer compile(String[] names, String[] regexps, int flags, long memoryLimit) throws ParseException {
+    if (names.length != regexps.length) {
+      throw new IllegalArgumentException(names.length + " names for " + regexps.length + " rules");
+    }
+    NfaProgram[] rules = new NfaProgram[regexps.length];
+    for (int rule = 0; rule < regexps.length; rule++) {
+      rules[rule] = Pattern.compileProgram(regexps[rule], flags);
+      if (rules[rule].startAnchored() || rules[rule].endAnchored()) {
+        throw new ParseException(ANCHORED_RULE, rule);
+      }
+    }
+    return new Lexer(names.clone(), new LexerDfa(rules, memoryLimit));
+  }
+
+  public int ruleCount() {
+    return names.length;
+  }
+
+  public String name(int rule) {
+    return rule == NO_RULE ? null : names[rule];
+  }
+
+  /**
+   * @return the number of tokens given to the callback
+   */
+  public int tokenize(CharSequence text, LexerCallback callback) {
+    try {
+      return tokenize(new Input(text), callback);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the stream to its end, or until the callback stops. The stream is not closed.
+   *
+   * @return the number of tokens given to the callback
+   */
+  public int tokenize(Reader reader, LexerCallback callback) throws IOException {
+    return tokenize(new Input(reader), callback);
+  }
+
+  private int tokenize(Input input, LexerCallback callback) throws IOException {
+    final DfaScratch scratch = dfa.newScratch();
+    final int[] current = new int[dfa.stateCount()];
+    final CharSequence text = input.text();
+    int tokens = 0;
+    int position = 0;
+    while (input.has(position)) {
+      input.keepFrom(position);
+      int rule = NO_RULE;
+      int end = position + 1;
+      LexerDfa.State state = dfa.start();
+      // the number of states in current once the DFA is out of memory, -1 while it is not
+      int size = -1;
+      for (int i = position; input.has(i); i++) {
+        final char character = input.charAt(i);
+        final int accepting;
+        if (size < 0) {
+          final LexerDfa.State next = dfa.next(state, character, scratch);
+          if (next == null) {
+            size = scratch.copyTo(current);
+            if (size == 0) {
+              break;
+            }
+            accepting = dfa.acceptingRule(current, size);
+          } else if (next.isDead()) {
+            break;
+          } else {
+            state = next;
+            accepting = state.rule();
+          }
+        } else {
+          dfa.step(current, size, character, scratch);
+          size = scratch.copyTo(current);
+          if (size == 0) {
+            break;
+          }
+          accepting = dfa.acceptingRule(current, size);
+        }
+        if (accepting != NO_RULE) {
+          rule = accepting;
+          end = i + 1;
+        }
+      }
+      tokens++;
+      if (!callback.onToken(rule, text, position, end)) {
+        break;
+      }
+      position = end;
+    }
+    return tokens;
+  }
+
+  /**
+   * The characters of a string, or of a stream kept in a buffer from the start of the current token on.
+   * For a stream, the input is itself the text given to the callback, indexed from the start of the stream.
+   */
+  private static final class Input implements CharSequence {
+
+    private final CharSequence text;
+    private final Reader reader;
+    private char[] buffer;
+    /**
+     * the index in the stream of the first character of the buffer
+     */
+    private int offset = 0;
+    private int filled = 0;
+    private int keepFrom = 0;
+    private boolean ended = false;
+
+    private Input(CharSequence text) {
+      this.text = text;
+      this.reader = null;
+    }
+
+    private Input(Reader reader) {
+      this.text = null;
+      this.reader = reader;
+      this.buffer = new char[BUFFER_SIZE];
+    }
+
+    private CharSequence text() {
+      return text != null ? text : this;
+    }
+
+    private boolean has(int index) throws IOException {
+      if (text != null) {
+        return index < text.length();
+      }
+      while (index >= offset + filled && !ended) {
+        read();
+      }
+      return index < offset + filled;
+    }
+
+    /**
+     * the characters before the index are not needed any more
+     */
+    private void keepFrom(int index) {
+      keepFrom = index;
+    }
+
+    private void read() throws IOException {
+      if (filled == buffer.length) {
+        final int kept = offset + filled - keepFrom;
+        if (kept == buffer.length) {
+          char[] grown = new char[buffer.length * 2];
+          System.arraycopy(buffer, 0, grown, 0, filled);
+          buffer = grown;
+        } else {
+          System.arraycopy(buffer, keepFrom - offset, buffer, 0, kept);
+          offset = keepFrom;
+          filled = kept;
+        }
+      }
+      final int read = reader.read(buffer, filled, buffer.length - filled);
+      if (read < 0) {
+        ended = true;
+      } else {
+        filled += read;
+      }
+    }
+
+    @Override
+    public int length() {
+      return text != null ? text.length() : offset + filled;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (text != null) {
+        return text.charAt(index);
+      }
+      if (index < offset || index >= offset + filled) {
+        throw new IndexOutOfBoundsException("index " + index + " is not buffered");
+      }
+      return buffer[index - offset];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (text != null) {
+        return text.subSequence(start, end);
+      }
+      if (start < offset || end > offset + filled || start > end) {
+        throw new IndexOutOfBoundsException("range " + start + "-" + end + " is not buffered");
+      }
+      return new String(buffer, start - offset, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return text != null ? text.toString() : new String(buffer, 0, filled);
+    }
+  }
+
+}
@@ -0,0 +1,22 @@
+package org.jetbrains.regexp;
+
+/**
+ * Receives the tokens of a lexer one after the other, in the order of the text.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Lexer#tokenize(CharSequence, LexerCallback)
+ */
+public interface LexerCallback {
+
+  /**
+   * The text holds the characters of the token from start to end. When reading a stream, it only holds
+   * them until the callback returns, copy them to keep them.
+   *
+   * @param rule the index of the rule of the token, Lexer.NO_RULE for a character no rule matches
+   * @param start index of the first character of the token, counted from the beginning of the input
+   * @param end index after the last character of the token
+   * @return true to go on with the next token, false to stop
+   */
+  boolean onToken(int rule, CharSequence text, int start, int end);
+
+}
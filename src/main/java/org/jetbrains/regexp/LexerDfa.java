@@ -0,0 +1,176 @@
+package org.jetbrains.regexp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One deterministic automaton for all the rules of a lexer, built a transition at a time as the
+ * texts need it, and shared by all the threads using the lexer.
+ * <p>
+ *   The states of the rules are numbered one after the other, rule after rule, and a DFA state is the
+ *   set of them a token can be in after some characters. A DFA state knows the first rule whose accept
+ *   state it holds, which is the rule a token ending there belongs to. Like the DFA of a pattern,
+ *   the transitions on characters below 256 are kept in an array per state, published with compare
+ *   and set, and the memory of the states is bounded.
+ * <p>
+ *   The states reached on a character are computed in a scratch owned by the caller, and looked up
+ *   with a key living in the scratch, so finding a state that exists allocates nothing.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Lexer
+ * @see org.jetbrains.regexp.LazyDfa
+ * @see org.jetbrains.regexp.DfaScratch
+ */
+final class LexerDfa {
+
+  static final long DEFAULT_MEMORY_LIMIT = 4 << 20;
+  static final int CACHED_CHARACTERS = 256;
+
+  private final NfaProgram[] rules;
+  /**
+   * the first state of every rule, and the number of states after the last rule
+   */
+  private final int[] offsets;
+  private final int[] ruleOf;
+  private final boolean[] accepting;
+  private final long memoryLimit;
+  private final AtomicLong memoryUsed = new AtomicLong();
+  private final ConcurrentMap<DfaKey, State> states = new ConcurrentHashMap<DfaKey, State>();
+  private final State start;
+
+  LexerDfa(NfaProgram[] rules, long memoryLimit) {
+    this.rules = rules;
+    this.memoryLimit = memoryLimit;
+    this.offsets = new int[rules.length + 1];
+    for (int rule = 0; rule < rules.length; rule++) {
+      offsets[rule + 1] = offsets[rule] + rules[rule].stateCount();
+    }
+    this.ruleOf = new int[stateCount()];
+    this.accepting = new boolean[stateCount()];
+    for (int rule = 0; rule < rules.length; rule++) {
+      Arrays.fill(ruleOf, offsets[rule], offsets[rule + 1], rule);
+      accepting[offsets[rule] + rules[rule].acceptState()] = true;
+    }
+    final DfaScratch scratch = newScratch();
+    scratch.begin();
+    for (int rule = 0; rule < rules.length; rule++) {
+      for (int v : rules[rule].closure(0)) {
+        scratch.add(offsets[rule] + v);
+      }
+    }
+    this.start = intern(scratch, true);
+  }
+
+  int stateCount() {
+    return offsets[rules.length];
+  }
+
+  DfaScratch newScratch() {
+    return new DfaScratch(stateCount());
+  }
+
+  State start() {
+    return start;
+  }
+
+  /**
+   * @return the state after the character, null if it is new and there is no memory left for it,
+   *         the states reached are then in the scratch
+   */
+  State next(State state, char character, DfaScratch scratch) {
+    if (character < CACHED_CHARACTERS) {
+      final State cached = state.next.get(character);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    step(state.members, state.members.length, character, scratch);
+    final State next = intern(scratch, false);
+    if (next != null && character < CACHED_CHARACTERS) {
+      state.next.compareAndSet(character, null, next);
+    }
+    return next;
+  }
+
+  /**
+   * puts the states reached from the given ones on the character into the scratch, in increasing order
+   */
+  void step(int[] members, int size, char character, DfaScratch scratch) {
+    scratch.begin();
+    for (int i = 0; i < size; i++) {
+      final int member = members[i];
+      final int rule = ruleOf[member];
+      final NfaProgram program = rules[rule];
+      final int state = member - offsets[rule];
+      if (state != program.acceptState() && program.tokens()[state].matches(character)) {
+        for (int v : program.closure(state + 1)) {
+          scratch.add(offsets[rule] + v);
+        }
+      }
+    }
+    scratch.sort();
+  }
+
+  /**
+   * @return the first rule accepting among the states, which are in increasing order, NO_RULE if none does
+   */
+  int acceptingRule(int[] members, int size) {
+    for (int i = 0; i < size; i++) {
+      if (accepting[members[i]]) {
+        return ruleOf[members[i]];
+      }
+    }
+    return Lexer.NO_RULE;
+  }
+
+  long memoryUsed() {
+    return memoryUsed.get();
+  }
+
+  private State intern(DfaScratch scratch, boolean force) {
+    State state = states.get(scratch.key());
+    if (state != null) {
+      return state;
+    }
+    final long size = DfaKey.stateBytes(scratch.size(), CACHED_CHARACTERS);
+    if (memoryUsed.addAndGet(size) > memoryLimit && !force) {
+      memoryUsed.addAndGet(-size);
+      return null;
+    }
+    final int[] members = scratch.members();
+    state = new State(members, acceptingRule(members, members.length));
+    final State raced = states.putIfAbsent(DfaKey.of(members), state);
+    if (raced != null) {
+      memoryUsed.addAndGet(-size);
+      return raced;
+    }
+    return state;
+  }
+
+  static final class State {
+
+    private final int[] members;
+    private final int rule;
+    private final AtomicReferenceArray<State> next = new AtomicReferenceArray<State>(CACHED_CHARACTERS);
+
+    private State(int[] members, int rule) {
+      this.members = members;
+      this.rule = rule;
+    }
+
+    boolean isDead() {
+      return members.length == 0;
+    }
+
+    /**
+     * @return the rule of a token ending in this state, NO_RULE if no token ends here
+     */
+    int rule() {
+      return rule;
+    }
+  }
+
+}
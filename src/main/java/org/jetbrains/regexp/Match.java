@@ -0,0 +1,37 @@
+package org.jetbrains.regexp;
+
+/**
+ * One match found in a text, kept after the matcher has moved on.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#results()
+ */
+public final class Match {
+
+  private final CharSequence text;
+  private final int start;
+  private final int end;
+
+  Match(CharSequence text, int start, int end) {
+    this.text = text;
+    this.start = start;
+    this.end = end;
+  }
+
+  public int start() {
+    return start;
+  }
+
+  public int end() {
+    return end;
+  }
+
+  public String group() {
+    return text.subSequence(start, end).toString();
+  }
+
+  @Override
+  public String toString() {
+    return "Match{" + start + ", " + end + ", '" + group() + "'}";
+  }
+}
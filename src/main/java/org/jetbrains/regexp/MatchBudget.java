@@ -0,0 +1,77 @@
+package org.jetbrains.regexp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the work a matcher may do, so that a pattern can be run on untrusted text with a firm bound.
+ * <p>
+ *   Work is counted in steps, one step for every state followed over one character, which is what
+ *   the scans really cost. Next to the steps, a timeout can be given. The clock and the interrupted flag
+ *   of the thread are only looked at every so many characters, so a budget is cheap enough
+ *   to always have it on. When the budget is used up, the matcher throws a {@link BudgetExceededException}.
+ * <p>
+ *   A budget is immutable, the counting starts when it is given to a matcher and covers everything
+ *   that matcher does from then on.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#budget(MatchBudget)
+ */
+public final class MatchBudget {
+
+  private static final int DEFAULT_CHECK_INTERVAL = 1024;
+
+  private final long maxSteps;
+  private final long timeoutNanos;
+  private final int checkInterval;
+
+  private MatchBudget(long maxSteps, long timeoutNanos, int checkInterval) {
+    if (maxSteps <= 0 || timeoutNanos <= 0 || checkInterval <= 0) {
+      throw new IllegalArgumentException("budget must be positive");
+    }
+    this.maxSteps = maxSteps;
+    this.timeoutNanos = timeoutNanos;
+    this.checkInterval = checkInterval;
+  }
+
+  /**
+   * @return a budget with no limit on steps or time, that only stops when the thread is interrupted
+   */
+  public static MatchBudget interruptible() {
+    return new MatchBudget(Long.MAX_VALUE, Long.MAX_VALUE, DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * @param maxSteps how many states may be followed over a character in total
+   */
+  public static MatchBudget ofSteps(long maxSteps) {
+    return interruptible().withSteps(maxSteps);
+  }
+
+  public static MatchBudget ofTime(long timeout, TimeUnit unit) {
+    return interruptible().withTimeout(timeout, unit);
+  }
+
+  public MatchBudget withSteps(long maxSteps) {
+    return new MatchBudget(maxSteps, timeoutNanos, checkInterval);
+  }
+
+  public MatchBudget withTimeout(long timeout, TimeUnit unit) {
+    return new MatchBudget(maxSteps, unit.toNanos(timeout), checkInterval);
+  }
+
+  /**
+   * @param characters how many characters are read between two looks at the clock and the interrupted flag
+   */
+  public MatchBudget checkingEvery(int characters) {
+    return new MatchBudget(maxSteps, timeoutNanos, characters);
+  }
+
+  /**
+   * @return a new meter counting against this budget, starting now
+   */
+  BudgetMeter start() {
+    final long deadline = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
+    return new BudgetMeter(maxSteps, deadline, checkInterval);
+  }
+
+}
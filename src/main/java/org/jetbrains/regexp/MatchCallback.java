@@ -0,0 +1,18 @@
+package org.jetbrains.regexp;
+
+/**
+ * Receives the matches straight from the scan, as plain positions.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#forEachMatch(MatchCallback)
+ */
+public interface MatchCallback {
+
+  /**
+   * @param start index of the first character of the match in the text
+   * @param end index after the last character of the match
+   * @return true to go on with the next match, false to stop the scan
+   */
+  boolean onMatch(int start, int end);
+
+}
@@ -0,0 +1,53 @@
+package org.jetbrains.regexp;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Finds the matches of a pattern in a region one at a time, the next one only when it is asked for.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#results()
+ */
+final class MatchIterator implements Iterator<Match> {
+
+  private final NfaScanner scanner;
+  private final CharSequence text;
+  private final int start;
+  private final int end;
+  private int searchFrom;
+  private Match next = null;
+
+  MatchIterator(NfaScanner scanner, CharSequence text, int start, int end) {
+    this.scanner = scanner;
+    this.text = text;
+    this.start = start;
+    this.searchFrom = start;
+    this.end = end;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && searchFrom <= end && scanner.find(text, start, searchFrom, end)) {
+      next = new Match(text, scanner.matchStart(), scanner.matchEnd());
+      searchFrom = next.end() > next.start() ? next.end() : next.end() + 1;
+    }
+    return next != null;
+  }
+
+  @Override
+  public Match next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Match match = next;
+    next = null;
+    return match;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+}
@@ -0,0 +1,19 @@
+package org.jetbrains.regexp;
+
+/**
+ * Receives all the matches ending at a position at once, as ranges of the positions they start at.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#forEachMatchRange(MatchRangeCallback)
+ */
+public interface MatchRangeCallback {
+
+  /**
+   * Every start from the first to the last one, both included, gives a match ending at the end.
+   *
+   * @param end index after the last character of the matches
+   * @return true to go on with the next range, false to stop the scan
+   */
+  boolean onMatches(int end, int firstStart, int lastStart);
+
+}
@@ -7,9 +7,11 @@ import com.google.common.collect.Lists;
 import org.jetbrains.graphs.DirectedGraph;
 import org.jetbrains.regexp.parser.token.element.Token;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -17,7 +19,10 @@ import java.util.Set;
 
 /**
  * Finds matching patterns in text by using parsed token symbols and epsilon transitions graph. 
- * 
+ * <p>
+ *   The text is any CharSequence and is read in place, a region of it can be matched without 
+ *   cutting it out first. Positions are always indices into the whole text. 
+ * </p>
  * 
  * @author sasha.malahov@here.com (Sasha Malahov)
  * @see org.jetbrains.graphs.EpsilonTransitionsGraph
@@ -39,7 +44,10 @@ public class Matcher {
     }
   };
   
-  private final String text;
+  private final CharSequence text;
+  private int regionStart;
+  private int regionEnd;
+  private final GroupView groupView = new GroupView();
   /**
    * regular expression token DAG
    */
@@ -49,17 +57,34 @@ public class Matcher {
    */
   private final DirectedGraph epsilonTransitions;
   private final int acceptState;
+  private final NfaProgram program;
   /**
    * after matches or match is executed, contains states which index into text that pattern matches
    */
   private List<State> finalStates = null;
   private int findPointer = -1;
+  /**
+   * while find is used without match, the matches are found one at a time by the scanner 
+   * and only the last one is kept
+   */
+  private NfaScanner scanner = null;
+  private int searchFrom = -1;
+  private int lastStart = -1;
+  private int lastEnd = -1;
+  private BudgetMeter meter = null;
+
+  public Matcher(CharSequence text, Token[] tokens, DirectedGraph epsilonTransitions) {
+    this(text, new NfaProgram(tokens, epsilonTransitions));
+  }
 
-  public Matcher(String text, Token[] tokens, DirectedGraph epsilonTransitions) {
+  Matcher(CharSequence text, NfaProgram program) {
     this.text = text;
-    this.regexp = tokens;
-    this.epsilonTransitions = epsilonTransitions;
-    this.acceptState = tokens.length;
+    this.regionStart = 0;
+    this.regionEnd = text.length();
+    this.regexp = program.tokens();
+    this.epsilonTransitions = program.epsilonTransitions();
+    this.acceptState = program.acceptState();
+    this.program = program;
   }
 
   /**
@@ -68,28 +93,21 @@ public class Matcher {
    *   The basic execution of this NFA is described by 
    *   Robert Sedgewick in algorithm 5.9 of Algorithms (4th Edition) p.802
    * </p>
-   * 
+   * <p>
+   *   The states are kept in the scanner's sparse sets and the closures are the ones the program computed once,
+   *   so a character costs the live states only, not the size of the pattern.
+   * </p>
    *
-   * @return true if text is matched by the pattern entirely
+   * @return true if the region of the text is matched by the pattern entirely
    * @see org.jetbrains.graphs.EpsilonTransitionsGraph
    * @see <a href="http://algs4.cs.princeton.edu/54regexp/NFA.java">NFA.java</a> for details.
    */
   public boolean matches() {
-    List<Integer> currentStates = epsilonTransitions.dfsFrom(0);
-    for (int i = 0; i < text.length(); i++) {
-      List<Integer> visitedStates = new LinkedList<Integer>();
-      for (int v : currentStates) {
-        if (v != acceptState && regexp[v].matches(text.charAt(i))) {
-          visitedStates.add(v + 1);
-        }
-      }
-      currentStates = epsilonTransitions.dfsFrom(visitedStates);
-      if (currentStates.isEmpty()) return false;
-    }
-    final boolean matches = currentStates.contains(acceptState);
+    final boolean matches = newScanner().matches(text, regionStart, regionEnd);
     if (matches) {
+      scanner = null;
       finalStates = new LinkedList<State>();
-      finalStates.add(new State(acceptState, acceptState, 0, text.length()));
+      finalStates.add(new State(acceptState, acceptState, regionStart, regionEnd));
       findPointer = 0;
     }
     return matches;
@@ -101,13 +119,16 @@ public class Matcher {
    * If the match succeeds, more information can be obtained via the start, end, and group methods.
    * 
    * @param allMatches true if you want to see ALL strings that match the pattern,
-   *                   greedy, or reluctant. false otherwise
+   *                   greedy, or reluctant. false otherwise. 
+   *                   All the matches are kept in memory, see allMatches for a lazy alternative
    * @see org.jetbrains.regexp.Matcher#search() 
    * @see org.jetbrains.regexp.Matcher#find()
    * @see org.jetbrains.regexp.Matcher#cleanMatches() 
+   * @see org.jetbrains.regexp.Matcher#allMatches()
    *                   
    */
   public void match(boolean allMatches) {
+    scanner = null;
     findPointer = -1;
     finalStates = search();
     Collections.sort(finalStates, State.BasicComparator);
@@ -116,32 +137,223 @@ public class Matcher {
     }
   }
 
+  /**
+   * Unlike match(true), the matches are found while iterating and none of them is kept,
+   * the memory used does not grow with their number.
+   * 
+   * @return every match in the region, overlapping or not, ordered by end and then from the shortest
+   * @see org.jetbrains.regexp.OverlappingMatches
+   */
+  public Iterator<Match> allMatches() {
+    return new OverlappingMatches(program, meter, text, regionStart, regionEnd);
+  }
+
+  /**
+   * Reports the same matches as allMatches, in the same order, but the ones with the same end 
+   * and consecutive starts as a single range. A pattern like a* over a run of a's gives one range per end.
+   * 
+   * @return the number of ranges reported
+   */
+  public int forEachMatchRange(MatchRangeCallback callback) {
+    return new OverlappingMatches(program, meter, text, regionStart, regionEnd).forEachRange(callback);
+  }
+
+  /**
+   * Counts the matches that find would return one after the other, in a single pass over the region
+   * and without keeping any of them. Results of previous finds are left as they are.
+   * 
+   * @return the number of matches in the region
+   */
+  public int count() {
+    return newScanner().count(text, regionStart, regionEnd);
+  }
+
+  /**
+   * Writes the text with every match in the region replaced, in a single pass and without
+   * building the result in memory. Results of previous finds are left as they are.
+   *
+   * @param replacement the compiled template, written once per match
+   * @param output where the text is written to
+   */
+  public void replaceAll(Replacement replacement, Appendable output) throws IOException {
+    replace(replacement, output, Integer.MAX_VALUE);
+  }
+
+  public String replaceAll(String replacement) {
+    final StringBuilder output = new StringBuilder(text.length());
+    appendQuietly(Replacement.compile(replacement), output, Integer.MAX_VALUE);
+    return output.toString();
+  }
+
+  /**
+   * Same as replaceAll, only the first match in the region is replaced.
+   */
+  public void replaceFirst(Replacement replacement, Appendable output) throws IOException {
+    replace(replacement, output, 1);
+  }
+
+  public String replaceFirst(String replacement) {
+    final StringBuilder output = new StringBuilder(text.length());
+    appendQuietly(Replacement.compile(replacement), output, 1);
+    return output.toString();
+  }
+
+  /**
+   * Unless match was called first, every call scans only as far as needed for the next match,
+   * matches after it are not looked for until asked. 
+   * 
+   * @return true if there is one more match, its bounds are then in start and end
+   */
   public boolean find() {
-    if (finalStates == null) {
-      match(false);
+    if (finalStates == null && scanner == null) {
+      scanner = newScanner();
+      searchFrom = regionStart;
+      lastStart = -1;
+      lastEnd = -1;
+    }
+    if (scanner == null) {
+      return finalStates.size() > ++findPointer;
+    }
+    if (searchFrom > regionEnd || !scanner.find(text, regionStart, searchFrom, regionEnd)) {
+      searchFrom = regionEnd + 1;
+      return false;
+    }
+    lastStart = scanner.matchStart();
+    lastEnd = scanner.matchEnd();
+    searchFrom = lastEnd > lastStart ? lastEnd : lastEnd + 1;
+    return true;
+  }
+
+  /**
+   * Same as find, for a match starting no later than the latest start. No match is started after it,
+   * so the scan stops once the matches started by then are over, instead of going on to the end.
+   *
+   * @param latestStart the last position the match can start at
+   * @return true if there is one more match starting by then, its bounds are then in start and end
+   */
+  public boolean findStartingBy(int latestStart) {
+    if (finalStates == null && scanner == null) {
+      scanner = newScanner();
+      searchFrom = regionStart;
+      lastStart = -1;
+      lastEnd = -1;
+    }
+    if (scanner == null) {
+      if (finalStates.size() > findPointer + 1 && finalStates.get(findPointer + 1).getStart() <= latestStart) {
+        findPointer++;
+        return true;
+      }
+      return false;
     }
-    return finalStates.size() > ++findPointer;
+    if (searchFrom > regionEnd || !scanner.find(text, regionStart, searchFrom, regionEnd, latestStart)) {
+      return false;
+    }
+    lastStart = scanner.matchStart();
+    lastEnd = scanner.matchEnd();
+    searchFrom = lastEnd > lastStart ? lastEnd : lastEnd + 1;
+    return true;
+  }
+
+  /**
+   * Reports the matches find would return one after the other straight from the scan, 
+   * no object is created for them. Results of previous finds are left as they are.
+   * 
+   * @return the number of matches reported
+   */
+  public int forEachMatch(MatchCallback callback) {
+    return newScanner().forEachMatch(text, regionStart, regionEnd, callback);
+  }
+
+  /**
+   * A match is only looked for when the iterator is asked for it. 
+   * The iterator is independent of this matcher and of other iterators.
+   * 
+   * @return the matches find would return, in the same order
+   */
+  public Iterator<Match> results() {
+    return new MatchIterator(newScanner(), text, regionStart, regionEnd);
   }
 
   public int end() {
     assertState();
+    if (scanner != null) {
+      return lastEnd;
+    }
     final State state = finalStates.get(findPointer);
     return state.getEnd();
   }
 
   public int start() {
     assertState();
+    if (scanner != null) {
+      return lastStart;
+    }
     final State state = finalStates.get(findPointer);
     return state.getStart();
   }
 
   public String group() {
     if (start() > -1 && end() > -1) {
-      return text.substring(start(), end());
+      return text.subSequence(start(), end()).toString();
     }
     return null;
   }
 
+  /**
+   * Same characters as group, read from the text in place. 
+   * The view is owned by the matcher and follows it, after the next find it shows the next match.
+   * Call toString on it to keep a copy.
+   * 
+   * @return the last match as a view into the text
+   */
+  public CharSequence groupView() {
+    assertState();
+    return groupView;
+  }
+
+  /**
+   * Limits matches, find and match to the characters of the text between start and end. 
+   * Any previous results are discarded.
+   * 
+   * @param start index of the first character of the region
+   * @param end index after the last character of the region
+   * @return this matcher
+   */
+  public Matcher region(int start, int end) {
+    if (start < 0 || start > end || end > text.length()) {
+      throw new IndexOutOfBoundsException("region " + start + "," + end + " of " + text.length());
+    }
+    regionStart = start;
+    regionEnd = end;
+    finalStates = null;
+    findPointer = -1;
+    scanner = null;
+    return this;
+  }
+
+  /**
+   * Bounds all the work this matcher does from now on, matches, find, count and the others 
+   * throw a BudgetExceededException once the budget is used up.
+   * 
+   * @param budget the budget, null to remove it
+   * @return this matcher
+   */
+  public Matcher budget(MatchBudget budget) {
+    meter = budget == null ? null : budget.start();
+    if (scanner != null) {
+      scanner = newScanner();
+    }
+    return this;
+  }
+
+  public int regionStart() {
+    return regionStart;
+  }
+
+  public int regionEnd() {
+    return regionEnd;
+  }
+
   /**
    *  Because the solution contains all possible matches, 
    *  mimic the greedy quantifiers. 
@@ -173,13 +385,18 @@ public class Matcher {
    *  If it does match, then transition those states to the next phase and check if they accept, 
    *  otherwise discard.
    *  </p>
+   *  <p>
+   *  A pattern anchored at the start is only started at the start of the region, 
+   *  one anchored at the end only keeps the matches that end at the end of the region.
+   *  </p>
    *  
    *  @return the states that end up in accepted state after matching the pattern
    */
   private LinkedList<State> search() {
     Set<State> doneStates = new HashSet<State>();
     Collection<State> currentStates = getStartStates();
-    for (int i = 0; i <= text.length(); i++) {
+    for (int i = regionStart; i <= regionEnd; i++) {
+      charge(currentStates.size(), i);
       Collection<State> visitedStates = new LinkedList<State>();
       for (State currentState : currentStates) {
         if (currentState.inAcceptState()) {
@@ -189,7 +406,7 @@ public class Matcher {
           doneStates.add(currentState);
           List<State> states = takeEpsilonTransitions(currentState);
           visitedStates.addAll(Collections2.filter(states, NOT_DONE));
-        } else if (i < text.length() && 
+        } else if (i < regionEnd && 
             regexp[currentState.getNfaState()].matches(text.charAt(i))) {
           currentState.setStart(i);
           currentState.advance();
@@ -201,10 +418,18 @@ public class Matcher {
           }
         }
       }
-      visitedStates.addAll(getStartStates());
+      if (!program.startAnchored()) {
+        visitedStates.addAll(getStartStates());
+      }
       currentStates = visitedStates;
     }
-    return new LinkedList<State>(doneStates);
+    LinkedList<State> matches = new LinkedList<State>();
+    for (State doneState : doneStates) {
+      if (!program.endAnchored() || doneState.getEnd() == regionEnd) {
+        matches.add(doneState);
+      }
+    }
+    return matches;
   }
 
   /**
@@ -241,10 +466,53 @@ public class Matcher {
     return updatedStates;
   }
 
+  /**
+   * copies the text between the matches and writes the replacement over each of the first limit matches
+   */
+  private void replace(Replacement replacement, Appendable output, int limit) throws IOException {
+    final NfaScanner scanner = newScanner();
+    int copied = 0;
+    int from = regionStart;
+    for (int replaced = 0; replaced < limit && from <= regionEnd && scanner.find(text, regionStart, from, regionEnd); replaced++) {
+      output.append(text, copied, scanner.matchStart());
+      replacement.appendTo(output, text, scanner.matchStart(), scanner.matchEnd());
+      copied = scanner.matchEnd();
+      from = scanner.matchEnd() > scanner.matchStart() ? scanner.matchEnd() : scanner.matchEnd() + 1;
+    }
+    output.append(text, copied, text.length());
+  }
+
+  /**
+   * a StringBuilder never throws, so the checked exception can not happen
+   */
+  private void appendQuietly(Replacement replacement, StringBuilder output, int limit) {
+    try {
+      replace(replacement, output, limit);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private NfaScanner newScanner() {
+    return new NfaScanner(program, meter);
+  }
+
+  private void charge(int states, int position) {
+    if (meter != null) {
+      meter.charge(states, position);
+    }
+  }
+
   /**
    *  just to make sure that you call find or matches before calling group end or start
    */
   private void assertState() {
+    if (scanner != null) {
+      if (lastStart == -1) {
+        throw new IllegalStateException("no match found");
+      }
+      return;
+    }
     if (finalStates == null) {
       throw new IllegalStateException();
     }
@@ -252,5 +520,34 @@ public class Matcher {
       findPointer = finalStates.size()-1;
     }
   }
+
+  /**
+   * A window into the text over the current match, so reading a match does not copy it. 
+   */
+  private final class GroupView implements CharSequence {
+
+    @Override
+    public int length() {
+      return end() - start();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length()) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      return text.charAt(start() + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return text.subSequence(start() + start, start() + end);
+    }
+
+    @Override
+    public String toString() {
+      return group();
+    }
+  }
   
 }
@@ -0,0 +1,225 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.graphs.DFS;
+import org.jetbrains.graphs.DirectedGraph;
+import org.jetbrains.regexp.parser.LanguageSymbols;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The compiled form of a pattern shared by all the engines that run it: the tokens,
+ * the epsilon transitions graph, and the epsilon closures of the states, computed once when first
+ * needed and then shared by all threads using the pattern.
+ * <p>
+ *   A closure only keeps the states that read a character, and the accept state,
+ *   since those are the only ones an engine has to look at.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.NfaScanner
+ */
+final class NfaProgram {
+
+  private final Token[] tokens;
+  private final DirectedGraph epsilonTransitions;
+  private final int acceptState;
+  private final AtomicReferenceArray<int[]> closures;
+  /**
+   * a search kept between closures, so that computing them for a large pattern does not allocate
+   * a search per state. A thread takes it while computing a closure, any other one makes its own.
+   */
+  private final AtomicReference<DFS> spareSearch = new AtomicReference<DFS>();
+  /**
+   * the closures not computed yet, once they all are the spare search is let go
+   */
+  private final AtomicInteger closuresLeft;
+  private final boolean startAnchored;
+  private final boolean endAnchored;
+  private final int maxLength;
+  /**
+   * built once when first needed, two threads building it at once build the same arrays
+   */
+  private volatile int[][] predecessors = null;
+
+  NfaProgram(Token[] tokens, DirectedGraph epsilonTransitions) {
+    this(tokens, epsilonTransitions, false, false);
+  }
+
+  NfaProgram(Token[] tokens, DirectedGraph epsilonTransitions, boolean startAnchored, boolean endAnchored) {
+    this.tokens = tokens;
+    this.epsilonTransitions = epsilonTransitions;
+    this.acceptState = tokens.length;
+    this.closures = new AtomicReferenceArray<int[]>(acceptState + 1);
+    this.closuresLeft = new AtomicInteger(acceptState + 1);
+    this.startAnchored = startAnchored;
+    this.endAnchored = endAnchored;
+    this.maxLength = maxLength(tokens);
+  }
+
+  Token[] tokens() {
+    return tokens;
+  }
+
+  DirectedGraph epsilonTransitions() {
+    return epsilonTransitions;
+  }
+
+  int acceptState() {
+    return acceptState;
+  }
+
+  int stateCount() {
+    return acceptState + 1;
+  }
+
+  /**
+   * @return true if the state reads a character, false for the accept state and the operators
+   */
+  boolean consumes(int state) {
+    if (state == acceptState) {
+      return false;
+    }
+    final Token token = tokens[state];
+    return token == LanguageSymbols.ANY || !(token instanceof OperatorToken);
+  }
+
+  /**
+   * @return true if matches can only start at the start of the text or region
+   */
+  boolean startAnchored() {
+    return startAnchored;
+  }
+
+  /**
+   * @return true if matches can only end at the end of the text or region
+   */
+  boolean endAnchored() {
+    return endAnchored;
+  }
+
+  /**
+   * @return the most characters a match can have, -1 if there is no limit
+   */
+  int maxLength() {
+    return maxLength;
+  }
+
+  /**
+   * without a loop every character reading token is passed at most once
+   */
+  private static int maxLength(Token[] tokens) {
+    int length = 0;
+    for (Token token : tokens) {
+      if (token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS) {
+        return -1;
+      }
+      if (token == LanguageSymbols.ANY || !(token instanceof OperatorToken)) {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  int[] closure(int state) {
+    int[] closure = closures.get(state);
+    if (closure == null) {
+      DFS dfs = spareSearch.getAndSet(null);
+      if (dfs == null) {
+        dfs = epsilonTransitions.newSearch();
+      }
+      dfs.reset();
+      dfs.search(state);
+      int size = 0;
+      for (int i = 0; i < dfs.visitedCount(); i++) {
+        final int v = dfs.visited(i);
+        if (v == acceptState || consumes(v)) {
+          size++;
+        }
+      }
+      closure = new int[size];
+      size = 0;
+      for (int i = 0; i < dfs.visitedCount(); i++) {
+        final int v = dfs.visited(i);
+        if (v == acceptState || consumes(v)) {
+          closure[size++] = v;
+        }
+      }
+      Arrays.sort(closure);
+      if (!closures.compareAndSet(state, null, closure)) {
+        closure = closures.get(state);
+      } else if (closuresLeft.decrementAndGet() == 0) {
+        dfs = null;
+      }
+      spareSearch.set(dfs);
+    }
+    return closure;
+  }
+
+  /**
+   * The tokens are shared with the other patterns and not counted, only the references to them.
+   *
+   * @return a rough count of the bytes held by the program: the tokens array, the graph, and the closures,
+   *         the reversed ones and the search computing them when there are
+   */
+  long retainedBytes() {
+    long bytes = 16 + 4 * 12 + 16 + 4L * tokens.length + epsilonTransitions.retainedBytes();
+    bytes += 16 + 16 + 4L * closures.length() + 16 + 16 + 16;
+    for (int state = 0; state < closures.length(); state++) {
+      final int[] closure = closures.get(state);
+      if (closure != null) {
+        bytes += 16 + 4L * closure.length;
+      }
+    }
+    final int[][] predecessors = this.predecessors;
+    if (predecessors != null) {
+      bytes += 16 + 4L * predecessors.length;
+      for (int[] states : predecessors) {
+        bytes += 16 + 4L * states.length;
+      }
+    }
+    final DFS dfs = spareSearch.get();
+    if (dfs != null) {
+      bytes += dfs.retainedBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * The epsilon closures turned around, for the engines running the pattern backwards.
+   *
+   * @return for every state a closure can hold, the states reading a character whose closure after
+   *         the character holds it, in increasing order
+   */
+  int[][] predecessors() {
+    int[][] predecessors = this.predecessors;
+    if (predecessors == null) {
+      final int[] counts = new int[stateCount()];
+      for (int state = 0; state < acceptState; state++) {
+        if (consumes(state)) {
+          for (int v : closure(state + 1)) {
+            counts[v]++;
+          }
+        }
+      }
+      predecessors = new int[stateCount()][];
+      for (int v = 0; v < predecessors.length; v++) {
+        predecessors[v] = new int[counts[v]];
+        counts[v] = 0;
+      }
+      for (int state = 0; state < acceptState; state++) {
+        if (consumes(state)) {
+          for (int v : closure(state + 1)) {
+            predecessors[v][counts[v]++] = state;
+          }
+        }
+      }
+      this.predecessors = predecessors;
+    }
+    return predecessors;
+  }
+
+}
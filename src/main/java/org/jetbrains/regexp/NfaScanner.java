@@ -0,0 +1,247 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.token.element.Token;
+
+/**
+ * Runs a pattern over characters in a single pass, following all partial matches side by side.
+ * <p>
+ *   Every state remembers the leftmost position its partial match started at, which is all that is
+ *   needed to report the leftmost and longest match, the same one {@link Matcher#find()} reports.
+ *   The scanner owns its state sets and allocates nothing while it runs, it can be reused for any
+ *   number of texts but not by two threads at once.
+ * <p>
+ *   The same scans run over characters or over int symbols. Each of them reads the text it is given,
+ *   the other one is null.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.StateSet
+ */
+final class NfaScanner {
+
+  private final NfaProgram program;
+  private final Token[] tokens;
+  private final int acceptState;
+  private StateSet current;
+  private StateSet next;
+  private int matchStart = -1;
+  private int matchEnd = -1;
+  private final BudgetMeter meter;
+
+  NfaScanner(NfaProgram program) {
+    this(program, null);
+  }
+
+  /**
+   * @param meter charged for every character read, null for no budget
+   */
+  NfaScanner(NfaProgram program, BudgetMeter meter) {
+    this.program = program;
+    this.meter = meter;
+    this.tokens = program.tokens();
+    this.acceptState = program.acceptState();
+    this.current = new StateSet(program.stateCount());
+    this.next = new StateSet(program.stateCount());
+  }
+
+  /**
+   * @return true if the characters from the start up to the end are matched by the pattern entirely
+   */
+  boolean matches(CharSequence text, int start, int end) {
+    return matches(text, null, start, end);
+  }
+
+  boolean matches(IntSequence symbols, int start, int end) {
+    return matches(null, symbols, start, end);
+  }
+
+  private boolean matches(CharSequence text, IntSequence symbols, int start, int end) {
+    current.clear();
+    addClosure(current, 0, start);
+    for (int i = start; i < end && !current.isEmpty(); i++) {
+      step(text, symbols, i, Integer.MAX_VALUE);
+    }
+    return current.contains(acceptState);
+  }
+
+  /**
+   * stops at the first position where any partial match accepts, without looking for where it starts
+   * or how long it could be.
+   *
+   * @return true if any match is found between the start and the end
+   */
+  boolean contains(CharSequence text, int start, int end) {
+    return contains(text, null, start, end);
+  }
+
+  boolean contains(IntSequence symbols, int start, int end) {
+    return contains(null, symbols, start, end);
+  }
+
+  private boolean contains(CharSequence text, IntSequence symbols, int start, int end) {
+    current.clear();
+    for (int i = firstSeed(start, start, end); i <= end; i++) {
+      if (!program.startAnchored() || i == start) {
+        addClosure(current, 0, i);
+      } else if (current.isEmpty()) {
+        return false;
+      }
+      if (current.contains(acceptState) && (!program.endAnchored() || i == end)) {
+        return true;
+      }
+      if (i < end) {
+        step(text, symbols, i, Integer.MAX_VALUE);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if a match was found in the region from the start to the end, see the find below
+   */
+  boolean find(CharSequence text, int start, int end) {
+    return find(text, start, start, end);
+  }
+
+  /**
+   * New matches are started at every character until one is accepted, after that only
+   * the partial matches that started no later than the accepted one are followed, until all of them die.
+   * <p>
+   *   A pattern anchored at the start only starts a match at the start of the region. A pattern anchored
+   *   at the end only accepts at the end of the region, and when its matches are no longer than some
+   *   number of characters, the scan starts that many characters before the end.
+   *
+   * @param regionStart where the region starts, the start of the text for the anchors
+   * @param from where the search starts, at or after the start of the region
+   * @return true if a match was found starting at or after the search start, its bounds are then
+   *         in matchStart and matchEnd
+   */
+  boolean find(CharSequence text, int regionStart, int from, int end) {
+    return find(text, null, regionStart, from, end, Integer.MAX_VALUE);
+  }
+
+  /**
+   * the same, with no match started after the latest start, the scan stops once the ones started are over
+   */
+  boolean find(CharSequence text, int regionStart, int from, int end, int latestStart) {
+    return find(text, null, regionStart, from, end, latestStart);
+  }
+
+  boolean find(IntSequence symbols, int regionStart, int from, int end) {
+    return find(null, symbols, regionStart, from, end, Integer.MAX_VALUE);
+  }
+
+  private boolean find(CharSequence text, IntSequence symbols, int regionStart, int from, int end, int latestStart) {
+    current.clear();
+    matchStart = -1;
+    matchEnd = -1;
+    final int first = firstSeed(regionStart, from, end);
+    if (first > end || first > latestStart) {
+      return false;
+    }
+    int bestStart = -1;
+    int bestEnd = -1;
+    for (int i = first; ; i++) {
+      if (bestStart == -1 && i <= latestStart && (!program.startAnchored() || i == regionStart)) {
+        addClosure(current, 0, i);
+      }
+      if (current.contains(acceptState) && (!program.endAnchored() || i == end)) {
+        final int acceptedStart = current.startOf(acceptState);
+        if (bestStart == -1 || acceptedStart <= bestStart) {
+          bestStart = acceptedStart;
+          bestEnd = i;
+          current.removeStartingAfter(bestStart);
+        }
+      }
+      if (i == end || (current.isEmpty() && (bestStart != -1 || program.startAnchored() || i >= latestStart))) {
+        break;
+      }
+      step(text, symbols, i, bestStart == -1 ? Integer.MAX_VALUE : bestStart);
+    }
+    matchStart = bestStart;
+    matchEnd = bestEnd;
+    return bestStart != -1;
+  }
+
+  /**
+   * @return the number of matches find would report one after the other between the start and the end
+   */
+  int count(CharSequence text, int start, int end) {
+    int count = 0;
+    int from = start;
+    while (from <= end && find(text, start, from, end)) {
+      count++;
+      from = matchEnd > matchStart ? matchEnd : matchEnd + 1;
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of matches handed to the callback, up to and including the one it stopped at
+   */
+  int forEachMatch(CharSequence text, int start, int end, MatchCallback callback) {
+    return forEachMatch(text, null, start, end, callback);
+  }
+
+  int forEachMatch(IntSequence symbols, int start, int end, MatchCallback callback) {
+    return forEachMatch(null, symbols, start, end, callback);
+  }
+
+  private int forEachMatch(CharSequence text, IntSequence symbols, int start, int end, MatchCallback callback) {
+    int count = 0;
+    int from = start;
+    while (from <= end && find(text, symbols, start, from, end, Integer.MAX_VALUE)) {
+      count++;
+      if (!callback.onMatch(matchStart, matchEnd)) {
+        break;
+      }
+      from = matchEnd > matchStart ? matchEnd : matchEnd + 1;
+    }
+    return count;
+  }
+
+  int matchStart() {
+    return matchStart;
+  }
+
+  int matchEnd() {
+    return matchEnd;
+  }
+
+  /**
+   * @return the first position a match can start at, after the end if there is none
+   */
+  private int firstSeed(int regionStart, int from, int end) {
+    if (program.startAnchored() && from > regionStart) {
+      return end + 1;
+    }
+    if (program.endAnchored() && program.maxLength() >= 0 && end - program.maxLength() > from) {
+      return program.startAnchored() ? end + 1 : end - program.maxLength();
+    }
+    return from;
+  }
+
+  private void step(CharSequence text, IntSequence symbols, int position, int latestStart) {
+    if (meter != null) {
+      meter.charge(current.size(), position);
+    }
+    final int symbol = text != null ? text.charAt(position) : symbols.symbolAt(position);
+    next.clear();
+    for (int i = 0; i < current.size(); i++) {
+      final int state = current.get(i);
+      final int start = current.startOf(state);
+      if (state != acceptState && start <= latestStart && tokens[state].matches(symbol)) {
+        addClosure(next, state + 1, start);
+      }
+    }
+    StateSet swap = current;
+    current = next;
+    next = swap;
+  }
+
+  private void addClosure(StateSet states, int state, int start) {
+    for (int v : program.closure(state)) {
+      states.add(v, start);
+    }
+  }
+
+}
@@ -0,0 +1,283 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Finds every pair of positions the pattern matches between, overlapping or not, one at a time.
+ * <p>
+ *   A forward scan starts a match at every character and stops at each position where any match ends,
+ *   each state remembering the leftmost start of its partial matches like find does. From such an end
+ *   a backward scan runs the pattern the other way, from the accept state, and every position where it
+ *   can be at the start of the pattern is the start of a match. It stops at the leftmost start found
+ *   by the forward scan, or as soon as none of its states is left.
+ * <p>
+ *   The matches come ordered by their end, and the ones with the same end from the shortest to the
+ *   longest. Only the two scans are kept, a few ints per state of the pattern, whatever the number
+ *   of matches. The characters read backwards from an end are at most its longest match.
+ * <p>
+ *   For ranges the forward scan also keeps the rightmost start of every state, and whether all the
+ *   positions between its leftmost and rightmost start are starts of it too. When they are for the
+ *   accept state, the range is known without scanning back, so a*, whose matches ending anywhere start
+ *   anywhere before, is a single pass over the text.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#allMatches()
+ * @see org.jetbrains.regexp.Matcher#forEachMatchRange(MatchRangeCallback)
+ */
+final class OverlappingMatches implements Iterator<Match> {
+
+  private final NfaProgram program;
+  private final Token[] tokens;
+  private final int acceptState;
+  private final int[][] predecessors;
+  private final boolean[] startStates;
+  private final BudgetMeter meter;
+  private final CharSequence text;
+  private final int regionStart;
+  private final int regionEnd;
+
+  private StateSet current;
+  private StateSet next;
+  /**
+   * the rightmost start of every state of the two sets, and whether the starts of the state have no gap
+   */
+  private int[] lastStarts;
+  private int[] nextLastStarts;
+  private boolean[] contiguous;
+  private boolean[] nextContiguous;
+  private int position;
+
+  private StateSet live;
+  private StateSet nextLive;
+  private int reverse;
+  private int leftmost;
+  private int rightmost;
+  private boolean gapless;
+
+  private int matchStart = -1;
+  private int matchEnd = -1;
+  private boolean ready = false;
+
+  /**
+   * @param meter charged for every character read in both directions, null for no budget
+   */
+  OverlappingMatches(NfaProgram program, BudgetMeter meter, CharSequence text, int start, int end) {
+    this.program = program;
+    this.tokens = program.tokens();
+    this.acceptState = program.acceptState();
+    this.predecessors = program.predecessors();
+    this.startStates = new boolean[program.stateCount()];
+    for (int state : program.closure(0)) {
+      startStates[state] = true;
+    }
+    this.meter = meter;
+    this.text = text;
+    this.regionStart = start;
+    this.regionEnd = end;
+    this.current = new StateSet(program.stateCount());
+    this.next = new StateSet(program.stateCount());
+    this.lastStarts = new int[program.stateCount()];
+    this.nextLastStarts = new int[program.stateCount()];
+    this.contiguous = new boolean[program.stateCount()];
+    this.nextContiguous = new boolean[program.stateCount()];
+    this.live = new StateSet(program.stateCount());
+    this.nextLive = new StateSet(program.stateCount());
+    this.position = start;
+    this.reverse = -1;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!ready) {
+      if (nextStart()) {
+        ready = true;
+      } else if (!nextEnd()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Match next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    ready = false;
+    return new Match(text, matchStart, matchEnd);
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the number of ranges handed to the callback, up to and including the one it stopped at
+   */
+  int forEachRange(MatchRangeCallback callback) {
+    int count = 0;
+    while (nextEnd()) {
+      if (gapless) {
+        count++;
+        if (!callback.onMatches(matchEnd, leftmost, rightmost)) {
+          return count;
+        }
+        continue;
+      }
+      int lastStart = -1;
+      int firstStart = -1;
+      while (nextStart()) {
+        if (matchStart == firstStart - 1) {
+          firstStart = matchStart;
+          continue;
+        }
+        if (lastStart != -1) {
+          count++;
+          if (!callback.onMatches(matchEnd, firstStart, lastStart)) {
+            return count;
+          }
+        }
+        firstStart = matchStart;
+        lastStart = matchStart;
+      }
+      if (lastStart != -1) {
+        count++;
+        if (!callback.onMatches(matchEnd, firstStart, lastStart)) {
+          return count;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * moves the forward scan to the next position where a match ends and starts the backward scan there
+   */
+  private boolean nextEnd() {
+    while (position <= regionEnd) {
+      final int i = position++;
+      if (!program.startAnchored() || i == regionStart) {
+        addClosure(current, lastStarts, contiguous, 0, i, i, true);
+      } else if (current.isEmpty()) {
+        position = regionEnd + 1;
+        return false;
+      }
+      final boolean accepts = current.contains(acceptState) && (!program.endAnchored() || i == regionEnd);
+      if (accepts) {
+        matchEnd = i;
+        leftmost = current.startOf(acceptState);
+        rightmost = lastStarts[acceptState];
+        gapless = contiguous[acceptState];
+        live.clear();
+        live.add(acceptState, i);
+        reverse = i;
+      }
+      if (i < regionEnd) {
+        step(i);
+      }
+      if (accepts) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * moves the backward scan to the next start of a match ending at the current end
+   */
+  private boolean nextStart() {
+    while (reverse >= leftmost && !live.isEmpty()) {
+      final int p = reverse--;
+      final boolean starts = (!program.startAnchored() || p == regionStart) && atStart();
+      if (p > leftmost) {
+        stepBack(p - 1);
+      }
+      if (starts) {
+        matchStart = p;
+        return true;
+      }
+    }
+    reverse = -1;
+    return false;
+  }
+
+  private boolean atStart() {
+    for (int i = 0; i < live.size(); i++) {
+      if (startStates[live.get(i)]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void step(int position) {
+    if (meter != null) {
+      meter.charge(current.size(), position);
+    }
+    final char character = text.charAt(position);
+    next.clear();
+    for (int i = 0; i < current.size(); i++) {
+      final int state = current.get(i);
+      if (state != acceptState && tokens[state].matches(character)) {
+        addClosure(next, nextLastStarts, nextContiguous, state + 1, current.startOf(state), lastStarts[state],
+            contiguous[state]);
+      }
+    }
+    StateSet swap = current;
+    current = next;
+    next = swap;
+    int[] swapStarts = lastStarts;
+    lastStarts = nextLastStarts;
+    nextLastStarts = swapStarts;
+    boolean[] swapContiguous = contiguous;
+    contiguous = nextContiguous;
+    nextContiguous = swapContiguous;
+  }
+
+  /**
+   * the states from which reading the character at the position leads to a live state
+   */
+  private void stepBack(int position) {
+    if (meter != null) {
+      meter.charge(live.size(), position);
+    }
+    final char character = text.charAt(position);
+    nextLive.clear();
+    for (int i = 0; i < live.size(); i++) {
+      for (int state : predecessors[live.get(i)]) {
+        if (!nextLive.contains(state) && tokens[state].matches(character)) {
+          nextLive.add(state, position);
+        }
+      }
+    }
+    StateSet swap = live;
+    live = nextLive;
+    nextLive = swap;
+  }
+
+  /**
+   * adds the states reached from the state with the starts from first to last, which have a gap unless
+   * gapless, to the set and its rightmost starts
+   */
+  private void addClosure(StateSet states, int[] lastStarts, boolean[] contiguous, int state, int first, int last,
+                          boolean gapless) {
+    for (int v : program.closure(state)) {
+      if (!states.contains(v)) {
+        states.add(v, first);
+        lastStarts[v] = last;
+        contiguous[v] = gapless;
+        continue;
+      }
+      final int oldFirst = states.startOf(v);
+      final int oldLast = lastStarts[v];
+      contiguous[v] = contiguous[v] && gapless && Math.max(first, oldFirst) <= Math.min(last, oldLast) + 1;
+      states.add(v, first);
+      lastStarts[v] = Math.max(last, oldLast);
+    }
+  }
+
+}
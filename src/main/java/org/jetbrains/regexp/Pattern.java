@@ -2,10 +2,23 @@ package org.jetbrains.regexp;
 
 import org.jetbrains.graphs.DirectedGraph;
 import org.jetbrains.graphs.EpsilonTransitionsGraph;
+import org.jetbrains.regexp.parser.Anchors;
+import org.jetbrains.regexp.parser.CaseFolder;
 import org.jetbrains.regexp.parser.RegexParser;
+import org.jetbrains.regexp.parser.TokenInterner;
+import org.jetbrains.regexp.parser.TokenOptimizer;
 import org.jetbrains.regexp.parser.token.element.Token;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * An entry class that builds the regex digraph and epsilon transitions graphs. 
@@ -13,30 +26,389 @@ import java.text.ParseException;
  *   Once the pattern is built, use matcher method to match different text inputs. 
  *   
  * @author sasha.malahov@here.com (Sasha Malahov)
- * @see Pattern#matcher(String) 
+ * @see Pattern#matcher(CharSequence) 
  */
 public class Pattern {
 
-  private final DirectedGraph epsilonTransitions; 
-  private final Token[] tokens;
+  /**
+   * Matches US-ASCII letters regardless of their case. 
+   * The cases are compiled into the tokens, the text is never converted.
+   */
+  public static final int CASE_INSENSITIVE = 0x02;
 
-  private Pattern(Token[] tokens, DirectedGraph epsilonTransitions) {
-    this.tokens = tokens;
-    this.epsilonTransitions = epsilonTransitions; 
+  /**
+   * Together with CASE_INSENSITIVE, matches any unicode character regardless of its case.
+   */
+  public static final int UNICODE_CASE = 0x40;
+
+  /**
+   * the least number of inputs worth running as a task of their own
+   */
+  private static final int BATCH_CHUNK = 1024;
+
+  private final NfaProgram program;
+  private final EnginePlanner planner;
+  private final int flags;
+  private volatile Utf8Program utf8Program = null;
+
+  private Pattern(NfaProgram program, int flags) {
+    this.program = program;
+    this.planner = new EnginePlanner(program);
+    this.flags = flags;
   }
 
   public static Pattern compile(String regexpString) throws ParseException {
-    final Token[] tokens = new RegexParser(regexpString).getTokens();
+    return compile(regexpString, 0);
+  }
+
+  /**
+   * @param flags a bit mask of CASE_INSENSITIVE and UNICODE_CASE
+   */
+  public static Pattern compile(String regexpString, int flags) throws ParseException {
+    return new Pattern(compileProgram(regexpString, flags), flags);
+  }
+
+  /**
+   * parses, folds the cases when asked to, optimizes and interns the tokens, and builds the transitions
+   */
+  static NfaProgram compileProgram(String regexpString, int flags) throws ParseException {
+    final Anchors anchors = new Anchors(new RegexParser(regexpString).getTokens());
+    Token[] parsed = anchors.getTokens();
+    if ((flags & CASE_INSENSITIVE) != 0) {
+      parsed = new CaseFolder(parsed, (flags & UNICODE_CASE) != 0).getTokens();
+    }
+    final Token[] tokens = TokenInterner.intern(new TokenOptimizer(parsed).getTokens());
     final DirectedGraph transitionsGraph = new EpsilonTransitionsGraph(tokens);
-    return new Pattern(tokens, transitionsGraph);
+    return new NfaProgram(tokens, transitionsGraph, anchors.isStartAnchored(), anchors.isEndAnchored());
+  }
+
+  public int flags() {
+    return flags;
+  }
+
+  /**
+   * @return a copy of the compiled tokens, case folded and optimized, for the tools analysing patterns
+   * @see org.jetbrains.regexp.index.TrigramAnalyzer
+   */
+  public Token[] tokens() {
+    return program.tokens().clone();
+  }
+
+  /**
+   * @return true if the pattern only matches at the start of the text, with ^ or \A
+   */
+  public boolean startAnchored() {
+    return program.startAnchored();
+  }
+
+  /**
+   * @return true if the pattern only matches at the end of the text, with $ or \z
+   */
+  public boolean endAnchored() {
+    return program.endAnchored();
+  }
+
+  /**
+   * @return the most characters a match can have, -1 if there is no limit
+   */
+  public int maxLength() {
+    return program.maxLength();
+  }
+
+  /**
+   * The estimate counts the pattern, its compiled program and whatever the engines have built for it 
+   * so far, the DFA states and the byte program included. The character, range and set tokens are 
+   * shared by all the patterns using them and are not counted, only the references to them.
+   * 
+   * @return a rough count of the bytes that would be freed if the pattern were dropped
+   */
+  public long retainedBytes() {
+    long bytes = 16 + 4 * 4 + program.retainedBytes() + planner.retainedBytes();
+    final Utf8Program utf8Program = this.utf8Program;
+    if (utf8Program != null) {
+      bytes += utf8Program.retainedBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Describes the compiled pattern: its program, the size of its NFA, the engine it runs on, its literals,
+   * how large its DFA would grow and the memory it holds. The DFA is built aside to be measured, this can
+   * take a while for a large pattern, but the engine of the pattern and its own DFA are left as they are.
+   *
+   * @return the plan of the pattern, printed by its toString
+   */
+  public PatternPlan explain() {
+    return new PatternPlan(program, planner, retainedBytes());
+  }
+
+  public Matcher matcher(CharSequence txt) {
+    return new Matcher(txt, program);
+  }
+
+  /**
+   * @return a matcher that keeps the matches in a copy of the text up to date while it is edited
+   */
+  public IncrementalMatcher incrementalMatcher(CharSequence txt) {
+    return incrementalMatcher(txt, IncrementalMatcher.DEFAULT_CHECKPOINT_INTERVAL);
+  }
+
+  /**
+   * @param checkpointInterval the most characters scanned between two saved states
+   */
+  public IncrementalMatcher incrementalMatcher(CharSequence txt, int checkpointInterval) {
+    return new IncrementalMatcher(program, txt, checkpointInterval);
+  }
+
+  /**
+   * Runs the engine picked for the pattern: a comparison for literals, bit masks for small patterns,
+   * the lazily built DFA shared by all threads for larger or heavily used ones, and the NFA otherwise.
+   * 
+   * @return true if the whole text is matched by the pattern
+   * @see #engine()
+   */
+  public boolean matches(CharSequence txt) {
+    return planner.matches(txt, null, null);
+  }
+
+  /**
+   * @return the engine the pattern currently matches whole texts with, it can change as the pattern is used
+   */
+  public Engine engine() {
+    return planner.engine();
+  }
+
+  /**
+   * Matches every input in turn with the same engine, nothing is allocated per input.
+   * 
+   * @param out bit i is set if inputs[i] is matched entirely, and cleared otherwise
+   */
+  public void matchesAll(CharSequence[] inputs, BitSet out) {
+    matchesAll(inputs, 0, inputs.length, out, 0);
+  }
+
+  /**
+   * Same as matchesAll, with the inputs split into chunks that run on the executor. 
+   * Any executor works, a fork join pool spreads the chunks by work stealing.
+   * 
+   * @param out bit i is set if inputs[i] is matched entirely, and cleared otherwise
+   * @throws ExecutionException if a chunk failed, with the failure as the cause
+   */
+  public void matchesAll(final CharSequence[] inputs, BitSet out, ExecutorService executor) 
+      throws InterruptedException, ExecutionException {
+    final int chunks = Math.max(1, Math.min(inputs.length / BATCH_CHUNK, 4 * Runtime.getRuntime().availableProcessors()));
+    final int chunkSize = (inputs.length + chunks - 1) / chunks;
+    List<Future<BitSet>> results = new ArrayList<Future<BitSet>>(chunks);
+    for (int from = 0; from < inputs.length; from += chunkSize) {
+      final int start = from;
+      final int end = Math.min(inputs.length, from + chunkSize);
+      results.add(executor.submit(new Callable<BitSet>() {
+        @Override
+        public BitSet call() {
+          BitSet matched = new BitSet(end - start);
+          matchesAll(inputs, start, end, matched, start);
+          return matched;
+        }
+      }));
+    }
+    out.clear(0, inputs.length);
+    for (int i = 0; i < results.size(); i++) {
+      final BitSet matched = results.get(i).get();
+      final int start = i * chunkSize;
+      for (int bit = matched.nextSetBit(0); bit >= 0; bit = matched.nextSetBit(bit + 1)) {
+        out.set(start + bit);
+      }
+    }
+  }
+
+  /**
+   * Finds the first match in every input in turn, with one scanner for the whole batch.
+   * 
+   * @param offsets for every input i, offsets[2i] and offsets[2i+1] are set to the start and the end
+   *                of its first match, or both to -1 if it has none
+   * @return the number of inputs with a match
+   */
+  public int findFirstAll(CharSequence[] inputs, int[] offsets) {
+    if (offsets.length < 2 * inputs.length) {
+      throw new IndexOutOfBoundsException("offsets " + offsets.length + " for " + inputs.length + " inputs");
+    }
+    final NfaScanner scanner = new NfaScanner(program);
+    int found = 0;
+    for (int i = 0; i < inputs.length; i++) {
+      if (scanner.find(inputs[i], 0, inputs[i].length())) {
+        offsets[2 * i] = scanner.matchStart();
+        offsets[2 * i + 1] = scanner.matchEnd();
+        found++;
+      } else {
+        offsets[2 * i] = -1;
+        offsets[2 * i + 1] = -1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Cheaper than finding a match when only its existence matters: 
+   * the text is read up to the first position where any match ends and no further.
+   * 
+   * @return true if the pattern matches any part of the text
+   */
+  public boolean containsMatchIn(CharSequence txt) {
+    return planner.contains(txt);
+  }
+
+  /**
+   * @return the matches in the text, found one at a time while iterating
+   * @see Matcher#results()
+   */
+  public Iterable<Match> findAll(final CharSequence txt) {
+    return new Iterable<Match>() {
+      @Override
+      public Iterator<Match> iterator() {
+        return matcher(txt).results();
+      }
+    };
+  }
+
+  /**
+   * @see Matcher#forEachMatch(MatchCallback)
+   */
+  public int forEachMatch(CharSequence txt, MatchCallback callback) {
+    return new NfaScanner(program).forEachMatch(txt, 0, txt.length(), callback);
+  }
+
+  /**
+   * Splits the text around the matches of the pattern, the way String.split does:
+   * a match of no characters at the start does not give a leading empty piece
+   * and the empty pieces at the end are dropped.
+   * The pieces are found one at a time while iterating, each is a subSequence of the text.
+   *
+   * @return the pieces of the text, computed again for every iterator
+   */
+  public Iterable<CharSequence> split(final CharSequence txt) {
+    return new Iterable<CharSequence>() {
+      @Override
+      public Iterator<CharSequence> iterator() {
+        return new SplitIterator(new NfaScanner(program), txt);
+      }
+    };
+  }
+
+  public String replaceAll(CharSequence txt, String replacement) {
+    return matcher(txt).replaceAll(replacement);
+  }
+
+  /**
+   * @param utf8 UTF-8 encoded text, it is read in place and never decoded
+   * @param offset index of the first byte of the text
+   * @param length number of bytes in the text
+   * @return a matcher reporting positions as indices into the array
+   */
+  public ByteMatcher matcher(byte[] utf8, int offset, int length) {
+    return new ByteMatcher(utf8Program(), utf8, offset, length);
+  }
+
+  public ByteMatcher matcher(byte[] utf8) {
+    return matcher(utf8, 0, utf8.length);
+  }
+
+  public boolean matches(byte[] utf8, int offset, int length) {
+    return matcher(utf8, offset, length).matches();
+  }
+
+  public boolean matches(byte[] utf8) {
+    return matches(utf8, 0, utf8.length);
+  }
+
+  /**
+   * @param utf8 a buffer holding UTF-8 encoded text between its position and its limit.
+   *             Heap buffers are read through their array, direct buffers in place,
+   *             the position of the buffer is not changed.
+   * @return a matcher reporting positions as indices into the buffer
+   */
+  public ByteMatcher matcher(ByteBuffer utf8) {
+    return new ByteMatcher(utf8Program(), utf8);
+  }
+
+  public boolean matches(ByteBuffer utf8) {
+    return matcher(utf8).matches();
+  }
+
+  /**
+   * Matches a sequence of int symbols, event codes or word ids for instance, with the same engines
+   * as texts. A character of the pattern matches the symbol equal to its code, \x{h...h} matches
+   * any symbol, also those above the characters. A code point above them matches its surrogate pair
+   * in a text and the single symbol here, the two symbols of the pair as well.
+   *
+   * @return true if all the symbols are matched by the pattern
+   * @see org.jetbrains.regexp.IntSequence
+   */
+  public boolean matches(IntSequence symbols) {
+    return planner.matches(symbols, null, null);
+  }
+
+  /**
+   * @param offset index of the first symbol, the array is read in place
+   * @param length number of symbols
+   */
+  public boolean matches(int[] symbols, int offset, int length) {
+    return matches(new IntArraySequence(symbols, offset, length));
+  }
+
+  public boolean matches(int[] symbols) {
+    return matches(symbols, 0, symbols.length);
+  }
+
+  /**
+   * @return true if the pattern matches any part of the symbols
+   */
+  public boolean containsMatchIn(IntSequence symbols) {
+    return planner.contains(symbols);
+  }
+
+  public boolean containsMatchIn(int[] symbols) {
+    return containsMatchIn(new IntArraySequence(symbols, 0, symbols.length));
+  }
+
+  /**
+   * Hands the matches Matcher.find would report in a text to the callback, as indices of the symbols.
+   * Nothing is allocated per match.
+   *
+   * @return the number of matches handed to the callback, up to and including the one it stopped at
+   */
+  public int forEachMatch(IntSequence symbols, MatchCallback callback) {
+    return new NfaScanner(program).forEachMatch(symbols, 0, symbols.length(), callback);
+  }
+
+  public int forEachMatch(int[] symbols, MatchCallback callback) {
+    return forEachMatch(new IntArraySequence(symbols, 0, symbols.length), callback);
   }
 
-  public Matcher matcher(String txt) {
-    return new Matcher(txt, tokens, epsilonTransitions);
+  /**
+   * matches the inputs from the start to the end, the result of input i goes to bit i - shift
+   */
+  private void matchesAll(CharSequence[] inputs, int start, int end, BitSet out, int shift) {
+    final NfaScanner scanner = new NfaScanner(program);
+    final DfaScratch scratch = new DfaScratch(program.stateCount());
+    for (int i = start; i < end; i++) {
+      out.set(i - shift, planner.matches(inputs[i], scanner, scratch));
+    }
   }
 
-  public boolean matches(String txt) {
-    final Matcher matcher = matcher(txt);
-    return matcher.matches();
+  /**
+   * the byte program is only built for patterns that are used on bytes, and shared by all their matchers
+   */
+  private Utf8Program utf8Program() {
+    Utf8Program program = utf8Program;
+    if (program == null) {
+      synchronized (this) {
+        program = utf8Program;
+        if (program == null) {
+          program = new Utf8Program(this.program);
+          utf8Program = program;
+        }
+      }
+    }
+    return program;
   }
 }
@@ -0,0 +1,295 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.index.RequiredLiterals;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingPair;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a compiled pattern is made of and what it costs, to find the expensive patterns before they are used.
+ * <p>
+ *   The program is the tokens the engines run, after the counted repeats are expanded, the cases folded
+ *   and the tokens optimized, written back as a regular expression with the groups the compiler adds.
+ *   The DFA is estimated by building it apart from the pattern, all of it, with one symbol of each class
+ *   of symbols no token tells apart, up to the memory bound of the DFA the pattern would use. The engine,
+ *   the DFA and the counters of the pattern are not touched, only the epsilon closures computed on the way
+ *   are kept in its program, as matching would keep them.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#explain()
+ */
+public final class PatternPlan {
+
+  /**
+   * returned by dfaStates when the DFA does not fit in its memory bound
+   */
+  public static final int TOO_MANY_STATES = -1;
+
+  private static final String ESCAPED = "\\.[]{}()*+?|^$-&";
+
+  private final String program;
+  private final int tokenCount;
+  private final int stateCount;
+  private final int epsilonEdgeCount;
+  private final boolean startAnchored;
+  private final boolean endAnchored;
+  private final int maxLength;
+  private final Engine engine;
+  private final List<String> literals;
+  private final List<String> requiredLiterals;
+  private final int dfaStates;
+  private final long dfaBytes;
+  private final long retainedBytes;
+  private final List<String> warnings = new ArrayList<String>();
+
+  PatternPlan(NfaProgram program, EnginePlanner planner, long retainedBytes) {
+    final Token[] tokens = program.tokens();
+    StringBuilder builder = new StringBuilder();
+    for (Token token : tokens) {
+      render(token, builder);
+    }
+    this.program = builder.toString();
+    this.tokenCount = tokens.length;
+    this.stateCount = program.stateCount();
+    this.epsilonEdgeCount = program.epsilonTransitions().edgeCount();
+    this.startAnchored = program.startAnchored();
+    this.endAnchored = program.endAnchored();
+    this.maxLength = program.maxLength();
+    this.engine = planner.engine();
+    final Set<String> literals = planner.literals();
+    this.literals = literals == null ? Collections.<String>emptyList()
+        : Collections.unmodifiableList(new ArrayList<String>(literals));
+    this.requiredLiterals = Collections.unmodifiableList(new RequiredLiterals(tokens).getLiterals());
+    final LazyDfa dfa = new LazyDfa(program, LazyDfa.DEFAULT_MEMORY_LIMIT);
+    this.dfaStates = dfa.explore(representatives(tokens));
+    this.dfaBytes = dfa.memoryUsed();
+    this.retainedBytes = retainedBytes;
+    if (stateCount > EnginePlanner.MAX_DFA_STATES) {
+      warnings.add("more than " + EnginePlanner.MAX_DFA_STATES + " NFA states, whole texts are matched by the NFA");
+    }
+    if (dfaStates == TOO_MANY_STATES) {
+      warnings.add("the DFA outgrows its " + LazyDfa.DEFAULT_MEMORY_LIMIT + " bytes, "
+          + "the texts needing the missing states are matched by the NFA");
+    }
+    if (this.literals.isEmpty() && requiredLiterals.isEmpty()) {
+      warnings.add("no string every match contains, an index can not narrow the search");
+    }
+  }
+
+  /**
+   * @return the compiled tokens written as a regular expression
+   */
+  public String program() {
+    return program;
+  }
+
+  public int tokenCount() {
+    return tokenCount;
+  }
+
+  /**
+   * @return the states of the NFA, one a token and the accept state
+   */
+  public int stateCount() {
+    return stateCount;
+  }
+
+  public int epsilonEdgeCount() {
+    return epsilonEdgeCount;
+  }
+
+  public boolean startAnchored() {
+    return startAnchored;
+  }
+
+  public boolean endAnchored() {
+    return endAnchored;
+  }
+
+  /**
+   * @return the most characters a match can have, -1 if there is no limit
+   */
+  public int maxLength() {
+    return maxLength;
+  }
+
+  /**
+   * @return the engine the pattern matched whole texts with when the plan was made
+   */
+  public Engine engine() {
+    return engine;
+  }
+
+  /**
+   * @return the strings a LITERAL or LITERAL_SET pattern matches, empty for the other engines
+   */
+  public List<String> literals() {
+    return literals;
+  }
+
+  /**
+   * @return the strings every match contains, the ones a prefilter or an index looks for
+   * @see org.jetbrains.regexp.index.RequiredLiterals
+   */
+  public List<String> requiredLiterals() {
+    return requiredLiterals;
+  }
+
+  /**
+   * @return the states of the whole DFA, TOO_MANY_STATES if they do not fit in its memory bound
+   */
+  public int dfaStates() {
+    return dfaStates;
+  }
+
+  /**
+   * @return the bytes the states of the whole DFA take, or the ones built before the bound was reached
+   */
+  public long dfaBytes() {
+    return dfaBytes;
+  }
+
+  /**
+   * @return the bytes the pattern held when the plan was made
+   * @see org.jetbrains.regexp.Pattern#retainedBytes()
+   */
+  public long retainedBytes() {
+    return retainedBytes;
+  }
+
+  /**
+   * @return why the pattern may be expensive, empty if nothing is known against it
+   */
+  public List<String> warnings() {
+    return Collections.unmodifiableList(warnings);
+  }
+
+  /**
+   * a line for each part of the plan, then a line for each warning
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("program: ").append(program).append('\n');
+    builder.append("tokens: ").append(tokenCount).append(", NFA states: ").append(stateCount)
+        .append(", epsilon edges: ").append(epsilonEdgeCount).append('\n');
+    builder.append("anchors: ").append(startAnchored ? "start" : "").append(startAnchored && endAnchored ? " " : "")
+        .append(endAnchored ? "end" : "").append(startAnchored || endAnchored ? "" : "none").append('\n');
+    builder.append("max length: ").append(maxLength < 0 ? "unbounded" : String.valueOf(maxLength)).append('\n');
+    builder.append("engine: ").append(engine).append('\n');
+    builder.append("literals: ").append(literals).append('\n');
+    builder.append("required literals: ").append(requiredLiterals).append('\n');
+    builder.append("DFA: ").append(dfaStates == TOO_MANY_STATES ? "over the memory bound" : dfaStates + " states")
+        .append(", ").append(dfaBytes).append(" bytes").append('\n');
+    builder.append("retained bytes: ").append(retainedBytes).append('\n');
+    for (String warning : warnings) {
+      builder.append("warning: ").append(warning).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return the first symbol of every class of symbols the tokens can not tell apart, from 0 on
+   */
+  private static int[] representatives(Token[] tokens) {
+    Set<Integer> bounds = new TreeSet<Integer>();
+    bounds.add(0);
+    for (Token token : tokens) {
+      addBounds(token, bounds);
+    }
+    final int[] symbols = new int[bounds.size()];
+    int i = 0;
+    for (int bound : bounds) {
+      symbols[i++] = bound;
+    }
+    return symbols;
+  }
+
+  /**
+   * adds the first symbol a token matches and the one after the last, for each run of symbols it matches
+   */
+  private static void addBounds(Token token, Set<Integer> bounds) {
+    if (token instanceof CharacterToken) {
+      addRun(((CharacterToken) token).getValue(), ((CharacterToken) token).getValue(), bounds);
+    } else if (token instanceof SymbolToken) {
+      addRun(((SymbolToken) token).getValue(), ((SymbolToken) token).getValue(), bounds);
+    } else if (token instanceof MatchingRange) {
+      addRun(((MatchingRange) token).getFrom().getValue(), ((MatchingRange) token).getTo().getValue(), bounds);
+    } else if (token instanceof MatchingSet) {
+      for (Token member : ((MatchingSet) token).getTokens()) {
+        addBounds(member, bounds);
+      }
+    } else if (token instanceof MatchingPair) {
+      addBounds(((MatchingPair) token).getFirst(), bounds);
+      addBounds(((MatchingPair) token).getSecond(), bounds);
+    }
+  }
+
+  private static void addRun(int first, int last, Set<Integer> bounds) {
+    bounds.add(first);
+    if (last < Integer.MAX_VALUE) {
+      bounds.add(last + 1);
+    }
+  }
+
+  private static void render(Token token, StringBuilder builder) {
+    if (token instanceof OperatorToken) {
+      builder.append(token);
+    } else if (token instanceof CharacterToken) {
+      render(((CharacterToken) token).getValue(), builder);
+    } else if (token instanceof SymbolToken) {
+      builder.append("\\x{").append(Integer.toHexString(((SymbolToken) token).getValue())).append('}');
+    } else if (token instanceof MatchingRange || token instanceof MatchingPair) {
+      builder.append('[');
+      renderMember(token, builder);
+      builder.append(']');
+    } else {
+      renderMember(token, builder);
+    }
+  }
+
+  /**
+   * writes a token as the part of a class it is
+   */
+  private static void renderMember(Token token, StringBuilder builder) {
+    if (token instanceof MatchingRange) {
+      render(((MatchingRange) token).getFrom().getValue(), builder);
+      builder.append('-');
+      render(((MatchingRange) token).getTo().getValue(), builder);
+    } else if (token instanceof MatchingSet) {
+      builder.append(((MatchingSet) token).isNegative() ? "[^" : "[");
+      for (Token member : ((MatchingSet) token).getTokens()) {
+        renderMember(member, builder);
+      }
+      builder.append(']');
+    } else if (token instanceof MatchingPair) {
+      renderMember(((MatchingPair) token).getFirst(), builder);
+      builder.append("&&");
+      renderMember(((MatchingPair) token).getSecond(), builder);
+    } else {
+      render(token, builder);
+    }
+  }
+
+  private static void render(int character, StringBuilder builder) {
+    if (character < 0x20 || character > 0x7E) {
+      builder.append("\\x{").append(Integer.toHexString(character)).append('}');
+    } else {
+      if (ESCAPED.indexOf(character) >= 0) {
+        builder.append('\\');
+      }
+      builder.append((char) character);
+    }
+  }
+
+}
@@ -0,0 +1,333 @@
+package org.jetbrains.regexp;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A set of rules, each a regexp, to find which of them match somewhere in a text, with rules added and
+ * removed while the set is used.
+ * <p>
+ *   The rules are kept in partitions, each with one DFA for all its rules, built as the texts need it.
+ *   A change only rebuilds one partition: an added rule goes to a small partition at the end, a removed one
+ *   is taken out of its own partition. Only the added regexp is compiled, the other rules keep their
+ *   compiled programs. The partitions changed start their DFA over, the others keep theirs.
+ * <p>
+ *   A text is scanned once for each partition, so adding rules one after the other makes the scans slower
+ *   as the small partitions pile up. A merge packs them back into large partitions, computed aside while
+ *   the set goes on being used and changed, and can run on an executor. Every change reports what it cost
+ *   and the scan penalty left after it. The cost of building the DFA of the rebuilt partitions again is
+ *   not part of it, it falls on the scans that follow, so a large merge is best followed by a scan of a
+ *   typical text before the set takes its load.
+ * <p>
+ *   The scans read the partitions of the moment without locking, the changes are made one at a time.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.PatternSetUpdate
+ * @see org.jetbrains.regexp.SetDfa
+ */
+public final class PatternSet {
+
+  /**
+   * the most rules of the partition at the end new rules are added to
+   */
+  static final int DELTA_RULES = 32;
+
+  /**
+   * the most rules a merge packs into a partition
+   */
+  static final int PARTITION_RULES = 1024;
+
+  private final int flags;
+  private final long memoryLimit;
+  private volatile Partition[] partitions = new Partition[0];
+  /**
+   * the id of the next rule added, guarded by this
+   */
+  private int nextRule = 0;
+
+  public PatternSet() {
+    this(0);
+  }
+
+  /**
+   * @param flags a bit mask of Pattern.CASE_INSENSITIVE and Pattern.UNICODE_CASE, for all the rules
+   */
+  public PatternSet(int flags) {
+    this(flags, SetDfa.DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * @param memoryLimit the most bytes of DFA states of a partition, past it its scans go on with the NFA
+   */
+  PatternSet(int flags, long memoryLimit) {
+    this.flags = flags;
+    this.memoryLimit = memoryLimit;
+  }
+
+  /**
+   * compiles the regexp and adds it to the partition at the end, or to a new one if that one is full
+   *
+   * @return the update, whose rule is the id of the new rule
+   */
+  public synchronized PatternSetUpdate add(String regexp) throws ParseException {
+    final long started = System.nanoTime();
+    final NfaProgram program = Pattern.compileProgram(regexp, flags);
+    final int rule = nextRule++;
+    final Partition[] partitions = this.partitions;
+    final Partition last = partitions.length > 0 ? partitions[partitions.length - 1] : null;
+    final Partition[] updated;
+    final Partition changed;
+    if (last != null && last.rules.length < DELTA_RULES) {
+      changed = last.with(rule, regexp, program, memoryLimit);
+      updated = partitions.clone();
+      updated[updated.length - 1] = changed;
+    } else {
+      changed = new Partition(new int[]{rule}, new String[]{regexp}, new NfaProgram[]{program}, memoryLimit);
+      updated = Arrays.copyOf(partitions, partitions.length + 1);
+      updated[partitions.length] = changed;
+    }
+    this.partitions = updated;
+    return update(rule, 1, changed.rules.length, updated, started);
+  }
+
+  /**
+   * rebuilds the partition of the rule without it, a partition left empty is dropped
+   *
+   * @throws IllegalArgumentException if the rule is not in the set
+   */
+  public synchronized PatternSetUpdate remove(int rule) {
+    final long started = System.nanoTime();
+    final Partition[] partitions = this.partitions;
+    for (int i = 0; i < partitions.length; i++) {
+      final int index = partitions[i].indexOf(rule);
+      if (index < 0) {
+        continue;
+      }
+      final Partition[] updated;
+      int rebuilt = 0;
+      if (partitions[i].rules.length == 1) {
+        updated = new Partition[partitions.length - 1];
+        System.arraycopy(partitions, 0, updated, 0, i);
+        System.arraycopy(partitions, i + 1, updated, i, partitions.length - i - 1);
+      } else {
+        updated = partitions.clone();
+        updated[i] = partitions[i].without(index, memoryLimit);
+        rebuilt = updated[i].rules.length;
+      }
+      this.partitions = updated;
+      return update(rule, 0, rebuilt, updated, started);
+    }
+    throw new IllegalArgumentException("no rule " + rule + " in the set");
+  }
+
+  /**
+   * Packs the partitions that follow each other into partitions of up to PARTITION_RULES rules.
+   * The new partitions are built aside, if the set changed meanwhile they are built again from the new
+   * partitions. A full partition, or one that can not be packed with its neighbours, is kept as it is.
+   */
+  public PatternSetUpdate merge() {
+    final long started = System.nanoTime();
+    while (true) {
+      final Partition[] partitions = this.partitions;
+      final List<Partition> merged = new ArrayList<Partition>();
+      int rebuilt = 0;
+      for (int from = 0; from < partitions.length; ) {
+        int to = from + 1;
+        int rules = partitions[from].rules.length;
+        while (to < partitions.length && rules + partitions[to].rules.length <= PARTITION_RULES) {
+          rules += partitions[to++].rules.length;
+        }
+        if (to - from == 1) {
+          merged.add(partitions[from]);
+        } else {
+          merged.add(Partition.merge(partitions, from, to, rules, memoryLimit));
+          rebuilt += rules;
+        }
+        from = to;
+      }
+      synchronized (this) {
+        if (this.partitions == partitions) {
+          final Partition[] updated = merged.toArray(new Partition[merged.size()]);
+          this.partitions = updated;
+          return update(PatternSetUpdate.NO_RULE, 0, rebuilt, updated, started);
+        }
+      }
+    }
+  }
+
+  /**
+   * runs merge on the executor, the set can be scanned and changed meanwhile
+   */
+  public Future<PatternSetUpdate> merge(ExecutorService executor) {
+    return executor.submit(new Callable<PatternSetUpdate>() {
+      @Override
+      public PatternSetUpdate call() {
+        return merge();
+      }
+    });
+  }
+
+  /**
+   * @return the number of rules in the set
+   */
+  public int size() {
+    return size(partitions);
+  }
+
+  public int partitionCount() {
+    return partitions.length;
+  }
+
+  /**
+   * @return the regexp of the rule, null if it is not in the set
+   */
+  public String regexp(int rule) {
+    for (Partition partition : partitions) {
+      final int index = partition.indexOf(rule);
+      if (index >= 0) {
+        return partition.regexps[index];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A scan goes over the text once for each partition, the set could be scanned in as few as its rules
+   * divided by PARTITION_RULES.
+   *
+   * @return how many times more scans a text takes than the rules need, 1 once merged
+   */
+  public double scanPenalty() {
+    final Partition[] partitions = this.partitions;
+    return scanPenalty(partitions, size(partitions));
+  }
+
+  /**
+   * @return the ids of the rules with a match somewhere in the text, in increasing order
+   */
+  public int[] matchingRules(CharSequence text) {
+    final Partition[] partitions = this.partitions;
+    int[] found = new int[size(partitions)];
+    int size = 0;
+    for (Partition partition : partitions) {
+      final boolean[] matched = new boolean[partition.rules.length];
+      if (partition.dfa.scan(text, matched, false) > 0) {
+        for (int i = 0; i < matched.length; i++) {
+          if (matched[i]) {
+            found[size++] = partition.rules[i];
+          }
+        }
+      }
+    }
+    return Arrays.copyOf(found, size);
+  }
+
+  /**
+   * @return true if any rule has a match somewhere in the text
+   */
+  public boolean containsMatchIn(CharSequence text) {
+    for (Partition partition : partitions) {
+      if (partition.dfa.scan(text, new boolean[partition.rules.length], true) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static PatternSetUpdate update(int rule, int compiled, int rebuilt, Partition[] partitions, long started) {
+    return new PatternSetUpdate(rule, compiled, rebuilt, partitions.length,
+        scanPenalty(partitions, size(partitions)), System.nanoTime() - started);
+  }
+
+  private static int size(Partition[] partitions) {
+    int size = 0;
+    for (Partition partition : partitions) {
+      size += partition.rules.length;
+    }
+    return size;
+  }
+
+  private static double scanPenalty(Partition[] partitions, int size) {
+    final int fewest = (size + PARTITION_RULES - 1) / PARTITION_RULES;
+    return fewest == 0 ? 1 : (double) partitions.length / fewest;
+  }
+
+  /**
+   * Rules that are scanned together, with their ids in increasing order. A partition never changes,
+   * a change to the set replaces it.
+   */
+  private static final class Partition {
+
+    private final int[] rules;
+    private final String[] regexps;
+    private final NfaProgram[] programs;
+    private final SetDfa dfa;
+
+    private Partition(int[] rules, String[] regexps, NfaProgram[] programs, long memoryLimit) {
+      this.rules = rules;
+      this.regexps = regexps;
+      this.programs = programs;
+      this.dfa = new SetDfa(programs, memoryLimit);
+    }
+
+    /**
+     * @return the index of the rule in the partition, negative if it is not there
+     */
+    private int indexOf(int rule) {
+      if (rules.length == 0 || rule < rules[0] || rule > rules[rules.length - 1]) {
+        return -1;
+      }
+      return Arrays.binarySearch(rules, rule);
+    }
+
+    /**
+     * @param rule an id greater than all the ones of the partition
+     */
+    private Partition with(int rule, String regexp, NfaProgram program, long memoryLimit) {
+      final int[] rules = Arrays.copyOf(this.rules, this.rules.length + 1);
+      final String[] regexps = Arrays.copyOf(this.regexps, rules.length);
+      final NfaProgram[] programs = Arrays.copyOf(this.programs, rules.length);
+      rules[rules.length - 1] = rule;
+      regexps[rules.length - 1] = regexp;
+      programs[rules.length - 1] = program;
+      return new Partition(rules, regexps, programs, memoryLimit);
+    }
+
+    private Partition without(int index, long memoryLimit) {
+      final int[] rules = new int[this.rules.length - 1];
+      final String[] regexps = new String[rules.length];
+      final NfaProgram[] programs = new NfaProgram[rules.length];
+      System.arraycopy(this.rules, 0, rules, 0, index);
+      System.arraycopy(this.rules, index + 1, rules, index, rules.length - index);
+      System.arraycopy(this.regexps, 0, regexps, 0, index);
+      System.arraycopy(this.regexps, index + 1, regexps, index, rules.length - index);
+      System.arraycopy(this.programs, 0, programs, 0, index);
+      System.arraycopy(this.programs, index + 1, programs, index, rules.length - index);
+      return new Partition(rules, regexps, programs, memoryLimit);
+    }
+
+    /**
+     * @return one partition with the rules of the partitions from the first to the one before the last
+     */
+    private static Partition merge(Partition[] partitions, int from, int to, int size, long memoryLimit) {
+      final int[] rules = new int[size];
+      final String[] regexps = new String[size];
+      final NfaProgram[] programs = new NfaProgram[size];
+      int offset = 0;
+      for (int i = from; i < to; i++) {
+        final Partition partition = partitions[i];
+        System.arraycopy(partition.rules, 0, rules, offset, partition.rules.length);
+        System.arraycopy(partition.regexps, 0, regexps, offset, partition.rules.length);
+        System.arraycopy(partition.programs, 0, programs, offset, partition.rules.length);
+        offset += partition.rules.length;
+      }
+      return new Partition(rules, regexps, programs, memoryLimit);
+    }
+  }
+
+}
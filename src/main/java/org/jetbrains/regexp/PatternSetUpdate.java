@@ -0,0 +1,94 @@
+package org.jetbrains.regexp;
+
+/**
+ * What a change to a pattern set cost, and how much slower the scans are after it.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.PatternSet
+ */
+public final class PatternSetUpdate {
+
+  /**
+   * the rule of a merge, which is about no rule in particular
+   */
+  public static final int NO_RULE = -1;
+
+  private final int rule;
+  private final int compiledRules;
+  private final int rebuiltRules;
+  private final int partitionCount;
+  private final double scanPenalty;
+  private final long nanos;
+
+  PatternSetUpdate(int rule, int compiledRules, int rebuiltRules, int partitionCount, double scanPenalty,
+                   long nanos) {
+    this.rule = rule;
+    this.compiledRules = compiledRules;
+    this.rebuiltRules = rebuiltRules;
+    this.partitionCount = partitionCount;
+    this.scanPenalty = scanPenalty;
+    this.nanos = nanos;
+  }
+
+  /**
+   * @return the rule added or removed, NO_RULE for a merge
+   */
+  public int rule() {
+    return rule;
+  }
+
+  /**
+   * @return the regexps parsed and compiled, one for an add, none otherwise
+   */
+  public int compiledRules() {
+    return compiledRules;
+  }
+
+  /**
+   * @return the rules of the partitions rebuilt, whose DFA starts over empty and is built again by the scans
+   *         that follow
+   */
+  public int rebuiltRules() {
+    return rebuiltRules;
+  }
+
+  /**
+   * @return the partitions of the set after the change, a text is scanned once for each
+   */
+  public int partitionCount() {
+    return partitionCount;
+  }
+
+  /**
+   * @return the scans over the text after the change, divided by the fewest the rules can be scanned in
+   * @see org.jetbrains.regexp.PatternSet#scanPenalty()
+   */
+  public double scanPenalty() {
+    return scanPenalty;
+  }
+
+  /**
+   * Only the change itself is counted. The DFA of a rebuilt partition is built again a state at a time by
+   * the scans after the change, and the first of them can take much longer than the change did, all the
+   * more as the rebuilt rules are many: a merge of tens of thousands of rules takes milliseconds, the first
+   * scan after it seconds.
+   *
+   * @return the time the change took, the merges computed aside included
+   */
+  public long nanos() {
+    return nanos;
+  }
+
+  @Override
+  public String toString() {
+    return "PatternSetUpdate{" +
+        "rule=" + rule +
+        ", compiledRules=" + compiledRules +
+        ", rebuiltRules=" + rebuiltRules +
+        ", partitionCount=" + partitionCount +
+        ", scanPenalty=" + scanPenalty +
+        ", nanos=" + nanos +
+        '}';
+  }
+
+}
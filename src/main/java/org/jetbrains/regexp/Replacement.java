@@ -0,0 +1,74 @@
+package org.jetbrains.regexp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A replacement template parsed once into the literal text that goes between the copies of the match.
+ * <p>
+ *   In the template $0 stands for the whole match, and a backslash makes the next character literal,
+ *   so \$ is a dollar sign. There are no capturing groups, any other group number is rejected
+ *   when the template is compiled. A compiled template is immutable and can be shared between threads.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Matcher#replaceAll(Replacement, Appendable)
+ */
+public final class Replacement {
+
+  /**
+   * the output is literals[0] match literals[1] match ... literals[n]
+   */
+  private final String[] literals;
+
+  private Replacement(String[] literals) {
+    this.literals = literals;
+  }
+
+  public static Replacement compile(String template) {
+    List<String> literals = new ArrayList<String>();
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < template.length(); i++) {
+      final char character = template.charAt(i);
+      if (character == '\\') {
+        if (++i == template.length()) {
+          throw new IllegalArgumentException("character to be escaped is missing");
+        }
+        literal.append(template.charAt(i));
+      } else if (character == '$') {
+        if (++i == template.length()) {
+          throw new IllegalArgumentException("group number is missing after $");
+        }
+        final char group = template.charAt(i);
+        if (group != '0') {
+          throw new IllegalArgumentException("no group " + group + ", only $0 can be used");
+        }
+        literals.add(literal.toString());
+        literal.setLength(0);
+      } else {
+        literal.append(character);
+      }
+    }
+    literals.add(literal.toString());
+    return new Replacement(literals.toArray(new String[literals.size()]));
+  }
+
+  /**
+   * @return a template that writes the text as it is, with no reference to the match
+   */
+  public static Replacement literal(String text) {
+    return new Replacement(new String[] {text});
+  }
+
+  /**
+   * writes the template with the match found between start and end in the text
+   */
+  public void appendTo(Appendable output, CharSequence text, int start, int end) throws IOException {
+    output.append(literals[0]);
+    for (int i = 1; i < literals.length; i++) {
+      output.append(text, start, end);
+      output.append(literals[i]);
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+package org.jetbrains.regexp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One deterministic automaton finding which of a group of rules match somewhere in a text, built a transition
+ * at a time as the texts need it, and shared by all the threads scanning with it.
+ * <p>
+ *   As for a lexer, the states of the rules are numbered one after the other and a DFA state is a set of them.
+ *   Here a match can start anywhere, so after every character the start states of the rules are added again,
+ *   except for the rules anchored at the start. A DFA state keeps the rules whose accept state it holds, the
+ *   ones anchored at the end apart, they only count at the end of the text. Once the memory bound is reached
+ *   the text goes on with the sets of NFA states, as the lexer does.
+ * <p>
+ *   A scan that only follows transitions already built allocates nothing, the scratch to compute a new
+ *   state in is made on the first transition that is missing.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.PatternSet
+ * @see org.jetbrains.regexp.LexerDfa
+ * @see org.jetbrains.regexp.DfaScratch
+ */
+final class SetDfa {
+
+  static final long DEFAULT_MEMORY_LIMIT = 4 << 20;
+  static final int CACHED_CHARACTERS = 256;
+
+  private final NfaProgram[] rules;
+  /**
+   * the first state of every rule, and the number of states after the last rule
+   */
+  private final int[] offsets;
+  private final int[] ruleOf;
+  /**
+   * for every state, the rule it is the accept state of, -1 for the other states
+   */
+  private final int[] acceptOf;
+  /**
+   * the start states of the rules matching anywhere, added after every character, in increasing order
+   */
+  private final int[] floating;
+  private final long memoryLimit;
+  private final AtomicLong memoryUsed = new AtomicLong();
+  private final ConcurrentMap<DfaKey, State> states = new ConcurrentHashMap<DfaKey, State>();
+  private final State start;
+
+  SetDfa(NfaProgram[] rules, long memoryLimit) {
+    this.rules = rules;
+    this.memoryLimit = memoryLimit;
+    this.offsets = new int[rules.length + 1];
+    for (int rule = 0; rule < rules.length; rule++) {
+      offsets[rule + 1] = offsets[rule] + rules[rule].stateCount();
+    }
+    this.ruleOf = new int[stateCount()];
+    this.acceptOf = new int[stateCount()];
+    Arrays.fill(acceptOf, -1);
+    for (int rule = 0; rule < rules.length; rule++) {
+      Arrays.fill(ruleOf, offsets[rule], offsets[rule + 1], rule);
+      acceptOf[offsets[rule] + rules[rule].acceptState()] = rule;
+    }
+    final DfaScratch scratch = new DfaScratch(stateCount());
+    scratch.begin();
+    for (int rule = 0; rule < rules.length; rule++) {
+      if (!rules[rule].startAnchored()) {
+        addClosure(scratch, rule, 0);
+      }
+    }
+    scratch.sort();
+    this.floating = scratch.members();
+    scratch.begin();
+    for (int rule = 0; rule < rules.length; rule++) {
+      addClosure(scratch, rule, 0);
+    }
+    scratch.sort();
+    this.start = intern(scratch, true);
+  }
+
+  int stateCount() {
+    return offsets[rules.length];
+  }
+
+  /**
+   * Finds the rules with a match in the text, the scan stops once all the rules not found yet are found.
+   *
+   * @param matched the rules already found, the ones found by the scan are set
+   * @param stopAtFirst true to stop at the first rule found
+   * @return the number of rules found by the scan
+   */
+  int scan(CharSequence text, boolean[] matched, boolean stopAtFirst) {
+    int remaining = 0;
+    for (boolean found : matched) {
+      remaining += found ? 0 : 1;
+    }
+    DfaScratch scratch = null;
+    State state = start;
+    // the NFA states once the DFA is out of memory
+    int[] current = null;
+    int size = 0;
+    int found = 0;
+    for (int i = 0; ; i++) {
+      final boolean atEnd = i == text.length();
+      if (state != null) {
+        found += mark(state.accepting, matched);
+        if (atEnd) {
+          found += mark(state.acceptingAtEnd, matched);
+        }
+      } else {
+        found += mark(current, size, atEnd, matched);
+      }
+      if (atEnd || found == remaining || (stopAtFirst && found > 0)) {
+        return found;
+      }
+      if (state != null) {
+        if (state.isDead()) {
+          return found;
+        }
+        final char character = text.charAt(i);
+        State next = character < CACHED_CHARACTERS ? state.next.get(character) : null;
+        if (next == null) {
+          if (scratch == null) {
+            scratch = new DfaScratch(stateCount());
+          }
+          next = next(state, character, scratch);
+        }
+        if (next == null) {
+          current = new int[stateCount()];
+          size = scratch.copyTo(current);
+        }
+        state = next;
+      } else {
+        if (size == 0) {
+          return found;
+        }
+        step(current, size, text.charAt(i), scratch);
+        size = scratch.copyTo(current);
+      }
+    }
+  }
+
+  /**
+   * @return the state after the character, which is not cached, null if it is new and there is no memory
+   *         left for it, the states reached are then in the scratch
+   */
+  private State next(State state, char character, DfaScratch scratch) {
+    step(state.members, state.members.length, character, scratch);
+    final State next = intern(scratch, false);
+    if (next != null && character < CACHED_CHARACTERS) {
+      state.next.compareAndSet(character, null, next);
+    }
+    return next;
+  }
+
+  /**
+   * puts the states reached from the given ones on the character, and the floating start states,
+   * into the scratch, in increasing order
+   */
+  private void step(int[] members, int size, char character, DfaScratch scratch) {
+    scratch.begin();
+    for (int i = 0; i < size; i++) {
+      final int member = members[i];
+      final int rule = ruleOf[member];
+      final NfaProgram program = rules[rule];
+      final int state = member - offsets[rule];
+      if (state != program.acceptState() && program.tokens()[state].matches(character)) {
+        addClosure(scratch, rule, state + 1);
+      }
+    }
+    for (int v : floating) {
+      scratch.add(v);
+    }
+    scratch.sort();
+  }
+
+  private void addClosure(DfaScratch scratch, int rule, int state) {
+    for (int v : rules[rule].closure(state)) {
+      scratch.add(offsets[rule] + v);
+    }
+  }
+
+  private static int mark(int[] found, boolean[] matched) {
+    int marked = 0;
+    for (int rule : found) {
+      if (!matched[rule]) {
+        matched[rule] = true;
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  /**
+   * the same for NFA states, looking at every one of them
+   */
+  private int mark(int[] members, int size, boolean atEnd, boolean[] matched) {
+    int marked = 0;
+    for (int i = 0; i < size; i++) {
+      final int rule = acceptOf[members[i]];
+      if (rule >= 0 && !matched[rule] && (atEnd || !rules[rule].endAnchored())) {
+        matched[rule] = true;
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  private State intern(DfaScratch scratch, boolean force) {
+    State state = states.get(scratch.key());
+    if (state != null) {
+      return state;
+    }
+    int accepting = 0;
+    int acceptingAtEnd = 0;
+    for (int i = 0; i < scratch.size(); i++) {
+      final int rule = acceptOf[scratch.get(i)];
+      if (rule >= 0) {
+        if (rules[rule].endAnchored()) {
+          acceptingAtEnd++;
+        } else {
+          accepting++;
+        }
+      }
+    }
+    // and the two arrays of the rules found
+    final long size = DfaKey.stateBytes(scratch.size(), CACHED_CHARACTERS) + 32 + 4L * (accepting + acceptingAtEnd);
+    if (memoryUsed.addAndGet(size) > memoryLimit && !force) {
+      memoryUsed.addAndGet(-size);
+      return null;
+    }
+    final int[] members = scratch.members();
+    state = new State(members, new int[accepting], new int[acceptingAtEnd]);
+    accepting = 0;
+    acceptingAtEnd = 0;
+    for (int member : members) {
+      final int rule = acceptOf[member];
+      if (rule >= 0) {
+        if (rules[rule].endAnchored()) {
+          state.acceptingAtEnd[acceptingAtEnd++] = rule;
+        } else {
+          state.accepting[accepting++] = rule;
+        }
+      }
+    }
+    final State raced = states.putIfAbsent(DfaKey.of(members), state);
+    if (raced != null) {
+      memoryUsed.addAndGet(-size);
+      return raced;
+    }
+    return state;
+  }
+
+  private static final class State {
+
+    private final int[] members;
+    /**
+     * the rules found in this state, and the ones found only when the text ends here
+     */
+    private final int[] accepting;
+    private final int[] acceptingAtEnd;
+    private final AtomicReferenceArray<State> next = new AtomicReferenceArray<State>(CACHED_CHARACTERS);
+
+    private State(int[] members, int[] accepting, int[] acceptingAtEnd) {
+      this.members = members;
+      this.accepting = accepting;
+      this.acceptingAtEnd = acceptingAtEnd;
+    }
+
+    private boolean isDead() {
+      return members.length == 0;
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.jetbrains.regexp;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Produces the pieces of a text between the matches of a pattern, one match ahead of the caller.
+ * <p>
+ *   The pieces are the ones String.split returns: a match of no characters at the very beginning
+ *   does not give a leading empty piece, and empty pieces at the end are dropped. An empty piece is
+ *   therefore only known to be wanted when a piece that is not empty follows it, so empty pieces are
+ *   counted and handed out when that happens. Each piece is a subSequence of the text.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#split(CharSequence)
+ */
+final class SplitIterator implements Iterator<CharSequence> {
+
+  private final NfaScanner scanner;
+  private final CharSequence text;
+  private int pieceStart = 0;
+  private int searchFrom = 0;
+  private boolean matched = false;
+  private boolean done = false;
+  private int pendingEmpty = 0;
+  private CharSequence nextPiece = null;
+
+  SplitIterator(NfaScanner scanner, CharSequence text) {
+    this.scanner = scanner;
+    this.text = text;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (pendingEmpty > 0 && nextPiece != null) {
+      return true;
+    }
+    while (nextPiece == null && !done) {
+      final CharSequence piece = nextRawPiece();
+      if (piece == null) {
+        done = true;
+      } else if (piece.length() == 0 && matched) {
+        // only with no match at all is an empty piece handed out right away, as the whole text
+        pendingEmpty++;
+      } else {
+        nextPiece = piece;
+      }
+    }
+    return nextPiece != null;
+  }
+
+  @Override
+  public CharSequence next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (pendingEmpty > 0) {
+      pendingEmpty--;
+      return text.subSequence(0, 0);
+    }
+    final CharSequence piece = nextPiece;
+    nextPiece = null;
+    return piece;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the text up to the next match, or after the last match, null when the text is used up
+   */
+  private CharSequence nextRawPiece() {
+    while (searchFrom <= text.length() && scanner.find(text, 0, searchFrom, text.length())) {
+      final int start = scanner.matchStart();
+      final int end = scanner.matchEnd();
+      searchFrom = end > start ? end : end + 1;
+      if (start == 0 && end == 0) {
+        continue;
+      }
+      final CharSequence piece = text.subSequence(pieceStart, start);
+      pieceStart = end;
+      matched = true;
+      return piece;
+    }
+    if (pieceStart > text.length()) {
+      return null;
+    }
+    final CharSequence tail = text.subSequence(pieceStart, text.length());
+    pieceStart = text.length() + 1;
+    return tail;
+  }
+
+}
@@ -41,7 +41,7 @@ final class State {
   public State(int acceptState, int nfaState, int start, int end) {
     this.acceptState = acceptState;
     this.nfaState = nfaState;
-    this.start = 0;
+    this.start = start;
     this.end = end;
   }
 
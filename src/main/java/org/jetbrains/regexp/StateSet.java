@@ -0,0 +1,82 @@
+package org.jetbrains.regexp;
+
+/**
+ * A set of automaton states that remembers, for every state, the leftmost text position
+ * a partial match reaching that state started at.
+ * <p>
+ *   Two partial matches in the same state accept exactly the same continuations, so only the one
+ *   that started first is worth keeping. Membership, insertion and clearing are constant time and
+ *   the set never allocates after construction.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see <a href="http://research.swtch.com/sparse">sparse sets</a>
+ */
+final class StateSet {
+
+  private final int[] dense;
+  private final int[] sparse;
+  private final int[] starts;
+  private int size = 0;
+
+  StateSet(int capacity) {
+    this.dense = new int[capacity];
+    this.sparse = new int[capacity];
+    this.starts = new int[capacity];
+  }
+
+  boolean contains(int state) {
+    final int index = sparse[state];
+    return index < size && dense[index] == state;
+  }
+
+  /**
+   * adds the state, or moves its start to the left if it is already in the set
+   */
+  void add(int state, int start) {
+    if (contains(state)) {
+      if (start < starts[state]) {
+        starts[state] = start;
+      }
+      return;
+    }
+    dense[size] = state;
+    sparse[state] = size++;
+    starts[state] = start;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int get(int index) {
+    return dense[index];
+  }
+
+  int startOf(int state) {
+    return starts[state];
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * drops the partial matches that started to the right of the given position
+   */
+  void removeStartingAfter(int start) {
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      final int state = dense[i];
+      if (starts[state] <= start) {
+        dense[kept] = state;
+        sparse[state] = kept++;
+      }
+    }
+    size = kept;
+  }
+
+}
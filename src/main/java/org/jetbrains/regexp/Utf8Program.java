@@ -0,0 +1,407 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.regexp.parser.LanguageSymbols;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingPair;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The token program of a pattern compiled to read UTF-8 encoded bytes instead of characters.
+ * <p>
+ *   Every token that consumes a character is replaced by a small tree of byte range transitions
+ *   that accepts exactly the UTF-8 encodings of the characters the token matches, for example [a-z]
+ *   is a single transition on 0x61-0x7a while . is a tree of the 1 to 4 byte encodings.
+ *   Token states keep their index, so the epsilon closures of the pattern are used as they are,
+ *   the states inside the byte trees get the indices after the accept state.
+ * <p>
+ *   Tokens are evaluated on the code points of the basic multilingual plane. A code point above it
+ *   is a single 4 byte sequence here, and it is accepted by the tokens that accept any surrogate,
+ *   like . and negated sets, and by the symbol \x{h...h} of that code point. Bytes that are not valid
+ *   UTF-8 never match.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.ByteMatcher
+ */
+final class Utf8Program {
+
+  private static final int MAX_CODE_POINT = 0x10FFFF;
+
+  private final int acceptState;
+  private final int stateCount;
+  private final NfaProgram nfaProgram;
+  private final int[] transitionOffsets;
+  private final int[] low;
+  private final int[] high;
+  private final int[] targets;
+
+  Utf8Program(NfaProgram nfaProgram) {
+    final Token[] tokens = nfaProgram.tokens();
+    this.acceptState = nfaProgram.acceptState();
+    this.nfaProgram = nfaProgram;
+    List<List<int[]>> transitions = new ArrayList<List<int[]>>();
+    for (int v = 0; v <= acceptState; v++) {
+      transitions.add(new ArrayList<int[]>());
+    }
+    for (int v = 0; v < tokens.length; v++) {
+      List<int[]> sequences = new ArrayList<int[]>();
+      for (int[] range : codePointRanges(tokens[v])) {
+        addSequences(range[0], range[1], sequences);
+      }
+      for (int[] sequence : sequences) {
+        addSequence(transitions, v, sequence);
+      }
+    }
+    this.stateCount = transitions.size();
+    this.transitionOffsets = new int[stateCount + 1];
+    int count = 0;
+    for (int s = 0; s < stateCount; s++) {
+      transitionOffsets[s] = count;
+      count += transitions.get(s).size();
+    }
+    transitionOffsets[stateCount] = count;
+    this.low = new int[count];
+    this.high = new int[count];
+    this.targets = new int[count];
+    int t = 0;
+    for (List<int[]> fromState : transitions) {
+      for (int[] transition : fromState) {
+        low[t] = transition[0];
+        high[t] = transition[1];
+        targets[t++] = transition[2];
+      }
+    }
+  }
+
+  int stateCount() {
+    return stateCount;
+  }
+
+  int acceptState() {
+    return acceptState;
+  }
+
+  boolean isTokenState(int state) {
+    return state <= acceptState;
+  }
+
+  int firstTransition(int state) {
+    return transitionOffsets[state];
+  }
+
+  int lastTransition(int state) {
+    return transitionOffsets[state + 1];
+  }
+
+  boolean accepts(int transition, int unsignedByte) {
+    return low[transition] <= unsignedByte && unsignedByte <= high[transition];
+  }
+
+  int target(int transition) {
+    return targets[transition];
+  }
+
+  /**
+   * @return true if a character, and so a match, may begin at this byte
+   */
+  static boolean isBoundary(byte b) {
+    return (b & 0xC0) != 0x80;
+  }
+
+  int[] closure(int tokenState) {
+    return nfaProgram.closure(tokenState);
+  }
+
+  boolean startAnchored() {
+    return nfaProgram.startAnchored();
+  }
+
+  boolean endAnchored() {
+    return nfaProgram.endAnchored();
+  }
+
+  /**
+   * @return the most bytes a match can have, four per character, -1 if there is no limit
+   */
+  int maxLength() {
+    return nfaProgram.maxLength() < 0 ? -1 : 4 * nfaProgram.maxLength();
+  }
+
+  /**
+   * @return a rough count of the bytes of the byte level transitions
+   */
+  long retainedBytes() {
+    return 16 + 4 * 7 + 16 + 4L * transitionOffsets.length + 3 * (16 + 4L * targets.length);
+  }
+
+  private void addSequence(List<List<int[]>> transitions, int tokenState, int[] sequence) {
+    int state = tokenState;
+    final int length = sequence.length / 2;
+    for (int i = 0; i < length; i++) {
+      final int lo = sequence[2 * i];
+      final int hi = sequence[2 * i + 1];
+      final List<int[]> fromState = transitions.get(state);
+      if (i == length - 1) {
+        fromState.add(new int[] {lo, hi, tokenState + 1});
+        return;
+      }
+      int next = -1;
+      for (int[] transition : fromState) {
+        if (transition[0] == lo && transition[1] == hi && transition[2] > acceptState) {
+          next = transition[2];
+          break;
+        }
+      }
+      if (next == -1) {
+        next = transitions.size();
+        transitions.add(new ArrayList<int[]>());
+        fromState.add(new int[] {lo, hi, next});
+      }
+      state = next;
+    }
+  }
+
+  /**
+   * @return the code points the token matches as sorted, disjoint [from, to] ranges
+   */
+  private static List<int[]> codePointRanges(Token token) {
+    List<int[]> ranges = new ArrayList<int[]>();
+    if (token == LanguageSymbols.ANY) {
+      ranges.add(new int[] {0, Character.MIN_SURROGATE - 1});
+      ranges.add(new int[] {Character.MAX_SURROGATE + 1, MAX_CODE_POINT});
+    } else if (token instanceof CharacterToken) {
+      final char value = ((CharacterToken) token).getValue();
+      if (!isSurrogate(value)) {
+        ranges.add(new int[] {value, value});
+      }
+    } else if (!(token instanceof OperatorToken)) {
+      List<int[]> chars = charRanges(token);
+      if (chars == null) {
+        chars = scannedCharRanges(token);
+      }
+      for (int[] range : chars) {
+        if (range[0] < Character.MIN_SURROGATE) {
+          ranges.add(new int[] {range[0], Math.min(range[1], Character.MIN_SURROGATE - 1)});
+        }
+        if (range[1] > Character.MAX_SURROGATE) {
+          ranges.add(new int[] {Math.max(range[0], Character.MAX_SURROGATE + 1), range[1]});
+        }
+      }
+      if (token.matches(Character.MIN_HIGH_SURROGATE) && token.matches(Character.MIN_LOW_SURROGATE)) {
+        ranges.add(new int[] {Character.MIN_SUPPLEMENTARY_CODE_POINT, MAX_CODE_POINT});
+      } else {
+        final TreeSet<Integer> codePoints = new TreeSet<Integer>();
+        addCodePointSymbols(token, codePoints);
+        for (int codePoint : codePoints) {
+          ranges.add(new int[] {codePoint, codePoint});
+        }
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * @return the characters the class matches as sorted, disjoint [from, to] ranges read off its bounds,
+   * or null if a member is only known through {@link Token#matches}
+   */
+  private static List<int[]> charRanges(Token token) {
+    final List<int[]> ranges = new ArrayList<int[]>();
+    if (token instanceof CharacterToken) {
+      final char value = ((CharacterToken) token).getValue();
+      ranges.add(new int[] {value, value});
+    } else if (token instanceof SymbolToken) {
+      final int value = ((SymbolToken) token).getValue();
+      if (value >= 0 && value <= Character.MAX_VALUE) {
+        ranges.add(new int[] {value, value});
+      }
+    } else if (token instanceof MatchingRange) {
+      final char from = ((MatchingRange) token).getFrom().getValue();
+      final char to = ((MatchingRange) token).getTo().getValue();
+      if (from <= to) {
+        ranges.add(new int[] {from, to});
+      }
+    } else if (token instanceof MatchingSet) {
+      final MatchingSet set = (MatchingSet) token;
+      for (Token member : set.getTokens()) {
+        final List<int[]> memberRanges = charRanges(member);
+        if (memberRanges == null) {
+          return null;
+        }
+        ranges.addAll(memberRanges);
+      }
+      final List<int[]> union = union(ranges);
+      return set.isNegative() ? complement(union) : union;
+    } else if (token instanceof MatchingPair) {
+      final List<int[]> first = charRanges(((MatchingPair) token).getFirst());
+      final List<int[]> second = first == null ? null : charRanges(((MatchingPair) token).getSecond());
+      return second == null ? null : intersection(first, second);
+    } else {
+      return null;
+    }
+    return ranges;
+  }
+
+  /**
+   * the fallback for a class that is not made of the usual tokens, asks it about every character
+   */
+  private static List<int[]> scannedCharRanges(Token token) {
+    final List<int[]> ranges = new ArrayList<int[]>();
+    int start = -1;
+    for (int c = 0; c <= Character.MAX_VALUE; c++) {
+      final boolean matches = token.matches((char) c);
+      if (matches && start == -1) {
+        start = c;
+      } else if (!matches && start != -1) {
+        ranges.add(new int[] {start, c - 1});
+        start = -1;
+      }
+    }
+    if (start != -1) {
+      ranges.add(new int[] {start, Character.MAX_VALUE});
+    }
+    return ranges;
+  }
+
+  private static List<int[]> union(List<int[]> ranges) {
+    Collections.sort(ranges, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        return a[0] - b[0];
+      }
+    });
+    final List<int[]> union = new ArrayList<int[]>();
+    for (int[] range : ranges) {
+      final int[] last = union.isEmpty() ? null : union.get(union.size() - 1);
+      if (last != null && range[0] <= last[1] + 1) {
+        last[1] = Math.max(last[1], range[1]);
+      } else {
+        union.add(new int[] {range[0], range[1]});
+      }
+    }
+    return union;
+  }
+
+  private static List<int[]> complement(List<int[]> ranges) {
+    final List<int[]> complement = new ArrayList<int[]>();
+    int next = 0;
+    for (int[] range : ranges) {
+      if (range[0] > next) {
+        complement.add(new int[] {next, range[0] - 1});
+      }
+      next = range[1] + 1;
+    }
+    if (next <= Character.MAX_VALUE) {
+      complement.add(new int[] {next, Character.MAX_VALUE});
+    }
+    return complement;
+  }
+
+  private static List<int[]> intersection(List<int[]> first, List<int[]> second) {
+    final List<int[]> intersection = new ArrayList<int[]>();
+    int i = 0;
+    int j = 0;
+    while (i < first.size() && j < second.size()) {
+      final int from = Math.max(first.get(i)[0], second.get(j)[0]);
+      final int to = Math.min(first.get(i)[1], second.get(j)[1]);
+      if (from <= to) {
+        intersection.add(new int[] {from, to});
+      }
+      if (first.get(i)[1] < second.get(j)[1]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return intersection;
+  }
+
+  /**
+   * adds the code points above the basic plane the optimizer merged into a set that is not negated
+   */
+  private static void addCodePointSymbols(Token token, TreeSet<Integer> codePoints) {
+    if (token instanceof MatchingSet && !((MatchingSet) token).isNegative()) {
+      for (Token member : ((MatchingSet) token).getTokens()) {
+        addCodePointSymbols(member, codePoints);
+      }
+    } else if (token instanceof SymbolToken) {
+      final int value = ((SymbolToken) token).getValue();
+      if (value >= Character.MIN_SUPPLEMENTARY_CODE_POINT && value <= MAX_CODE_POINT) {
+        codePoints.add(value);
+      }
+    }
+  }
+
+  /**
+   * splits a range of code points into ranges whose UTF-8 encodings differ in each byte independently,
+   * each is then written as a sequence of byte ranges {lo1, hi1, lo2, hi2, ...}.
+   */
+  private static void addSequences(int from, int to, List<int[]> sequences) {
+    final int[] limits = {0x7F, 0x7FF, 0xFFFF};
+    for (int limit : limits) {
+      if (from <= limit && to > limit) {
+        addSequences(from, limit, sequences);
+        addSequences(limit + 1, to, sequences);
+        return;
+      }
+    }
+    final int length = encodedLength(from);
+    for (int i = 1; i < length; i++) {
+      final int mask = (1 << (6 * i)) - 1;
+      if ((from & ~mask) != (to & ~mask)) {
+        if ((from & mask) != 0) {
+          addSequences(from, from | mask, sequences);
+          addSequences((from | mask) + 1, to, sequences);
+          return;
+        }
+        if ((to & mask) != mask) {
+          addSequences(from, (to & ~mask) - 1, sequences);
+          addSequences(to & ~mask, to, sequences);
+          return;
+        }
+      }
+    }
+    final int[] lo = encode(from);
+    final int[] hi = encode(to);
+    int[] sequence = new int[2 * length];
+    for (int i = 0; i < length; i++) {
+      sequence[2 * i] = lo[i];
+      sequence[2 * i + 1] = hi[i];
+    }
+    sequences.add(sequence);
+  }
+
+  private static boolean isSurrogate(int c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  private static int encodedLength(int codePoint) {
+    if (codePoint <= 0x7F) return 1;
+    if (codePoint <= 0x7FF) return 2;
+    if (codePoint <= 0xFFFF) return 3;
+    return 4;
+  }
+
+  private static int[] encode(int codePoint) {
+    switch (encodedLength(codePoint)) {
+      case 1:
+        return new int[] {codePoint};
+      case 2:
+        return new int[] {0xC0 | (codePoint >> 6), 0x80 | (codePoint & 0x3F)};
+      case 3:
+        return new int[] {0xE0 | (codePoint >> 12), 0x80 | ((codePoint >> 6) & 0x3F), 0x80 | (codePoint & 0x3F)};
+      default:
+        return new int[] {0xF0 | (codePoint >> 18), 0x80 | ((codePoint >> 12) & 0x3F),
+            0x80 | ((codePoint >> 6) & 0x3F), 0x80 | (codePoint & 0x3F)};
+    }
+  }
+
+}
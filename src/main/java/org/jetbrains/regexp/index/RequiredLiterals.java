@@ -0,0 +1,186 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.parser.LanguageSymbols;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The strings every match of a pattern contains: the runs of plain characters of its main sequence.
+ * <p>
+ *   Groups without alternatives and without a quantifier are part of the sequence, any other group,
+ *   class or optional character ends a run. A character repeated with + ends a run and starts the next
+ *   one, ab+c contains ab and bc. A pattern with alternatives at the top has no required string.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.index.SuffixArrayIndex
+ * @see org.jetbrains.regexp.PatternPlan
+ */
+public final class RequiredLiterals {
+
+  private final Token[] tokens;
+  private final List<String> literals = new ArrayList<String>();
+  private final List<Integer> maxPrefixLengths = new ArrayList<Integer>();
+  private final StringBuilder run = new StringBuilder();
+  /**
+   * the index of the token the run starts at
+   */
+  private int runStart = 0;
+  /**
+   * the tokens counted by maxLength so far, and the most characters they read
+   */
+  private int counted = 0;
+  private int countedLength = 0;
+  private int position = 0;
+
+  public RequiredLiterals(Token[] tokens) {
+    this.tokens = tokens;
+    if (tokens.length > 0 && tokens[0] == LanguageSymbols.OPEN_PAREN && !hasAlternatives(1)) {
+      position = 1;
+      sequence();
+      endRun();
+    }
+  }
+
+  public List<String> getLiterals() {
+    return literals;
+  }
+
+  /**
+   * The tokens before a literal are read at most once each when none of them repeats, a group with
+   * alternatives is counted as all of them.
+   *
+   * @return for every literal, the most characters a match can have before it, -1 if there is no limit
+   */
+  public List<Integer> getMaxPrefixLengths() {
+    return maxPrefixLengths;
+  }
+
+  /**
+   * reads a sequence up to and including the closing parenthesis of its group
+   */
+  private void sequence() {
+    while (position < tokens.length) {
+      final Token token = tokens[position++];
+      if (token == LanguageSymbols.CLOSE_PAREN) {
+        return;
+      }
+      if (token == LanguageSymbols.BEGIN || token == LanguageSymbols.END) {
+        continue;
+      }
+      if (token == LanguageSymbols.OPEN_PAREN) {
+        final int close = closingParen(position);
+        if (!isQuantifier(close + 1) && !hasAlternatives(position)) {
+          sequence();
+        } else {
+          endRun();
+          position = close + 1;
+          skipQuantifiers();
+        }
+        continue;
+      }
+      if (token instanceof CharacterToken) {
+        final char character = ((CharacterToken) token).getValue();
+        if (!isQuantifier(position)) {
+          append(character, position - 1);
+        } else if (tokens[position] == LanguageSymbols.PLUS && !isQuantifier(position + 1)) {
+          position++;
+          append(character, position - 2);
+          endRun();
+          // the run after the loop, which it starts with
+          append(character, position);
+        } else {
+          endRun();
+          skipQuantifiers();
+        }
+        continue;
+      }
+      endRun();
+      skipQuantifiers();
+    }
+  }
+
+  private void append(char character, int token) {
+    if (run.length() == 0) {
+      runStart = token;
+    }
+    run.append(character);
+  }
+
+  private void endRun() {
+    if (run.length() > 0) {
+      literals.add(run.toString());
+      maxPrefixLengths.add(maxLength(runStart));
+      run.setLength(0);
+    }
+  }
+
+  /**
+   * the runs start further and further, so the tokens are counted once for all of them
+   *
+   * @return the most characters the tokens before the index read, -1 if one of them repeats
+   */
+  private int maxLength(int to) {
+    while (counted < to && countedLength >= 0) {
+      final Token token = tokens[counted++];
+      if (token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS) {
+        countedLength = -1;
+      } else if (token == LanguageSymbols.ANY || !(token instanceof OperatorToken)) {
+        countedLength++;
+      }
+    }
+    return countedLength;
+  }
+
+  private void skipQuantifiers() {
+    while (isQuantifier(position)) {
+      position++;
+    }
+  }
+
+  private boolean isQuantifier(int index) {
+    if (index >= tokens.length) {
+      return false;
+    }
+    final Token token = tokens[index];
+    return token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS || token == LanguageSymbols.OPTIONAL;
+  }
+
+  /**
+   * @param from the index after an opening parenthesis
+   * @return the index of the parenthesis closing it
+   */
+  private int closingParen(int from) {
+    int depth = 1;
+    for (int i = from; i < tokens.length; i++) {
+      if (tokens[i] == LanguageSymbols.OPEN_PAREN) {
+        depth++;
+      } else if (tokens[i] == LanguageSymbols.CLOSE_PAREN && --depth == 0) {
+        return i;
+      }
+    }
+    return tokens.length;
+  }
+
+  /**
+   * @param from the index after an opening parenthesis
+   * @return true if the group has an alternative of its own, not of a nested group
+   */
+  private boolean hasAlternatives(int from) {
+    int depth = 1;
+    for (int i = from; i < tokens.length; i++) {
+      if (tokens[i] == LanguageSymbols.OPEN_PAREN) {
+        depth++;
+      } else if (tokens[i] == LanguageSymbols.CLOSE_PAREN && --depth == 0) {
+        return false;
+      } else if (tokens[i] == LanguageSymbols.OR && depth == 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,339 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.MatchCallback;
+import org.jetbrains.regexp.Matcher;
+import org.jetbrains.regexp.Pattern;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sorted suffixes of one large text, built once, to run many patterns over the text without
+ * scanning all of it for each.
+ * <p>
+ *   The positions a string occurs at are a range of the suffix array, found by binary search in time
+ *   growing with the log of the text. A pattern is first checked against its trigram query, a text lacking
+ *   the trigrams has no match and is not scanned. Then, when the pattern has a string every match contains
+ *   and a bounded length, only the regions around the occurrences of its rarest such string are run through
+ *   the matcher, each as long as a match can reach on either side. When only the part of the match before
+ *   the string is bounded, the matcher starts that far before each occurrence and runs forward from there.
+ *   The other patterns are run over the whole text. The matches are the ones a scan of the whole text finds,
+ *   in the same order.
+ * <p>
+ *   The suffixes are sorted by doubling the length of the prefixes compared, with counting sorts,
+ *   in time n log n and with three ints a character. The text is held, not copied, and must not change.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.index.RequiredLiterals
+ * @see org.jetbrains.regexp.index.TrigramAnalyzer
+ */
+public final class SuffixArrayIndex {
+
+  private final CharSequence text;
+  private final int[] suffixes;
+
+  public SuffixArrayIndex(CharSequence text) {
+    this.text = text;
+    this.suffixes = sort(text);
+  }
+
+  public CharSequence text() {
+    return text;
+  }
+
+  /**
+   * @return the number of times the string occurs in the text, overlapping occurrences included
+   */
+  public int count(CharSequence string) {
+    return upperBound(string) - lowerBound(string);
+  }
+
+  /**
+   * @return the positions the string occurs at, in increasing order
+   */
+  public int[] occurrences(CharSequence string) {
+    final int from = lowerBound(string);
+    final int[] positions = Arrays.copyOfRange(suffixes, from, Math.max(from, upperBound(string)));
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  /**
+   * @return true if the text has the trigrams the query asks for
+   */
+  public boolean contains(TrigramQuery query) {
+    switch (query.kind()) {
+      case ALL:
+        return true;
+      case NONE:
+        return false;
+      case TRIGRAM:
+        return count(query.trigram()) > 0;
+      case AND:
+        for (TrigramQuery operand : query.children()) {
+          if (!contains(operand)) {
+            return false;
+          }
+        }
+        return true;
+      default:
+        for (TrigramQuery operand : query.children()) {
+          if (contains(operand)) {
+            return true;
+          }
+        }
+        return false;
+    }
+  }
+
+  /**
+   * Reports the matches Matcher.find would find in the text one after the other, looking only where they can be.
+   *
+   * @return the number of matches reported, up to and including the one the callback stopped at
+   */
+  public int forEachMatch(Pattern pattern, MatchCallback callback) {
+    if (!contains(new TrigramAnalyzer(pattern).getQuery())) {
+      return 0;
+    }
+    final Matcher matcher = pattern.matcher(text);
+    final RequiredLiterals required = new RequiredLiterals(pattern.tokens());
+    final int maxLength = pattern.maxLength();
+    final int rarest = rarest(required, maxLength < 0);
+    if (rarest < 0 || pattern.startAnchored() || pattern.endAnchored()) {
+      return matcher.forEachMatch(callback);
+    }
+    final String literal = required.getLiterals().get(rarest);
+    if (maxLength < 0) {
+      return forEachMatchFrom(matcher, literal, required.getMaxPrefixLengths().get(rarest), callback);
+    }
+    final StoppingCallback regionCallback = new StoppingCallback(callback);
+    final int[] positions = occurrences(literal);
+    int count = 0;
+    for (int i = 0; i < positions.length && !regionCallback.stopped; ) {
+      final int start = Math.max(0, positions[i] + literal.length() - maxLength);
+      int end = Math.min(text.length(), positions[i] + maxLength);
+      // the windows that overlap make one region
+      while (++i < positions.length && positions[i] + literal.length() - maxLength <= end) {
+        end = Math.min(text.length(), positions[i] + maxLength);
+      }
+      count += matcher.region(start, end).forEachMatch(regionCallback);
+    }
+    return count;
+  }
+
+  /**
+   * For a pattern whose matches are not bounded after the literal. A match starts at most the longest prefix
+   * before an occurrence and no later than it, the matcher starts looking there and runs as far as the match
+   * goes, and the text between the windows is skipped.
+   */
+  private int forEachMatchFrom(Matcher matcher, String literal, int maxPrefixLength, MatchCallback callback) {
+    final int[] positions = occurrences(literal);
+    int count = 0;
+    // where the next match can start, and where the matcher goes on looking from
+    int from = 0;
+    int matcherFrom = -1;
+    for (int i = 0; i < positions.length; ) {
+      if (positions[i] < from) {
+        i++;
+        continue;
+      }
+      final int start = Math.max(from, positions[i] - maxPrefixLength);
+      if (start != matcherFrom) {
+        matcher.region(start, text.length());
+        matcherFrom = start;
+      }
+      if (!matcher.findStartingBy(positions[i])) {
+        from = positions[i] + 1;
+        i++;
+        continue;
+      }
+      count++;
+      if (!callback.onMatch(matcher.start(), matcher.end())) {
+        break;
+      }
+      from = matcher.end() > matcher.start() ? matcher.end() : matcher.end() + 1;
+      matcherFrom = from;
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of matches Matcher.find would find in the text
+   */
+  public int countMatches(Pattern pattern) {
+    return forEachMatch(pattern, new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        return true;
+      }
+    });
+  }
+
+  /**
+   * @return the positions of the suffixes in increasing order
+   */
+  int[] suffixes() {
+    return suffixes;
+  }
+
+  /**
+   * @param boundedPrefix true to only look at the literals with a bounded part of the match before them
+   * @return the index of the literal with the fewest occurrences, -1 if there is none
+   */
+  private int rarest(RequiredLiterals required, boolean boundedPrefix) {
+    final List<String> literals = required.getLiterals();
+    int rarest = -1;
+    int fewest = Integer.MAX_VALUE;
+    for (int i = 0; i < literals.size(); i++) {
+      if (boundedPrefix && required.getMaxPrefixLengths().get(i) < 0) {
+        continue;
+      }
+      final int count = count(literals.get(i));
+      if (count < fewest) {
+        fewest = count;
+        rarest = i;
+      }
+    }
+    return rarest;
+  }
+
+  /**
+   * @return the first rank whose suffix starts with the string or is greater
+   */
+  private int lowerBound(CharSequence string) {
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compare(suffixes[middle], string) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the first rank whose suffix is greater and does not start with the string
+   */
+  private int upperBound(CharSequence string) {
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compare(suffixes[middle], string) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return 0 if the suffix starts with the string, otherwise the order of the suffix and the string
+   */
+  private int compare(int suffix, CharSequence string) {
+    for (int i = 0; i < string.length(); i++) {
+      if (suffix + i == text.length()) {
+        return -1;
+      }
+      final int difference = text.charAt(suffix + i) - string.charAt(i);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sorts the suffixes by their first character, then by their first 2, 4, 8... characters, each round
+   * ordering the pairs of ranks of the previous one, until all the ranks differ.
+   */
+  private static int[] sort(CharSequence text) {
+    final int n = text.length();
+    final int[] suffixes = new int[n];
+    int[] rank = new int[n];
+    int[] next = new int[n];
+    int[] counts = new int[Math.max(n, Character.MAX_VALUE + 1) + 1];
+    for (int i = 0; i < n; i++) {
+      counts[text.charAt(i) + 1]++;
+    }
+    for (int c = 1; c < counts.length; c++) {
+      counts[c] += counts[c - 1];
+    }
+    for (int i = 0; i < n; i++) {
+      suffixes[counts[text.charAt(i)]++] = i;
+    }
+    int classes = 0;
+    for (int i = 0; i < n; i++) {
+      if (i > 0 && text.charAt(suffixes[i]) != text.charAt(suffixes[i - 1])) {
+        classes++;
+      }
+      rank[suffixes[i]] = classes;
+    }
+    classes++;
+    for (int k = 1; classes < n; k <<= 1) {
+      // by the second half: the suffixes without one first, then the others in the order of the previous round
+      int p = 0;
+      for (int i = n - k; i < n; i++) {
+        next[p++] = i;
+      }
+      for (int i = 0; i < n; i++) {
+        if (suffixes[i] >= k) {
+          next[p++] = suffixes[i] - k;
+        }
+      }
+      // then stably by the first half
+      Arrays.fill(counts, 0, classes + 1, 0);
+      for (int i = 0; i < n; i++) {
+        counts[rank[i] + 1]++;
+      }
+      for (int c = 1; c <= classes; c++) {
+        counts[c] += counts[c - 1];
+      }
+      for (int i = 0; i < n; i++) {
+        suffixes[counts[rank[next[i]]]++] = next[i];
+      }
+      next[suffixes[0]] = 0;
+      classes = 1;
+      for (int i = 1; i < n; i++) {
+        final int current = suffixes[i];
+        final int previous = suffixes[i - 1];
+        if (rank[current] != rank[previous] || secondRank(rank, current, k) != secondRank(rank, previous, k)) {
+          classes++;
+        }
+        next[current] = classes - 1;
+      }
+      final int[] swap = rank;
+      rank = next;
+      next = swap;
+    }
+    return suffixes;
+  }
+
+  private static int secondRank(int[] rank, int suffix, int k) {
+    return suffix + k < rank.length ? rank[suffix + k] : -1;
+  }
+
+  /**
+   * passes the matches on and remembers when the callback stops, so no other region is scanned
+   */
+  private static final class StoppingCallback implements MatchCallback {
+
+    private final MatchCallback callback;
+    private boolean stopped = false;
+
+    private StoppingCallback(MatchCallback callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public boolean onMatch(int start, int end) {
+      stopped = !callback.onMatch(start, end);
+      return !stopped;
+    }
+  }
+
+}
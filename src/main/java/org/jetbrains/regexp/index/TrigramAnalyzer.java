@@ -0,0 +1,319 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.Pattern;
+import org.jetbrains.regexp.parser.LanguageSymbols;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Turns the tokens of a compiled pattern into the query of the trigrams any text it matches in must contain.
+ * <p>
+ *   Every part of the pattern is described by what is known of the strings it matches: all of them when
+ *   they are few, the exact set, otherwise the few first and last characters they can start and end with,
+ *   and a query their texts satisfy. Going up the pattern, the parts of a sequence are joined, the trigrams
+ *   across the joint included, and the alternatives are united, until the exact sets grow too large and are
+ *   folded into the query. A small character class counts as its characters, a large one and the dot as any
+ *   character. Repeats are known to match their part once at least, or nothing.
+ * <p>
+ *   The query is never stricter than the pattern: a document it rejects can not contain a match.
+ *   The anchors are ignored, and a pattern that can match the empty string gets ALL.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.index.TrigramQuery
+ */
+public final class TrigramAnalyzer {
+
+  /**
+   * the most strings of an exact set
+   */
+  static final int MAX_EXACT = 16;
+
+  /**
+   * the most strings of a set of starts or ends
+   */
+  static final int MAX_SET = 32;
+
+  /**
+   * the most characters of a class that counts as its characters
+   */
+  static final int MAX_CLASS = 8;
+
+  /**
+   * the length of the starts and ends kept, one short of a trigram
+   */
+  private static final int EDGE = 2;
+
+  private static final Set<String> UNKNOWN_EDGE = Collections.singleton("");
+  private static final Info EMPTY = exact(Collections.singleton(""));
+  private static final Info ANY_CHARACTER = new Info(false, null, UNKNOWN_EDGE, UNKNOWN_EDGE, TrigramQuery.ALL);
+
+  private final Token[] tokens;
+  private int position = 0;
+  private final TrigramQuery query;
+
+  public TrigramAnalyzer(Pattern pattern) {
+    this(pattern.tokens());
+  }
+
+  TrigramAnalyzer(Token[] tokens) {
+    this.tokens = tokens;
+    Info info = null;
+    if (tokens.length > 0 && tokens[0] == LanguageSymbols.OPEN_PAREN) {
+      position = 1;
+      info = alternatives();
+    }
+    this.query = info != null && position == tokens.length ? fold(info).match : TrigramQuery.ALL;
+  }
+
+  public TrigramQuery getQuery() {
+    return query;
+  }
+
+  /**
+   * reads the alternatives of a group up to and including its closing parenthesis
+   *
+   * @return null for tokens the analysis does not know
+   */
+  private Info alternatives() {
+    Info result = null;
+    Info sequence = EMPTY;
+    while (position < tokens.length) {
+      final Token token = tokens[position++];
+      if (token == LanguageSymbols.CLOSE_PAREN) {
+        return result == null ? sequence : alternate(result, sequence);
+      }
+      if (token == LanguageSymbols.OR) {
+        result = result == null ? sequence : alternate(result, sequence);
+        sequence = EMPTY;
+        continue;
+      }
+      Info item = item(token);
+      if (item == null) {
+        return null;
+      }
+      while (position < tokens.length && isQuantifier(tokens[position])) {
+        final Token quantifier = tokens[position++];
+        if (quantifier == LanguageSymbols.OPTIONAL) {
+          item = optional(item);
+        } else if (quantifier == LanguageSymbols.PLUS) {
+          item = plus(item);
+        } else {
+          item = optional(plus(item));
+        }
+      }
+      sequence = concatenate(sequence, item);
+    }
+    return null;
+  }
+
+  private Info item(Token token) {
+    if (token == LanguageSymbols.OPEN_PAREN) {
+      return alternatives();
+    }
+    if (token == LanguageSymbols.BEGIN || token == LanguageSymbols.END) {
+      return EMPTY;
+    }
+    if (token == LanguageSymbols.ANY) {
+      return ANY_CHARACTER;
+    }
+    if (token instanceof OperatorToken) {
+      return null;
+    }
+    final Set<String> characters = characters(token);
+    return characters != null ? exact(characters) : ANY_CHARACTER;
+  }
+
+  /**
+   * @return the characters of a small class, null for a class too large or of symbols
+   */
+  private static Set<String> characters(Token token) {
+    if (token instanceof CharacterToken) {
+      return Collections.singleton(String.valueOf(((CharacterToken) token).getValue()));
+    }
+    if (token instanceof MatchingRange) {
+      final char from = ((MatchingRange) token).getFrom().getValue();
+      final char to = ((MatchingRange) token).getTo().getValue();
+      if (to - from >= MAX_CLASS) {
+        return null;
+      }
+      Set<String> characters = new TreeSet<String>();
+      for (char c = from; c <= to; c++) {
+        characters.add(String.valueOf(c));
+      }
+      return characters;
+    }
+    if (token instanceof MatchingSet && !((MatchingSet) token).isNegative()) {
+      Set<String> characters = new TreeSet<String>();
+      for (Token member : ((MatchingSet) token).getTokens()) {
+        final Set<String> memberCharacters = characters(member);
+        if (memberCharacters == null) {
+          return null;
+        }
+        characters.addAll(memberCharacters);
+        if (characters.size() > MAX_CLASS) {
+          return null;
+        }
+      }
+      return characters;
+    }
+    return null;
+  }
+
+  private static boolean isQuantifier(Token token) {
+    return token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS || token == LanguageSymbols.OPTIONAL;
+  }
+
+  private static Info exact(Set<String> strings) {
+    return new Info(strings.contains(""), strings, null, null, TrigramQuery.ALL);
+  }
+
+  /**
+   * @return the same strings described by their starts, ends and the query of the trigrams one of them holds
+   */
+  private static Info fold(Info info) {
+    if (info.exact == null) {
+      return info;
+    }
+    TrigramQuery match = TrigramQuery.NONE;
+    for (String string : info.exact) {
+      match = TrigramQuery.or(match, TrigramQuery.contains(string));
+    }
+    return new Info(info.emptyable, null, starts(info.exact), ends(info.exact), match);
+  }
+
+  private static Info concatenate(Info first, Info second) {
+    if (first.exact != null && second.exact != null
+        && first.exact.size() * second.exact.size() <= MAX_EXACT) {
+      Set<String> strings = new TreeSet<String>();
+      for (String prefix : first.exact) {
+        for (String suffix : second.exact) {
+          strings.add(prefix + suffix);
+        }
+      }
+      return exact(strings);
+    }
+    final Set<String> firstEnds = first.exact != null ? first.exact : first.suffix;
+    final Set<String> secondStarts = second.exact != null ? second.exact : second.prefix;
+    TrigramQuery match = TrigramQuery.and(fold(first).match, fold(second).match);
+    if (firstEnds.size() * secondStarts.size() <= MAX_SET) {
+      TrigramQuery joint = TrigramQuery.NONE;
+      for (String end : firstEnds) {
+        for (String start : secondStarts) {
+          joint = TrigramQuery.or(joint, TrigramQuery.contains(end + start));
+        }
+      }
+      match = TrigramQuery.and(match, joint);
+    }
+    final Set<String> prefix;
+    if (first.exact != null) {
+      prefix = starts(cross(first.exact, secondStarts));
+    } else {
+      prefix = first.emptyable ? union(first.prefix, starts(secondStarts)) : first.prefix;
+    }
+    final Set<String> suffix;
+    if (second.exact != null) {
+      suffix = ends(cross(firstEnds, second.exact));
+    } else {
+      suffix = second.emptyable ? union(ends(firstEnds), second.suffix) : second.suffix;
+    }
+    return new Info(first.emptyable && second.emptyable, null, prefix, suffix, match);
+  }
+
+  private static Info alternate(Info first, Info second) {
+    if (first.exact != null && second.exact != null) {
+      final Set<String> strings = union(first.exact, second.exact);
+      if (strings.size() <= MAX_EXACT) {
+        return exact(strings);
+      }
+    }
+    final Info foldedFirst = fold(first);
+    final Info foldedSecond = fold(second);
+    return new Info(first.emptyable || second.emptyable, null, union(foldedFirst.prefix, foldedSecond.prefix),
+        union(foldedFirst.suffix, foldedSecond.suffix), TrigramQuery.or(foldedFirst.match, foldedSecond.match));
+  }
+
+  private static Info optional(Info info) {
+    if (info.exact != null) {
+      final Set<String> strings = union(info.exact, Collections.singleton(""));
+      if (strings.size() <= MAX_EXACT) {
+        return exact(strings);
+      }
+    }
+    return new Info(true, null, UNKNOWN_EDGE, UNKNOWN_EDGE, TrigramQuery.ALL);
+  }
+
+  /**
+   * one or more times is known to match the part once, and to start and end like it
+   */
+  private static Info plus(Info info) {
+    final Info folded = fold(info);
+    return new Info(folded.emptyable, null, folded.prefix, folded.suffix, folded.match);
+  }
+
+  /**
+   * @return every pair of strings joined, up to the number of strings of a start set
+   */
+  private static Set<String> cross(Set<String> prefixes, Set<String> suffixes) {
+    if (prefixes.size() * suffixes.size() > MAX_SET * MAX_EXACT) {
+      return UNKNOWN_EDGE;
+    }
+    Set<String> strings = new TreeSet<String>();
+    for (String prefix : prefixes) {
+      for (String suffix : suffixes) {
+        strings.add(prefix + suffix);
+      }
+    }
+    return strings;
+  }
+
+  private static Set<String> union(Set<String> first, Set<String> second) {
+    Set<String> strings = new TreeSet<String>(first);
+    strings.addAll(second);
+    return strings.size() <= MAX_SET ? strings : UNKNOWN_EDGE;
+  }
+
+  private static Set<String> starts(Set<String> strings) {
+    Set<String> starts = new TreeSet<String>();
+    for (String string : strings) {
+      starts.add(string.substring(0, Math.min(EDGE, string.length())));
+    }
+    return starts.size() <= MAX_SET ? starts : UNKNOWN_EDGE;
+  }
+
+  private static Set<String> ends(Set<String> strings) {
+    Set<String> ends = new TreeSet<String>();
+    for (String string : strings) {
+      ends.add(string.substring(Math.max(0, string.length() - EDGE)));
+    }
+    return ends.size() <= MAX_SET ? ends : UNKNOWN_EDGE;
+  }
+
+  /**
+   * What is known of the strings a part of the pattern matches. When the exact set is known the starts and
+   * the ends are not used, and the query is ALL.
+   */
+  private static final class Info {
+
+    private final boolean emptyable;
+    private final Set<String> exact;
+    private final Set<String> prefix;
+    private final Set<String> suffix;
+    private final TrigramQuery match;
+
+    private Info(boolean emptyable, Set<String> exact, Set<String> prefix, Set<String> suffix, TrigramQuery match) {
+      this.emptyable = emptyable;
+      this.exact = exact;
+      this.prefix = prefix;
+      this.suffix = suffix;
+      this.match = match;
+    }
+  }
+
+}
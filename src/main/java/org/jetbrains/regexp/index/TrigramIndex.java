@@ -0,0 +1,359 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.Pattern;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The documents of a corpus containing each trigram, to search the corpus with patterns without
+ * scanning every document.
+ * <p>
+ *   A pattern is turned into a query of the trigrams its matches contain, the query picks the candidate
+ *   documents from the posting lists, and only those are run through the pattern. The candidates are
+ *   a superset of the documents with a match, the pattern decides.
+ * <p>
+ *   The index is one buffer: a header, the table of the trigrams in increasing order, each with where
+ *   its posting list starts and how many documents it has, and the posting lists. A list is the differences
+ *   between the increasing document ids, each in as few bytes as it needs, seven bits a byte. The buffer can
+ *   be written to a file and opened again, read into the heap or mapped, in which case the lists are
+ *   only read from the file when a query asks for them. An index holds at most 2 GB.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.index.TrigramAnalyzer
+ */
+public final class TrigramIndex {
+
+  private static final int MAGIC = 0x54524931;
+  private static final int HEADER_BYTES = 12;
+  private static final int ENTRY_BYTES = 16;
+
+  private final ByteBuffer buffer;
+  private final int documentCount;
+  private final int trigramCount;
+
+  /**
+   * @param documents the documents, their ids are their indices
+   */
+  public TrigramIndex(CharSequence[] documents) {
+    Map<Long, PostingList> lists = new HashMap<Long, PostingList>();
+    for (int id = 0; id < documents.length; id++) {
+      final CharSequence document = documents[id];
+      for (int i = 0; i + 3 <= document.length(); i++) {
+        final long key = key(document.charAt(i), document.charAt(i + 1), document.charAt(i + 2));
+        PostingList list = lists.get(key);
+        if (list == null) {
+          list = new PostingList();
+          lists.put(key, list);
+        }
+        list.add(id);
+      }
+    }
+    final long[] keys = new long[lists.size()];
+    int trigram = 0;
+    long postingBytes = 0;
+    for (Map.Entry<Long, PostingList> entry : lists.entrySet()) {
+      keys[trigram++] = entry.getKey();
+      postingBytes += entry.getValue().size;
+    }
+    Arrays.sort(keys);
+    final long size = HEADER_BYTES + (long) ENTRY_BYTES * keys.length + postingBytes;
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("an index of " + size + " bytes does not fit in a buffer, split the corpus");
+    }
+    this.buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(MAGIC).putInt(documents.length).putInt(keys.length);
+    int offset = HEADER_BYTES + ENTRY_BYTES * keys.length;
+    for (long key : keys) {
+      final PostingList list = lists.get(key);
+      buffer.putLong(key).putInt(offset).putInt(list.count);
+      offset += list.size;
+    }
+    for (long key : keys) {
+      final PostingList list = lists.get(key);
+      buffer.put(list.bytes, 0, list.size);
+    }
+    buffer.flip();
+    this.documentCount = documents.length;
+    this.trigramCount = keys.length;
+  }
+
+  private TrigramIndex(ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("not a trigram index");
+    }
+    this.buffer = buffer;
+    this.documentCount = buffer.getInt(4);
+    this.trigramCount = buffer.getInt(8);
+  }
+
+  /**
+   * @param mapped true to map the file into memory, false to read it into the heap
+   */
+  public static TrigramIndex open(File file, boolean mapped) throws IOException {
+    final RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = input.getChannel();
+      if (mapped) {
+        return new TrigramIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("the index file ended early");
+        }
+      }
+      buffer.flip();
+      return new TrigramIndex(buffer);
+    } finally {
+      input.close();
+    }
+  }
+
+  public void write(File file) throws IOException {
+    final FileOutputStream output = new FileOutputStream(file);
+    try {
+      final FileChannel channel = output.getChannel();
+      final ByteBuffer view = buffer.duplicate();
+      view.clear();
+      while (view.hasRemaining()) {
+        channel.write(view);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  public int documentCount() {
+    return documentCount;
+  }
+
+  public int trigramCount() {
+    return trigramCount;
+  }
+
+  /**
+   * @return the bytes of the index, in the heap or in the file it is mapped from
+   */
+  public long sizeInBytes() {
+    return buffer.capacity();
+  }
+
+  /**
+   * @return the ids of the documents holding the trigram, in increasing order
+   */
+  public int[] documents(String trigram) {
+    if (trigram.length() != 3) {
+      throw new IllegalArgumentException("not a trigram: " + trigram);
+    }
+    return postings(key(trigram.charAt(0), trigram.charAt(1), trigram.charAt(2)));
+  }
+
+  /**
+   * @return the ids of the documents the query is true for, in increasing order
+   */
+  public int[] candidates(TrigramQuery query) {
+    switch (query.kind()) {
+      case ALL:
+        int[] all = new int[documentCount];
+        for (int id = 0; id < documentCount; id++) {
+          all[id] = id;
+        }
+        return all;
+      case NONE:
+        return new int[0];
+      case TRIGRAM:
+        return documents(query.trigram());
+      case AND:
+        return intersection(query.children());
+      default:
+        return union(query.children());
+    }
+  }
+
+  /**
+   * @return the ids of the documents that can contain a match of the pattern, in increasing order
+   */
+  public int[] candidates(Pattern pattern) {
+    return candidates(new TrigramAnalyzer(pattern).getQuery());
+  }
+
+  /**
+   * runs the pattern over the candidate documents only
+   *
+   * @param documents the documents the index was built from
+   * @return the ids of the documents containing a match of the pattern, in increasing order
+   */
+  public int[] search(Pattern pattern, CharSequence[] documents) {
+    final int[] candidates = candidates(pattern);
+    int found = 0;
+    for (int id : candidates) {
+      if (pattern.matcher(documents[id]).find()) {
+        candidates[found++] = id;
+      }
+    }
+    return Arrays.copyOf(candidates, found);
+  }
+
+  /**
+   * the trigrams are intersected from the shortest posting list on, the other operands after them
+   */
+  private int[] intersection(List<TrigramQuery> operands) {
+    TrigramQuery[] ordered = operands.toArray(new TrigramQuery[operands.size()]);
+    final int[] counts = new int[ordered.length];
+    for (int i = 0; i < ordered.length; i++) {
+      counts[i] = ordered[i].kind() == TrigramQuery.Kind.TRIGRAM ? count(ordered[i].trigram()) : Integer.MAX_VALUE;
+    }
+    // a few operands, sorted by insertion
+    for (int i = 1; i < ordered.length; i++) {
+      for (int j = i; j > 0 && counts[j] < counts[j - 1]; j--) {
+        final int count = counts[j];
+        counts[j] = counts[j - 1];
+        counts[j - 1] = count;
+        final TrigramQuery operand = ordered[j];
+        ordered[j] = ordered[j - 1];
+        ordered[j - 1] = operand;
+      }
+    }
+    int[] result = candidates(ordered[0]);
+    for (int i = 1; i < ordered.length && result.length > 0; i++) {
+      result = intersect(result, candidates(ordered[i]));
+    }
+    return result;
+  }
+
+  private int[] union(List<TrigramQuery> operands) {
+    int[] result = new int[0];
+    for (TrigramQuery operand : operands) {
+      result = merge(result, candidates(operand));
+    }
+    return result;
+  }
+
+  private int count(String trigram) {
+    final int entry = find(key(trigram.charAt(0), trigram.charAt(1), trigram.charAt(2)));
+    return entry < 0 ? 0 : buffer.getInt(entry + 12);
+  }
+
+  private int[] postings(long key) {
+    final int entry = find(key);
+    if (entry < 0) {
+      return new int[0];
+    }
+    int position = buffer.getInt(entry + 8);
+    final int[] ids = new int[buffer.getInt(entry + 12)];
+    int id = 0;
+    for (int i = 0; i < ids.length; i++) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get(position++);
+        delta |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      id += delta;
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  /**
+   * @return the position of the entry of the key in the table, -1 if the trigram is in no document
+   */
+  private int find(long key) {
+    int low = 0;
+    int high = trigramCount - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int entry = HEADER_BYTES + ENTRY_BYTES * middle;
+      final long middleKey = buffer.getLong(entry);
+      if (middleKey < key) {
+        low = middle + 1;
+      } else if (middleKey > key) {
+        high = middle - 1;
+      } else {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  private static long key(char first, char second, char third) {
+    return (long) first << 32 | (long) second << 16 | third;
+  }
+
+  private static int[] intersect(int[] first, int[] second) {
+    int[] result = new int[Math.min(first.length, second.length)];
+    int size = 0;
+    for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+      if (first[i] < second[j]) {
+        i++;
+      } else if (first[i] > second[j]) {
+        j++;
+      } else {
+        result[size++] = first[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static int[] merge(int[] first, int[] second) {
+    int[] result = new int[first.length + second.length];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.length || j < second.length) {
+      final int next;
+      if (j == second.length || (i < first.length && first[i] <= second[j])) {
+        next = first[i++];
+      } else {
+        next = second[j++];
+      }
+      if (size == 0 || result[size - 1] != next) {
+        result[size++] = next;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  /**
+   * the documents of a trigram while the index is built, already compressed, a document added twice
+   * in a row is kept once
+   */
+  private static final class PostingList {
+
+    private byte[] bytes = new byte[4];
+    private int size = 0;
+    private int count = 0;
+    private int last = -1;
+
+    private void add(int id) {
+      if (id == last) {
+        return;
+      }
+      int delta = last == -1 ? id : id - last;
+      last = id;
+      count++;
+      if (size + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      while ((delta & ~0x7F) != 0) {
+        bytes[size++] = (byte) (delta & 0x7F | 0x80);
+        delta >>>= 7;
+      }
+      bytes[size++] = (byte) delta;
+    }
+  }
+
+}
@@ -0,0 +1,173 @@
+package org.jetbrains.regexp.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A boolean query over the trigrams a document must contain to possibly match a pattern.
+ * <p>
+ *   ALL is true for every document, it is what is left of a pattern nothing is known about.
+ *   NONE is true for no document. The AND and OR queries are flattened and simplified as they are built,
+ *   so a query is never an AND inside an AND, and never has ALL or NONE below it.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.index.TrigramAnalyzer
+ * @see org.jetbrains.regexp.index.TrigramIndex#candidates(TrigramQuery)
+ */
+public final class TrigramQuery {
+
+  public enum Kind {
+    ALL, NONE, TRIGRAM, AND, OR
+  }
+
+  public static final TrigramQuery ALL = new TrigramQuery(Kind.ALL, null, Collections.<TrigramQuery>emptyList());
+  public static final TrigramQuery NONE = new TrigramQuery(Kind.NONE, null, Collections.<TrigramQuery>emptyList());
+
+  private final Kind kind;
+  private final String trigram;
+  private final List<TrigramQuery> children;
+
+  private TrigramQuery(Kind kind, String trigram, List<TrigramQuery> children) {
+    this.kind = kind;
+    this.trigram = trigram;
+    this.children = children;
+  }
+
+  public static TrigramQuery trigram(String trigram) {
+    if (trigram.length() != 3) {
+      throw new IllegalArgumentException("not a trigram: " + trigram);
+    }
+    return new TrigramQuery(Kind.TRIGRAM, trigram, Collections.<TrigramQuery>emptyList());
+  }
+
+  /**
+   * @return a query true for the documents containing the string, ALL for a string shorter than a trigram
+   */
+  public static TrigramQuery contains(String string) {
+    TrigramQuery query = ALL;
+    for (int i = 0; i + 3 <= string.length(); i++) {
+      query = and(query, trigram(string.substring(i, i + 3)));
+    }
+    return query;
+  }
+
+  public static TrigramQuery and(TrigramQuery first, TrigramQuery second) {
+    return combine(Kind.AND, first, second);
+  }
+
+  /**
+   * the operands two AND queries share are taken out of the OR, (a b|a c) is a (b|c)
+   */
+  public static TrigramQuery or(TrigramQuery first, TrigramQuery second) {
+    final List<TrigramQuery> firstOperands = operands(Kind.AND, first);
+    final List<TrigramQuery> secondOperands = operands(Kind.AND, second);
+    TrigramQuery common = ALL;
+    TrigramQuery firstRest = ALL;
+    for (TrigramQuery operand : firstOperands) {
+      if (secondOperands.contains(operand)) {
+        common = and(common, operand);
+      } else {
+        firstRest = and(firstRest, operand);
+      }
+    }
+    if (common == ALL || first == NONE || second == NONE) {
+      return combine(Kind.OR, first, second);
+    }
+    TrigramQuery secondRest = ALL;
+    for (TrigramQuery operand : secondOperands) {
+      if (!firstOperands.contains(operand)) {
+        secondRest = and(secondRest, operand);
+      }
+    }
+    return and(common, combine(Kind.OR, firstRest, secondRest));
+  }
+
+  public Kind kind() {
+    return kind;
+  }
+
+  /**
+   * @return the trigram of a TRIGRAM query, null for the others
+   */
+  public String trigram() {
+    return trigram;
+  }
+
+  /**
+   * @return the operands of an AND or an OR query, empty for the others
+   */
+  public List<TrigramQuery> children() {
+    return children;
+  }
+
+  /**
+   * ALL and NONE absorb or vanish, operands of the same kind are flattened, repeated operands are dropped
+   */
+  private static TrigramQuery combine(Kind kind, TrigramQuery first, TrigramQuery second) {
+    final TrigramQuery absorbing = kind == Kind.AND ? NONE : ALL;
+    final TrigramQuery neutral = kind == Kind.AND ? ALL : NONE;
+    if (first == absorbing || second == absorbing) {
+      return absorbing;
+    }
+    if (first == neutral) {
+      return second;
+    }
+    if (second == neutral) {
+      return first;
+    }
+    Set<TrigramQuery> operands = new LinkedHashSet<TrigramQuery>();
+    for (TrigramQuery query : new TrigramQuery[]{first, second}) {
+      if (query.kind == kind) {
+        operands.addAll(query.children);
+      } else {
+        operands.add(query);
+      }
+    }
+    if (operands.size() == 1) {
+      return operands.iterator().next();
+    }
+    return new TrigramQuery(kind, null, Collections.unmodifiableList(new ArrayList<TrigramQuery>(operands)));
+  }
+
+  private static List<TrigramQuery> operands(Kind kind, TrigramQuery query) {
+    return query.kind == kind ? query.children : Collections.singletonList(query);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof TrigramQuery)) return false;
+    final TrigramQuery that = (TrigramQuery) o;
+    return kind == that.kind && (trigram == null ? that.trigram == null : trigram.equals(that.trigram))
+        && children.equals(that.children);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * kind.hashCode() + (trigram != null ? trigram.hashCode() : 0)) + children.hashCode();
+  }
+
+  /**
+   * the trigrams are quoted, the operands of an AND are separated by spaces, those of an OR by bars
+   */
+  @Override
+  public String toString() {
+    switch (kind) {
+      case TRIGRAM:
+        return '"' + trigram + '"';
+      case AND:
+      case OR:
+        StringBuilder builder = new StringBuilder(kind == Kind.OR ? "(" : "");
+        for (int i = 0; i < children.size(); i++) {
+          builder.append(i == 0 ? "" : kind == Kind.OR ? "|" : " ").append(children.get(i));
+        }
+        return builder.append(kind == Kind.OR ? ")" : "").toString();
+      default:
+        return "+" + kind;
+    }
+  }
+
+}
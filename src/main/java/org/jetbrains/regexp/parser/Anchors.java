@@ -0,0 +1,101 @@
+package org.jetbrains.regexp.parser;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.regexp.parser.token.element.Token;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Takes the start and end anchors out of the tokens and tells whether the pattern had them.
+ * <p>
+ *   The engines do not run anchors as states, they only seed matches at the start of the text when the
+ *   pattern is anchored at the start, and only accept matches at the end of the text when it is anchored
+ *   at the end. That is why an anchor is only allowed where it applies to every match: ^ or \A as the
+ *   very first token and $ or \z as the very last one, with no alternative next to them, like ^(a|b)$.
+ *   $ only matches at the end of the text, not before a line terminator at the end.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.parser.LanguageSymbols#BEGIN
+ * @see org.jetbrains.regexp.parser.LanguageSymbols#END
+ */
+public class Anchors {
+
+  private static final Logger LOG = Logger.getLogger(Anchors.class);
+
+  public static final String BAD_ANCHOR = "anchors are only supported at the start and the end of the pattern";
+
+  private final Token[] tokens;
+  private final boolean startAnchored;
+  private final boolean endAnchored;
+
+  public Anchors(Token[] tokens) throws ParseException {
+    final int last = tokens.length - 1;
+    boolean start = false;
+    boolean end = false;
+    List<Token> stripped = new ArrayList<Token>(tokens.length);
+    for (int i = 0; i < tokens.length; i++) {
+      final Token token = tokens[i];
+      if (token == LanguageSymbols.BEGIN && i == 1 && !start) {
+        start = true;
+      } else if (token == LanguageSymbols.END && i == last - 1 && !end) {
+        end = true;
+      } else if (token == LanguageSymbols.BEGIN || token == LanguageSymbols.END) {
+        throw new ParseException(BAD_ANCHOR, i);
+      } else {
+        stripped.add(token);
+      }
+    }
+    if (start || end) {
+      validateOuterGroup(tokens, start);
+      LOG.info("anchored" + (start ? " at the start" : "") + (end ? " at the end" : ""));
+    }
+    this.tokens = stripped.toArray(new Token[stripped.size()]);
+    this.startAnchored = start;
+    this.endAnchored = end;
+  }
+
+  public Token[] getTokens() {
+    return tokens;
+  }
+
+  public boolean isStartAnchored() {
+    return startAnchored;
+  }
+
+  public boolean isEndAnchored() {
+    return endAnchored;
+  }
+
+  /**
+   * the anchors have to be inside the group wrapping the whole pattern, and that group must not
+   * have alternatives, otherwise an anchor would only apply to some of the matches
+   */
+  private static void validateOuterGroup(Token[] tokens, boolean start) throws ParseException {
+    final int last = tokens.length - 1;
+    if (tokens[0] != LanguageSymbols.OPEN_PAREN || tokens[last] != LanguageSymbols.CLOSE_PAREN) {
+      throw new ParseException(BAD_ANCHOR, 0);
+    }
+    if (start && last > 2 && isQuantifier(tokens[2])) {
+      throw new ParseException(BAD_ANCHOR, 2);
+    }
+    int depth = 0;
+    for (int i = 0; i < last; i++) {
+      final Token token = tokens[i];
+      if (token == LanguageSymbols.OPEN_PAREN) {
+        depth++;
+      } else if (token == LanguageSymbols.CLOSE_PAREN) {
+        depth--;
+      }
+      if (depth == 0 || (depth == 1 && token == LanguageSymbols.OR)) {
+        throw new ParseException(BAD_ANCHOR, i);
+      }
+    }
+  }
+
+  private static boolean isQuantifier(Token token) {
+    return token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS || token == LanguageSymbols.OPTIONAL;
+  }
+
+}
@@ -0,0 +1,158 @@
+package org.jetbrains.regexp.parser;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingPair;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Rewrites the tokens of a case insensitive pattern into tokens that match every case of a character.
+ * <p>
+ *   A character becomes the set of its cases, a range or a set gets the missing cases of its characters
+ *   added to it. The text is matched against the rewritten tokens as it is, so the case insensitive
+ *   pattern costs nothing more per character than a case sensitive one.
+ * <p>
+ *   By default only US-ASCII letters are folded. With unicode folding, two characters are the same
+ *   if they have the same lower case of their upper case, which is the simple case folding that
+ *   java.util.regex applies with UNICODE_CASE, for example k, K and the Kelvin sign.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#CASE_INSENSITIVE
+ * @see org.jetbrains.regexp.Pattern#UNICODE_CASE
+ */
+public class CaseFolder {
+
+  private static final Logger LOG = Logger.getLogger(CaseFolder.class);
+
+  private final boolean unicode;
+  private final Token[] tokens;
+
+  public CaseFolder(Token[] tokens, boolean unicode) {
+    this.unicode = unicode;
+    this.tokens = new Token[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      this.tokens[i] = fold(tokens[i]);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("case folded: " + Arrays.asList(this.tokens));
+    }
+  }
+
+  public Token[] getTokens() {
+    return tokens;
+  }
+
+  private Token fold(Token token) {
+    if (token instanceof CharacterToken) {
+      return foldCharacter((CharacterToken) token);
+    } else if (token instanceof MatchingRange) {
+      return foldRange((MatchingRange) token);
+    } else if (token instanceof MatchingSet) {
+      final MatchingSet set = (MatchingSet) token;
+      List<Token> folded = new ArrayList<Token>();
+      for (Token member : set.getTokens()) {
+        folded.add(fold(member));
+      }
+      return new MatchingSet(folded, set.isNegative());
+    } else if (token instanceof MatchingPair) {
+      final MatchingPair pair = (MatchingPair) token;
+      return new MatchingPair(fold(pair.getFirst()), fold(pair.getSecond()));
+    }
+    return token;
+  }
+
+  private Token foldCharacter(CharacterToken token) {
+    final char value = token.getValue();
+    List<Token> cases = new ArrayList<Token>();
+    cases.add(token);
+    for (char other = next(value); other != value; other = next(other)) {
+      cases.add(new CharacterToken(other));
+    }
+    if (cases.size() == 1) {
+      return token;
+    }
+    return new MatchingSet(cases, false);
+  }
+
+  private Token foldRange(MatchingRange range) {
+    final char from = range.getFrom().getValue();
+    final char to = range.getTo().getValue();
+    BitSet missing = new BitSet();
+    for (int c = from; c <= to; c++) {
+      for (char other = next((char) c); other != c; other = next(other)) {
+        if (other < from || other > to) {
+          missing.set(other);
+        }
+      }
+    }
+    if (missing.isEmpty()) {
+      return range;
+    }
+    List<Token> members = new ArrayList<Token>();
+    members.add(range);
+    for (int start = missing.nextSetBit(0); start >= 0; start = missing.nextSetBit(start)) {
+      final int end = missing.nextClearBit(start) - 1;
+      if (start == end) {
+        members.add(new CharacterToken((char) start));
+      } else {
+        members.add(new MatchingRange(new CharacterToken((char) start), new CharacterToken((char) end)));
+      }
+      start = end + 1;
+    }
+    return new MatchingSet(members, false);
+  }
+
+  /**
+   * @return the next character in the cycle of characters that are the same as the argument
+   *         when case is ignored, the argument itself if it has no other cases
+   */
+  private char next(char character) {
+    if (unicode) {
+      return UnicodeCases.NEXT[character];
+    }
+    if (character >= 'a' && character <= 'z') {
+      return (char) (character - 'a' + 'A');
+    }
+    if (character >= 'A' && character <= 'Z') {
+      return (char) (character - 'A' + 'a');
+    }
+    return character;
+  }
+
+  /**
+   * Links every character to the next one with the same simple case folding, so that following
+   * the links from a character visits all of its cases and comes back to it.
+   * Built once, on the first pattern compiled with unicode folding.
+   */
+  private static final class UnicodeCases {
+
+    private static final char[] NEXT = build();
+
+    private static char[] build() {
+      final int size = Character.MAX_VALUE + 1;
+      char[] next = new char[size];
+      int[] first = new int[size];
+      int[] last = new int[size];
+      Arrays.fill(first, -1);
+      for (int c = 0; c < size; c++) {
+        final int key = Character.toLowerCase(Character.toUpperCase((char) c));
+        if (first[key] == -1) {
+          first[key] = c;
+        } else {
+          next[last[key]] = (char) c;
+        }
+        last[key] = c;
+        next[c] = (char) first[key];
+      }
+      return next;
+    }
+  }
+
+}
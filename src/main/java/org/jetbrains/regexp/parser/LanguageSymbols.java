@@ -2,11 +2,9 @@ package org.jetbrains.regexp.parser;
 
 import org.jetbrains.regexp.parser.token.element.CharacterToken;
 import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
 import org.jetbrains.regexp.parser.token.element.Token;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Encapsulating all the tokens that are used in when evaluating 
  * regular expressions. 
@@ -93,11 +91,31 @@ public class LanguageSymbols {
     }
 
     @Override
-    public boolean matches(Character textCharacter) {
+    public boolean matches(int symbol) {
       return true;
     }
   };
   
+  /**
+   * ^ and \A, matches no character, only the start of the text
+   */
+  public static final Token BEGIN = new OperatorToken() {
+    @Override
+    public String toString() {
+      return "\\A";
+    }
+  };
+
+  /**
+   * $ and \z, matches no character, only the end of the text
+   */
+  public static final Token END = new OperatorToken() {
+    @Override
+    public String toString() {
+      return "\\z";
+    }
+  };
+
   public static final Token OPEN_BRACE = new OperatorToken() {
     @Override
     public String toString() {
@@ -105,14 +123,19 @@ public class LanguageSymbols {
     }
   };
 
-  private final Map<Character, Token> tokens = new HashMap<Character, Token>();
-
+  /**
+   * @return the token shared by all patterns for the character
+   * @see org.jetbrains.regexp.parser.TokenInterner
+   */
   public Token getCharacterToken(Character character) {
-    Token token = tokens.get(character);
-    if (token != null) return token;
-    token = new CharacterToken(character);
-    tokens.put(character, token);
-    return token;
+    return TokenInterner.intern(new CharacterToken(character));
+  }
+
+  /**
+   * @return the token shared by all patterns for the int symbol
+   */
+  public Token getSymbolToken(int symbol) {
+    return TokenInterner.intern(new SymbolToken(symbol));
   }
   
 }
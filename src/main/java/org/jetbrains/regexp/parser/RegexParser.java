@@ -3,6 +3,7 @@ package org.jetbrains.regexp.parser;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
 import org.jetbrains.regexp.parser.token.element.Token;
 import org.jetbrains.regexp.parser.token.group.MatchingPair;
 import org.jetbrains.regexp.parser.token.group.MatchingRange;
@@ -29,6 +30,7 @@ public class RegexParser {
   private static final String BAD_CLOSURE_EXPRESSION = "bad closure expression";
   private static final String BAD_EXPRESSION = "bad && expression";
   private static final String STACK_PROBLEM = "unmatched operators on the stack";
+  private static final String BAD_SYMBOL = "bad \\x{h...h} symbol";
 
   private final LanguageSymbols languageSymbols;
   private final String expression;
@@ -85,6 +87,15 @@ public class RegexParser {
     if (literal) {
       regExTokens.add(languageSymbols.getCharacterToken(character));  
     } else if (character == '\\') {
+      if (hasNext(i + 1) && expression.charAt(i + 1) == 'A') {
+        regExTokens.add(LanguageSymbols.BEGIN);
+        return i + 1;
+      } else if (hasNext(i + 1) && expression.charAt(i + 1) == 'z') {
+        regExTokens.add(LanguageSymbols.END);
+        return i + 1;
+      } else if (hasNext(i + 2) && expression.charAt(i + 1) == 'x' && expression.charAt(i + 2) == '{') {
+        return consumeSymbol(i + 3);
+      }
       return consumeToken(i + 1, true);
     } else if (character == '.') {
       regExTokens.add(LanguageSymbols.ANY);  
@@ -94,9 +105,16 @@ public class RegexParser {
       regExTokens.add(LanguageSymbols.PLUS);
     } else if (character == '[') {
       pushOperator(LanguageSymbols.OPEN_BRACKET);
+    } else if (character == '^' && !inBrackets()) {
+      regExTokens.add(LanguageSymbols.BEGIN);
+    } else if (character == '^' && (operators.peek() != regExTokens.size() - 1
+        || regExTokens.get(operators.peek()) != LanguageSymbols.OPEN_BRACKET)) {
+      regExTokens.add(languageSymbols.getCharacterToken(character));
     } else if (character == '^') {
       validateStateAndPop(i, LanguageSymbols.OPEN_BRACKET);
       pushOperator(LanguageSymbols.NOT);
+    } else if (character == '$' && !inBrackets()) {
+      regExTokens.add(LanguageSymbols.END);
     } else if (character == '-') {
       final CharacterToken currentToken = getCurrentCharacter(i);
       i = consumeToken(i + 1, false);
@@ -133,6 +151,56 @@ public class RegexParser {
     return i;
   }
 
+  /**
+   * reads the hex digits of \x{h...h} up to the closing brace. a symbol that fits in a char is that character,
+   * a code point above them matches its surrogate pair in a text and the symbol in an int sequence, a larger
+   * one is a SymbolToken, which only int sequences can match. in brackets the code point is left a SymbolToken,
+   * the closing bracket takes it out of the set.
+   *
+   * @param i the index of the first digit
+   * @return the index of the closing brace
+   */
+  private int consumeSymbol(int i) throws ParseException {
+    final int close = expression.indexOf('}', i);
+    if (close == -1 || close == i || close - i > 8) {
+      throw new ParseException(BAD_SYMBOL, i);
+    }
+    final long value;
+    try {
+      value = Long.parseLong(expression.substring(i, close), 16);
+    } catch (NumberFormatException exception) {
+      throw new ParseException(BAD_SYMBOL, i);
+    }
+    if (value > Integer.MAX_VALUE) {
+      throw new ParseException(BAD_SYMBOL, i);
+    }
+    if (value <= Character.MAX_VALUE) {
+      regExTokens.add(languageSymbols.getCharacterToken((char) value));
+    } else if (value <= Character.MAX_CODE_POINT && !inBrackets()) {
+      regExTokens.add(LanguageSymbols.OPEN_PAREN);
+      addCodePoint((int) value);
+      regExTokens.add(LanguageSymbols.CLOSE_PAREN);
+    } else {
+      regExTokens.add(languageSymbols.getSymbolToken((int) value));
+    }
+    return close;
+  }
+
+  /**
+   * writes the alternatives of a code point above the characters: its surrogate pair, or the symbol
+   */
+  private void addCodePoint(int codePoint) {
+    final char[] pair = Character.toChars(codePoint);
+    regExTokens.add(languageSymbols.getCharacterToken(pair[0]));
+    regExTokens.add(languageSymbols.getCharacterToken(pair[1]));
+    regExTokens.add(LanguageSymbols.OR);
+    regExTokens.add(languageSymbols.getSymbolToken(codePoint));
+  }
+
+  private static boolean isCodePointSymbol(Token token) {
+    return token instanceof SymbolToken && ((SymbolToken) token).getValue() <= Character.MAX_CODE_POINT;
+  }
+
   private void processClosingBrace(int i) throws ParseException {
     final int index = validateStateAndPop(i, LanguageSymbols.OPEN_BRACE);
     final String inBetween = charactersBetweenBraces(i, index);
@@ -184,16 +252,19 @@ public class RegexParser {
     }
   }
 
+  /**
+   * writes {bc,ac} as the bc copies followed by ac - bc optional ones, x{1,3} is (xx?x?), so the tokens
+   * grow with ac and not with its square as an alternative for every count would
+   */
   private void writeClosureTokens(List<Token> toReplicate, int bc, int ac) {
     LOG.info("replicating {" + bc + "," + ac + "} : " + toReplicate);
     regExTokens.add(LanguageSymbols.OPEN_PAREN);
-    for (int i = bc; i <= ac; i++) {
-      for (int j = 0; j < i; j++) {
-        regExTokens.addAll(toReplicate);
-      }
-      if (i < ac) {
-        regExTokens.add(LanguageSymbols.OR);
-      }
+    for (int i = 0; i < bc; i++) {
+      regExTokens.addAll(toReplicate);
+    }
+    for (int i = bc; i < ac; i++) {
+      regExTokens.addAll(toReplicate);
+      regExTokens.add(LanguageSymbols.OPTIONAL);
     }
     regExTokens.add(LanguageSymbols.CLOSE_PAREN);
   }
@@ -253,7 +324,9 @@ public class RegexParser {
   }
 
   /**
-   * rewrites the regExTokens introducing tokens that would match like character sets. 
+   * rewrites the regExTokens introducing tokens that would match like character sets. the code points above
+   * the characters of a set that is not negated become alternatives next to it, as a surrogate pair takes
+   * two characters of a text. a negated set keeps them, they only leave out the symbol of an int sequence.
    * 
    * @param i index into the actual text string
    * @throws ParseException
@@ -267,7 +340,31 @@ public class RegexParser {
     if (lastTokenOp == LanguageSymbols.NOT) {
       regExTokens.add(new MatchingSet(tokens, true));  
     } else if (lastTokenOp == LanguageSymbols.OPEN_BRACKET) {
-      regExTokens.add(new MatchingSet(tokens, false));  
+      final List<Token> codePoints = new ArrayList<Token>();
+      for (Token token : tokens) {
+        if (isCodePointSymbol(token)) {
+          codePoints.add(token);
+        }
+      }
+      if (codePoints.isEmpty()) {
+        regExTokens.add(new MatchingSet(tokens, false));
+      } else {
+        removeTokensFromTo(lastOp, removeStartingFrom);
+        tokens.removeAll(codePoints);
+        regExTokens.add(LanguageSymbols.OPEN_PAREN);
+        if (!tokens.isEmpty()) {
+          regExTokens.add(new MatchingSet(tokens, false));
+          regExTokens.add(LanguageSymbols.OR);
+        }
+        for (int j = 0; j < codePoints.size(); j++) {
+          addCodePoint(((SymbolToken) codePoints.get(j)).getValue());
+          if (j < codePoints.size() - 1) {
+            regExTokens.add(LanguageSymbols.OR);
+          }
+        }
+        regExTokens.add(LanguageSymbols.CLOSE_PAREN);
+        return;
+      }
     } else {
       throw new ParseException(FAIL_MESSAGE, i);
     }
@@ -319,6 +416,18 @@ public class RegexParser {
     return expression.length() > i;
   }
 
+  /**
+   * @return true between [ and ], where ^ negates the set right after [ and is a character elsewhere, 
+   *         like $
+   */
+  private boolean inBrackets() {
+    if (operators.isEmpty()) {
+      return false;
+    }
+    final Token top = regExTokens.get(operators.peek());
+    return top == LanguageSymbols.OPEN_BRACKET || top == LanguageSymbols.NOT;
+  }
+
   private void pushOperator(Token operator) {
     LOG.info("push:" + operator);
     operators.push(regExTokens.size());
@@ -0,0 +1,45 @@
+package org.jetbrains.regexp.parser;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.jetbrains.regexp.parser.token.element.OperatorToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+
+/**
+ * Keeps a single instance of every character, range and set token used by the compiled patterns,
+ * so that patterns sharing a character or a class share the token instead of holding a copy each.
+ * <p>
+ *   Tokens are compared by value. The instances are held weakly, a token no pattern uses any longer
+ *   is collected. The operators are constants already and are left as they are.
+ *   A token must not change once it is interned, the compiler only interns the final tokens.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.Pattern#compile(String, int)
+ */
+public final class TokenInterner {
+
+  private static final Interner<Token> TOKENS = Interners.newWeakInterner();
+
+  private TokenInterner() {
+  }
+
+  public static Token intern(Token token) {
+    if (token instanceof OperatorToken) {
+      return token;
+    }
+    return TOKENS.intern(token);
+  }
+
+  /**
+   * replaces every token of the array by its shared instance
+   *
+   * @return the same array
+   */
+  public static Token[] intern(Token[] tokens) {
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = intern(tokens[i]);
+    }
+    return tokens;
+  }
+
+}
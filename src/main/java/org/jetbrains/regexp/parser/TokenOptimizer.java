@@ -0,0 +1,624 @@
+package org.jetbrains.regexp.parser;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingPair;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites the tokens produced by the parser into a smaller program that accepts the same language.
+ * <p>
+ *   The flat token array is read back into a tree of sequences, groups and quantified items,
+ *   simplified bottom up and written out again. The simplifications are:
+ *   <ul>
+ *     <li>common prefixes and suffixes of alternatives are factored out, abxy|abz|abzw becomes ab(xy|zw?)</li>
+ *     <li>alternatives made of a single character, range or set are merged into one set, a|b|[cd] becomes [ab[cd]],
+ *     this runs before the factoring so foo|foobar|fob becomes fo([ob]|obar)</li>
+ *     <li>redundant quantifiers are collapsed, a**, (a*)* and a*a* all become a*</li>
+ *     <li>empty groups and groups around a single alternative are dropped</li>
+ *   </ul>
+ *   Every token removed here is a vertex less in the epsilon transitions graph and a state less
+ *   the matcher has to carry per character. A program that can not be read back into a tree
+ *   is left untouched, so that the graph reports the problem as before.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.parser.RegexParser
+ * @see org.jetbrains.graphs.EpsilonTransitionsGraph
+ */
+public class TokenOptimizer {
+
+  private static final Logger LOG = Logger.getLogger(TokenOptimizer.class);
+
+  private final Token[] input;
+  private final Token[] tokens;
+  private int position = 0;
+
+  public TokenOptimizer(Token[] tokens) {
+    this.input = tokens;
+    this.tokens = optimize();
+  }
+
+  public Token[] getTokens() {
+    return tokens;
+  }
+
+  private Token[] optimize() {
+    final List<Node> program;
+    try {
+      program = readSequence();
+      if (position < input.length) {
+        throw new ParseException(RegexParser.FAIL_MESSAGE, position);
+      }
+    } catch (ParseException exception) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("leaving tokens as parsed: " + exception.getMessage() + " at " + exception.getErrorOffset());
+      }
+      return input;
+    }
+    final List<Node> simplified = simplifySequence(program);
+    List<Token> output = new ArrayList<Token>();
+    if (simplified.size() == 1 && simplified.get(0) instanceof Group) {
+      simplified.get(0).write(output);
+    } else {
+      // algorithm in Pattern class needs the outer expression to be wrapped in parenthesis
+      output.add(LanguageSymbols.OPEN_PAREN);
+      for (Node node : simplified) {
+        node.write(output);
+      }
+      output.add(LanguageSymbols.CLOSE_PAREN);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("optimized " + input.length + " tokens into " + output.size() + ": " + output);
+    }
+    return output.toArray(new Token[output.size()]);
+  }
+
+  /**
+   * reads tokens until the end of the current alternative, that is until | or ) or the end of the program.
+   *
+   * @return the items of the alternative
+   * @throws ParseException if a quantifier has nothing to apply to or a group is not closed
+   */
+  private List<Node> readSequence() throws ParseException {
+    List<Node> sequence = new ArrayList<Node>();
+    while (position < input.length) {
+      final Token token = input[position];
+      if (token == LanguageSymbols.OR || token == LanguageSymbols.CLOSE_PAREN) {
+        break;
+      }
+      position++;
+      if (token == LanguageSymbols.OPEN_PAREN) {
+        sequence.add(readGroup());
+      } else if (isQuantifier(token)) {
+        if (sequence.isEmpty()) {
+          throw new ParseException(RegexParser.FAIL_MESSAGE, position - 1);
+        }
+        sequence.add(new Repeat(sequence.remove(sequence.size() - 1), token));
+      } else {
+        sequence.add(new Leaf(token));
+      }
+    }
+    return sequence;
+  }
+
+  private Group readGroup() throws ParseException {
+    List<List<Node>> alternatives = new ArrayList<List<Node>>();
+    alternatives.add(readSequence());
+    while (position < input.length && input[position] == LanguageSymbols.OR) {
+      position++;
+      alternatives.add(readSequence());
+    }
+    if (position >= input.length) {
+      throw new ParseException(RegexParser.FAIL_MESSAGE, position);
+    }
+    position++;
+    return new Group(alternatives);
+  }
+
+  private List<Node> simplifySequence(List<Node> sequence) {
+    List<Node> simplified = new ArrayList<Node>();
+    for (Node node : sequence) {
+      append(simplified, simplify(node));
+    }
+    return nestOptionals(simplified);
+  }
+
+  /**
+   * x?x?x? becomes (x(xx?)?)?, the form the parser writes x{0,3} in. Each x then only follows the one
+   * before it, so after a run of x the matcher carries the next x alone and not every x left.
+   */
+  private static List<Node> nestOptionals(List<Node> sequence) {
+    List<Node> nested = null;
+    for (int i = 0; i < sequence.size(); ) {
+      int end = i + 1;
+      if (isOptional(sequence.get(i))) {
+        final List<Token> key = ((Repeat) sequence.get(i)).item.key();
+        while (end < sequence.size() && isOptional(sequence.get(end))
+            && ((Repeat) sequence.get(end)).item.key().equals(key)) {
+          end++;
+        }
+      }
+      if (end - i == 1) {
+        if (nested != null) {
+          nested.add(sequence.get(i));
+        }
+        i = end;
+        continue;
+      }
+      if (nested == null) {
+        nested = new ArrayList<Node>(sequence.subList(0, i));
+      }
+      nested.add(new OptionalRun(((Repeat) sequence.get(i)).item, end - i));
+      i = end;
+    }
+    return nested == null ? sequence : nested;
+  }
+
+  private static boolean isOptional(Node node) {
+    return node instanceof Repeat && ((Repeat) node).quantifier == LanguageSymbols.OPTIONAL;
+  }
+
+  private Node simplify(Node node) {
+    if (node instanceof Group) {
+      return simplifyGroup((Group) node);
+    } else if (node instanceof Repeat) {
+      return simplifyRepeat((Repeat) node);
+    }
+    return node;
+  }
+
+  /**
+   * @return null if the item is empty, the simplified item otherwise
+   */
+  private Node simplifyRepeat(Repeat repeat) {
+    Node item = simplify(repeat.item);
+    if (item == null) {
+      return null;
+    }
+    if (item instanceof Group && ((Group) item).alternatives.size() == 1
+        && ((Group) item).alternatives.get(0).size() == 1) {
+      item = ((Group) item).alternatives.get(0).get(0);
+    }
+    return quantify(item, repeat.quantifier);
+  }
+
+  /**
+   * (x*)* is x*, (x+)? and (x?)+ are x*, so nested quantifiers always collapse into one. (x?x?)? is x?x?
+   * and (x?x?)* is x*.
+   */
+  private static Node quantify(Node item, Token quantifier) {
+    if (item instanceof OptionalRun) {
+      final Node optional = ((OptionalRun) item).item;
+      return quantifier == LanguageSymbols.OPTIONAL ? item : new Repeat(optional, LanguageSymbols.STAR);
+    }
+    if (item instanceof Repeat) {
+      final Repeat inner = (Repeat) item;
+      final Token combined = inner.quantifier == quantifier ? quantifier : LanguageSymbols.STAR;
+      return new Repeat(inner.item, combined);
+    }
+    return new Repeat(item, quantifier);
+  }
+
+  /**
+   * @return null if the group is empty, a group with a single alternative if the caller
+   *         should splice the items into its own sequence, any other node otherwise
+   */
+  private Node simplifyGroup(Group group) {
+    List<Span> alternatives = new ArrayList<Span>();
+    for (List<Node> alternative : group.alternatives) {
+      addAlternative(alternatives, new Span(simplifySequence(alternative)));
+    }
+    return simplifyAlternatives(alternatives);
+  }
+
+  /**
+   * adds a simplified alternative to the ones of a group, the alternatives of a lone group are added
+   * in its place and a single empty alternative is kept.
+   */
+  private static void addAlternative(List<Span> alternatives, Span alternative) {
+    if (alternative.size() == 1 && alternative.first() instanceof Group) {
+      for (List<Node> nested : ((Group) alternative.first()).alternatives) {
+        addAlternative(alternatives, new Span(nested));
+      }
+      return;
+    }
+    if (alternative.size() == 0) {
+      for (Span other : alternatives) {
+        if (other.size() == 0) {
+          return;
+        }
+      }
+    }
+    alternatives.add(alternative);
+  }
+
+  /**
+   * The alternatives are simplified already and are not simplified again on the way down: every level
+   * of the factoring only looks at their first and last items, so a group costs about as much as its items.
+   * Other duplicates than the empty alternative are left in, they share all their items and end up
+   * empty at the same level.
+   */
+  private Node simplifyAlternatives(List<Span> alternatives) {
+    alternatives = mergeCharacterClasses(alternatives);
+    alternatives = factorPrefixes(alternatives);
+    alternatives = factorSuffixes(alternatives);
+    return makeOptional(alternatives);
+  }
+
+  /**
+   * a|b|[c-d] is one state in place of three, it is written as [ab[c-d]]
+   */
+  private List<Span> mergeCharacterClasses(List<Span> alternatives) {
+    List<Token> classes = new ArrayList<Token>();
+    Set<List<Token>> seen = new HashSet<List<Token>>();
+    int firstClass = -1;
+    for (int i = 0; i < alternatives.size(); i++) {
+      final Span alternative = alternatives.get(i);
+      if (alternative.size() == 1 && isCharacterClass(alternative.first())) {
+        if (seen.add(alternative.first().key())) {
+          classes.add(((Leaf) alternative.first()).token);
+        }
+        if (firstClass == -1) firstClass = i;
+      }
+    }
+    if (classes.size() < 2) {
+      return alternatives;
+    }
+    final Token merged = classes.contains(LanguageSymbols.ANY) ?
+        LanguageSymbols.ANY : new MatchingSet(classes, false);
+    List<Span> result = new ArrayList<Span>();
+    for (int i = 0; i < alternatives.size(); i++) {
+      final Span alternative = alternatives.get(i);
+      if (i == firstClass) {
+        List<Node> mergedAlternative = new ArrayList<Node>();
+        mergedAlternative.add(new Leaf(merged));
+        result.add(new Span(mergedAlternative));
+      } else if (alternative.size() != 1 || !isCharacterClass(alternative.first())) {
+        result.add(alternative);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * ab|ac|d becomes a(b|c)|d, the remainders are factored the same way so the factoring goes
+   * as deep as the alternatives share items.
+   */
+  private List<Span> factorPrefixes(List<Span> alternatives) {
+    Map<List<Token>, List<Span>> byFirstItem = groupAlternatives(alternatives, true);
+    if (byFirstItem.size() == alternatives.size()) {
+      return alternatives;
+    }
+    List<Span> result = new ArrayList<Span>();
+    for (List<Span> sharing : byFirstItem.values()) {
+      if (sharing.size() == 1) {
+        result.add(sharing.get(0));
+        continue;
+      }
+      List<Span> remainders = new ArrayList<Span>();
+      for (Span alternative : sharing) {
+        addAlternative(remainders, alternative.withoutFirst());
+      }
+      List<Node> factored = new ArrayList<Node>();
+      factored.add(sharing.get(0).first());
+      append(factored, simplifyAlternatives(remainders));
+      result.add(new Span(factored));
+    }
+    return result;
+  }
+
+  /**
+   * ac|bc|d becomes (a|b)c|d
+   */
+  private List<Span> factorSuffixes(List<Span> alternatives) {
+    int nonEmpty = 0;
+    for (Span alternative : alternatives) {
+      nonEmpty += alternative.size() > 0 ? 1 : 0;
+    }
+    if (nonEmpty < 2) {
+      return alternatives;
+    }
+    Map<List<Token>, List<Span>> byLastItem = groupAlternatives(alternatives, false);
+    if (byLastItem.size() == alternatives.size()) {
+      return alternatives;
+    }
+    List<Span> result = new ArrayList<Span>();
+    for (List<Span> sharing : byLastItem.values()) {
+      if (sharing.size() == 1) {
+        result.add(sharing.get(0));
+        continue;
+      }
+      List<Span> remainders = new ArrayList<Span>();
+      for (Span alternative : sharing) {
+        addAlternative(remainders, alternative.withoutLast());
+      }
+      List<Node> factored = new ArrayList<Node>();
+      append(factored, simplifyAlternatives(remainders));
+      append(factored, sharing.get(0).last());
+      result.add(new Span(factored));
+    }
+    return result;
+  }
+
+  /**
+   * groups alternatives on their first or last item, keeping the order in which the items first appear.
+   * empty alternatives are never grouped with each other since only one is kept.
+   */
+  private Map<List<Token>, List<Span>> groupAlternatives(List<Span> alternatives, boolean first) {
+    Map<List<Token>, List<Span>> grouped = new LinkedHashMap<List<Token>, List<Span>>();
+    for (Span alternative : alternatives) {
+      List<Token> key = null;
+      if (alternative.size() > 0) {
+        key = (first ? alternative.first() : alternative.last()).key();
+      }
+      List<Span> sharing = grouped.get(key);
+      if (sharing == null) {
+        sharing = new ArrayList<Span>();
+        grouped.put(key, sharing);
+      }
+      sharing.add(alternative);
+    }
+    return grouped;
+  }
+
+  /**
+   * (|a) is written as a?, and a group that is left with nothing to match is dropped altogether.
+   */
+  private Node makeOptional(List<Span> alternatives) {
+    List<List<Node>> all = new ArrayList<List<Node>>();
+    List<List<Node>> nonEmpty = new ArrayList<List<Node>>();
+    for (Span alternative : alternatives) {
+      final List<Node> items = alternative.toList();
+      all.add(items);
+      if (!items.isEmpty()) {
+        nonEmpty.add(items);
+      }
+    }
+    if (nonEmpty.isEmpty()) {
+      return null;
+    }
+    if (nonEmpty.size() == all.size()) {
+      return new Group(all);
+    }
+    if (nonEmpty.size() == 1 && nonEmpty.get(0).size() == 1) {
+      return quantify(nonEmpty.get(0).get(0), LanguageSymbols.OPTIONAL);
+    }
+    return new Repeat(new Group(nonEmpty), LanguageSymbols.OPTIONAL);
+  }
+
+  /**
+   * adds a simplified node at the end of a sequence, splicing groups that have a single alternative
+   * and joining the node with the previous one when they are the same quantified item.
+   */
+  private static void append(List<Node> sequence, Node node) {
+    if (node == null) {
+      return;
+    }
+    if (node instanceof Group && ((Group) node).alternatives.size() == 1) {
+      for (Node item : ((Group) node).alternatives.get(0)) {
+        append(sequence, item);
+      }
+      return;
+    }
+    if (!sequence.isEmpty()) {
+      final Node joined = join(sequence.get(sequence.size() - 1), node);
+      if (joined != null) {
+        sequence.set(sequence.size() - 1, joined);
+        return;
+      }
+    }
+    sequence.add(node);
+  }
+
+  /**
+   * x*x*, x*x? and x?x* are x*; x*x+, x+x*, x*x and xx* are x+.
+   *
+   * @return the single node matching both arguments in a row, null if there is none
+   */
+  private static Node join(Node previous, Node next) {
+    if (previous instanceof Repeat && next instanceof Repeat) {
+      final Repeat first = (Repeat) previous;
+      final Repeat second = (Repeat) next;
+      if (!first.item.key().equals(second.item.key())) {
+        return null;
+      }
+      final boolean firstStar = first.quantifier == LanguageSymbols.STAR;
+      final boolean secondStar = second.quantifier == LanguageSymbols.STAR;
+      if (firstStar && secondStar) {
+        return first;
+      }
+      if (firstStar || secondStar) {
+        final Token other = firstStar ? second.quantifier : first.quantifier;
+        return new Repeat(first.item, other == LanguageSymbols.PLUS ? LanguageSymbols.PLUS : LanguageSymbols.STAR);
+      }
+      return null;
+    }
+    if (previous instanceof Repeat && ((Repeat) previous).quantifier == LanguageSymbols.STAR
+        && ((Repeat) previous).item.key().equals(next.key())) {
+      return new Repeat(next, LanguageSymbols.PLUS);
+    }
+    if (next instanceof Repeat && ((Repeat) next).quantifier == LanguageSymbols.STAR
+        && ((Repeat) next).item.key().equals(previous.key())) {
+      return new Repeat(previous, LanguageSymbols.PLUS);
+    }
+    return null;
+  }
+
+  private static boolean isQuantifier(Token token) {
+    return token == LanguageSymbols.STAR || token == LanguageSymbols.PLUS || token == LanguageSymbols.OPTIONAL;
+  }
+
+  private static boolean isCharacterClass(Node node) {
+    if (!(node instanceof Leaf)) {
+      return false;
+    }
+    final Token token = ((Leaf) node).token;
+    return token == LanguageSymbols.ANY || token instanceof CharacterToken || token instanceof SymbolToken
+        || token instanceof MatchingRange
+        || token instanceof MatchingSet || token instanceof MatchingPair;
+  }
+
+  /**
+   * An item of the token tree. Two items are the same if they write the same tokens.
+   */
+  private abstract static class Node {
+
+    private List<Token> key = null;
+
+    abstract void write(List<Token> output);
+
+    List<Token> key() {
+      if (key == null) {
+        key = new ArrayList<Token>();
+        write(key);
+      }
+      return key;
+    }
+  }
+
+  private static final class Leaf extends Node {
+
+    private final Token token;
+
+    Leaf(Token token) {
+      this.token = token;
+    }
+
+    @Override
+    void write(List<Token> output) {
+      output.add(token);
+    }
+  }
+
+  private static final class Group extends Node {
+
+    private final List<List<Node>> alternatives;
+
+    Group(List<List<Node>> alternatives) {
+      this.alternatives = alternatives;
+    }
+
+    @Override
+    void write(List<Token> output) {
+      output.add(LanguageSymbols.OPEN_PAREN);
+      for (int i = 0; i < alternatives.size(); i++) {
+        if (i > 0) {
+          output.add(LanguageSymbols.OR);
+        }
+        for (Node node : alternatives.get(i)) {
+          node.write(output);
+        }
+      }
+      output.add(LanguageSymbols.CLOSE_PAREN);
+    }
+  }
+
+  private static final class Repeat extends Node {
+
+    private final Node item;
+    private final Token quantifier;
+
+    Repeat(Node item, Token quantifier) {
+      this.item = item;
+      this.quantifier = quantifier;
+    }
+
+    @Override
+    void write(List<Token> output) {
+      item.write(output);
+      output.add(quantifier);
+    }
+  }
+
+  /**
+   * A run of the same optional item written nested, x?x?x? as (x(xx?)?)?. The run is written in a loop,
+   * a long one would overflow the stack as nested groups.
+   */
+  private static final class OptionalRun extends Node {
+
+    private final Node item;
+    private final int count;
+
+    OptionalRun(Node item, int count) {
+      this.item = item;
+      this.count = count;
+    }
+
+    @Override
+    void write(List<Token> output) {
+      for (int i = 1; i < count; i++) {
+        output.add(LanguageSymbols.OPEN_PAREN);
+        item.write(output);
+      }
+      item.write(output);
+      output.add(LanguageSymbols.OPTIONAL);
+      for (int i = 1; i < count; i++) {
+        output.add(LanguageSymbols.CLOSE_PAREN);
+        output.add(LanguageSymbols.OPTIONAL);
+      }
+    }
+  }
+
+  /**
+   * The items of an alternative from one index to another, taking the first or last item off
+   * copies nothing and never makes a view of a view.
+   */
+  private static final class Span {
+
+    private final List<Node> items;
+    private final int from;
+    private final int to;
+
+    Span(List<Node> items) {
+      this(items, 0, items.size());
+    }
+
+    private Span(List<Node> items, int from, int to) {
+      this.items = items;
+      this.from = from;
+      this.to = to;
+    }
+
+    int size() {
+      return to - from;
+    }
+
+    Node first() {
+      return items.get(from);
+    }
+
+    Node last() {
+      return items.get(to - 1);
+    }
+
+    Span withoutFirst() {
+      return new Span(items, from + 1, to);
+    }
+
+    Span withoutLast() {
+      return new Span(items, from, to - 1);
+    }
+
+    /**
+     * @return the items, copied if they are only a part of the alternative
+     */
+    List<Node> toList() {
+      if (from == 0 && to == items.size()) {
+        return items;
+      }
+      return new ArrayList<Node>(items.subList(from, to));
+    }
+  }
+
+}
@@ -18,8 +18,8 @@ public class CharacterToken implements Token {
   }
 
   @Override
-  public boolean matches(Character textCharacter) {
-    return value.equals(textCharacter);
+  public boolean matches(int symbol) {
+    return value == symbol;
   }
 
   @Override
@@ -31,6 +31,11 @@ public class CharacterToken implements Token {
     return false;
   }
 
+  @Override
+  public int hashCode() {
+    return value.hashCode();
+  }
+
   @Override
   public String toString() {
     return "value=" + value;
@@ -8,7 +8,7 @@ package org.jetbrains.regexp.parser.token.element;
 public class OperatorToken implements Token {
   
   @Override
-  public boolean matches(Character textCharacter) {
+  public boolean matches(int symbol) {
     return false;
   }
 }
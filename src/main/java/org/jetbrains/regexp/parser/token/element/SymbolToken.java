@@ -0,0 +1,43 @@
+package org.jetbrains.regexp.parser.token.element;
+
+/**
+ * Represents a single int symbol above the characters, written \x{h...h} in the regular expression.
+ * Such a symbol never matches a character, only an int in a sequence of symbols. The parser puts the surrogate
+ * pair of a code point next to it, for texts.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ * @see org.jetbrains.regexp.IntSequence
+ */
+public class SymbolToken implements Token {
+
+  private final int value;
+
+  public SymbolToken(int value) {
+    this.value = value;
+  }
+
+  public int getValue() {
+    return value;
+  }
+
+  @Override
+  public boolean matches(int symbol) {
+    return value == symbol;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SymbolToken && value == ((SymbolToken) o).value;
+  }
+
+  @Override
+  public int hashCode() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "symbol=" + value;
+  }
+
+}
@@ -8,7 +8,10 @@ package org.jetbrains.regexp.parser.token.element;
  * @see org.jetbrains.regexp.parser.LanguageSymbols
  */
 public abstract interface Token {
-  
-  public abstract boolean matches(Character textCharacter);
-  
+
+  /**
+   * @param symbol a character of a text, or any int of a sequence of int symbols
+   */
+  public abstract boolean matches(int symbol);
+
 }
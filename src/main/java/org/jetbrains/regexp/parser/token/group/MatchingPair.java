@@ -30,15 +30,30 @@ public class MatchingPair implements Token {
     return true;
   }
 
+  @Override
+  public int hashCode() {
+    int result = first != null ? first.hashCode() : 0;
+    result = 31 * result + (second != null ? second.hashCode() : 0);
+    return result;
+  }
+
 
   public MatchingPair(Token first, Token second) {
     this.first = first;
     this.second = second;
   }
 
+  public Token getFirst() {
+    return first;
+  }
+
+  public Token getSecond() {
+    return second;
+  }
+
   @Override
-  public boolean matches(Character textCharacter) {
-    return first.matches(textCharacter) && second.matches(textCharacter);
+  public boolean matches(int symbol) {
+    return first.matches(symbol) && second.matches(symbol);
   }
 
   @Override
@@ -20,9 +20,17 @@ public class MatchingRange implements Token {
     this.to = toToken;
   }
 
+  public CharacterToken getFrom() {
+    return from;
+  }
+
+  public CharacterToken getTo() {
+    return to;
+  }
+
   @Override
-  public boolean matches(Character textCharacter) {
-    return from.getValue() <= textCharacter && textCharacter <= to.getValue();
+  public boolean matches(int symbol) {
+    return from.getValue() <= symbol && symbol <= to.getValue();
   }
 
   @Override
@@ -46,5 +54,12 @@ public class MatchingRange implements Token {
 
     return true;
   }
+
+  @Override
+  public int hashCode() {
+    int result = from != null ? from.hashCode() : 0;
+    result = 31 * result + (to != null ? to.hashCode() : 0);
+    return result;
+  }
   
 }
@@ -24,11 +24,19 @@ public class MatchingSet implements Token {
     this.matchTokens = tokens;
   }
 
+  public List<Token> getTokens() {
+    return matchTokens;
+  }
+
+  public boolean isNegative() {
+    return !positive;
+  }
+
   @Override
-  public boolean matches(Character textCharacter) {
+  public boolean matches(int symbol) {
     boolean matched = false;
     for (Token matchToken : matchTokens) {
-      if (matchToken.matches(textCharacter)) {
+      if (matchToken.matches(symbol)) {
         matched = true;
         if (positive) {
           return true;
@@ -59,5 +67,12 @@ public class MatchingSet implements Token {
 
     return true;
   }
+
+  @Override
+  public int hashCode() {
+    int result = matchTokens != null ? matchTokens.hashCode() : 0;
+    result = 31 * result + (positive ? 1 : 0);
+    return result;
+  }
   
 }
@@ -0,0 +1,70 @@
+package org.jetbrains.graphs;
+
+import org.jetbrains.regexp.parser.RegexParser;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectedGraphTest {
+
+  private static DirectedGraph graph(int vertices, int[][] edges) {
+    DirectedGraph graph = new DirectedGraph(vertices);
+    for (int[] edge : edges) {
+      graph.addEdge(edge[0], edge[1]);
+    }
+    graph.compact();
+    return graph;
+  }
+
+  @Test
+  public void testDfsFrom() throws Exception {
+    DirectedGraph graph = graph(6, new int[][] {{0, 2}, {2, 1}, {1, 0}, {3, 4}, {4, 5}});
+    assertEquals(Arrays.asList(0, 1, 2), graph.dfsFrom(0));
+    assertEquals(Arrays.asList(3, 4, 5), graph.dfsFrom(3));
+    assertEquals(Arrays.asList(0, 1, 2, 5), graph.dfsFrom(Arrays.asList(5, 1)));
+  }
+
+  @Test
+  public void testSearchIsReused() throws Exception {
+    DirectedGraph graph = graph(4, new int[][] {{0, 1}, {2, 3}});
+    DFS dfs = graph.newSearch();
+    dfs.search(0);
+    assertEquals(2, dfs.visitedCount());
+    assertTrue(dfs.isVisited(1));
+    dfs.reset();
+    dfs.search(2);
+    assertEquals(2, dfs.visitedCount());
+    assertFalse(dfs.isVisited(1));
+    assertEquals(3, dfs.visited(1));
+  }
+
+  @Test
+  public void testDeepGraph() throws Exception {
+    final int vertices = 1000000;
+    DirectedGraph graph = new DirectedGraph(vertices);
+    for (int v = 0; v + 1 < vertices; v++) {
+      graph.addEdge(v, v + 1);
+    }
+    graph.compact();
+    assertEquals(vertices, graph.dfsFrom(0).size());
+  }
+
+  @Test
+  public void testDeepEpsilonTransitions() throws Exception {
+    Token[] tokens = new RegexParser("(a?){20000}").getTokens();
+    List<Integer> reachable = new EpsilonTransitionsGraph(tokens).dfsFrom(0);
+    assertEquals(Integer.valueOf(tokens.length), reachable.get(reachable.size() - 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoEdgesAfterCompact() throws Exception {
+    graph(2, new int[][] {{0, 1}}).addEdge(1, 0);
+  }
+
+}
@@ -0,0 +1,153 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AllMatchesTest {
+
+  /**
+   * every pair of positions the whole pattern matches between, in the order allMatches reports them
+   */
+  private static List<String> bruteForce(String regexp, String text) throws Exception {
+    final Pattern pattern = Pattern.compile(regexp.replace("^", "").replace("$", ""));
+    List<String> matches = new ArrayList<String>();
+    for (int end = 0; end <= text.length(); end++) {
+      if (regexp.endsWith("$") && end != text.length()) {
+        continue;
+      }
+      for (int start = end; start >= 0; start--) {
+        if (regexp.startsWith("^") && start != 0) {
+          continue;
+        }
+        if (pattern.matches(text.substring(start, end))) {
+          matches.add(start + "-" + end);
+        }
+      }
+    }
+    return matches;
+  }
+
+  private static List<String> allMatches(String regexp, String text) throws Exception {
+    List<String> matches = new ArrayList<String>();
+    final Iterator<Match> iterator = Pattern.compile(regexp).matcher(text).allMatches();
+    while (iterator.hasNext()) {
+      final Match match = iterator.next();
+      matches.add(match.start() + "-" + match.end());
+    }
+    return matches;
+  }
+
+  /**
+   * the matches given by the ranges, each range from its last start to its first one
+   */
+  private static List<String> rangeMatches(String regexp, String text) throws Exception {
+    final List<String> matches = new ArrayList<String>();
+    Pattern.compile(regexp).matcher(text).forEachMatchRange(new MatchRangeCallback() {
+      @Override
+      public boolean onMatches(int end, int firstStart, int lastStart) {
+        for (int start = lastStart; start >= firstStart; start--) {
+          matches.add(start + "-" + end);
+        }
+        return true;
+      }
+    });
+    return matches;
+  }
+
+  @Test
+  public void testAgreesWithBruteForce() throws Exception {
+    String[] patterns = {"a*", "ab|abab", "(ab)+", "a.*b", "[a-c]+c?", "x", "(a|b)*abb", "a?", "^ab*", "b*a$",
+        "^(ab)*$", "aa(aa)*"};
+    String[] texts = {"", "a", "ab", "abab", "aaaa", "babbabb", "abcabc", "xaxbx", "aab"};
+    for (String regexp : patterns) {
+      for (String text : texts) {
+        assertEquals(regexp + " on " + text, bruteForce(regexp, text), allMatches(regexp, text));
+        assertEquals(regexp + " on " + text, bruteForce(regexp, text), rangeMatches(regexp, text));
+      }
+    }
+  }
+
+  @Test
+  public void testRegion() throws Exception {
+    final Iterator<Match> iterator = Pattern.compile("ab").matcher("ababab").region(1, 5).allMatches();
+    final Match match = iterator.next();
+    assertEquals(2, match.start());
+    assertEquals(4, match.end());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testLongRun() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append('a');
+    }
+    final Iterator<Match> iterator = Pattern.compile("a*").matcher(text).allMatches();
+    long count = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    assertEquals(1001L * 1002 / 2, count);
+  }
+
+  @Test
+  public void testRanges() throws Exception {
+    final List<String> ranges = new ArrayList<String>();
+    final int count = Pattern.compile("a*|b").matcher("aaba").forEachMatchRange(new MatchRangeCallback() {
+      @Override
+      public boolean onMatches(int end, int firstStart, int lastStart) {
+        ranges.add(end + ":" + firstStart + "-" + lastStart);
+        return true;
+      }
+    });
+    assertEquals(5, count);
+    assertEquals("[0:0-0, 1:0-1, 2:0-2, 3:2-3, 4:3-4]", ranges.toString());
+  }
+
+  @Test
+  public void testRangesStop() throws Exception {
+    final List<Integer> ends = new ArrayList<Integer>();
+    final int count = Pattern.compile("a*").matcher("aaaa").forEachMatchRange(new MatchRangeCallback() {
+      @Override
+      public boolean onMatches(int end, int firstStart, int lastStart) {
+        ends.add(end);
+        return end < 2;
+      }
+    });
+    assertEquals(3, count);
+    assertEquals("[0, 1, 2]", ends.toString());
+  }
+
+  @Test
+  public void testRangesOfLongRunInOnePass() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 40000; i++) {
+      text.append('a');
+    }
+    for (String regexp : new String[]{"a*", "a+b?"}) {
+      final Pattern pattern = Pattern.compile(regexp);
+      // a few states per character, scanning back from every end would take billions of steps
+      final Matcher matcher = pattern.matcher(text).budget(MatchBudget.ofSteps(10L * text.length()));
+      final long[] starts = new long[1];
+      final int count = matcher.forEachMatchRange(new MatchRangeCallback() {
+        @Override
+        public boolean onMatches(int end, int firstStart, int lastStart) {
+          assertEquals(0, firstStart);
+          starts[0] += lastStart - firstStart + 1;
+          return true;
+        }
+      });
+      final long ends = regexp.equals("a*") ? text.length() + 1 : text.length();
+      assertEquals(regexp, ends, count);
+      assertEquals(regexp, ends * (ends + 1) / 2, starts[0]);
+    }
+  }
+
+}
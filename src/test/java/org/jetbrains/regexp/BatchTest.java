@@ -0,0 +1,61 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchTest {
+
+  private static CharSequence[] inputs(int count) {
+    CharSequence[] inputs = new CharSequence[count];
+    for (int i = 0; i < count; i++) {
+      inputs[i] = i % 3 == 0 ? "id_" + i : "x" + i;
+    }
+    return inputs;
+  }
+
+  @Test
+  public void testMatchesAll() throws Exception {
+    Pattern pattern = Pattern.compile("id_[0-9]+");
+    CharSequence[] inputs = inputs(100);
+    BitSet out = new BitSet();
+    out.set(1);
+    pattern.matchesAll(inputs, out);
+    for (int i = 0; i < inputs.length; i++) {
+      assertEquals(String.valueOf(inputs[i]), pattern.matches(inputs[i]), out.get(i));
+    }
+    assertEquals(34, out.cardinality());
+  }
+
+  @Test
+  public void testMatchesAllOnExecutor() throws Exception {
+    Pattern pattern = Pattern.compile("id_[0-9]*[05]");
+    CharSequence[] inputs = inputs(10000);
+    BitSet expected = new BitSet();
+    pattern.matchesAll(inputs, expected);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BitSet out = new BitSet();
+      out.set(10001);
+      pattern.matchesAll(inputs, out, executor);
+      out.clear(10001);
+      assertEquals(expected, out);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFindFirstAll() throws Exception {
+    Pattern pattern = Pattern.compile("o+");
+    int[] offsets = new int[6];
+    assertEquals(2, pattern.findFirstAll(new CharSequence[] {"foo", "bar", "boo boo"}, offsets));
+    assertArrayEquals(new int[] {1, 3, -1, -1, 1, 3}, offsets);
+  }
+
+}
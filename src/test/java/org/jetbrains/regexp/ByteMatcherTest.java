@@ -0,0 +1,156 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteMatcherTest {
+
+  @Test
+  public void testMatchesAscii() throws Exception {
+    Pattern pattern = Pattern.compile("(A*B|AC)D");
+    assertTrue(pattern.matches(utf8("AAAABD"), 0, 6));
+    assertTrue(pattern.matches(utf8("ACD"), 0, 3));
+    assertFalse(pattern.matches(utf8("AAAAC"), 0, 5));
+  }
+
+  @Test
+  public void testMatchesSlice() throws Exception {
+    Pattern pattern = Pattern.compile("dog");
+    final byte[] bytes = utf8("my dog");
+    assertTrue(pattern.matches(bytes, 3, 3));
+    assertFalse(pattern.matches(bytes, 2, 4));
+  }
+
+  @Test
+  public void testMatchesMultiByteCharacters() throws Exception {
+    Pattern pattern = Pattern.compile("stra[\u00df-\u00e9]e.");
+    assertTrue(pattern.matches(utf8("stra\u00dfe\u20ac")));
+    assertTrue(pattern.matches(utf8("stra\u00e9e\ud83d\ude00")));
+    assertFalse(pattern.matches(utf8("strasse!")));
+    assertFalse(pattern.matches(utf8("stra\u00dfe\u20ac\u20ac")));
+  }
+
+  @Test
+  public void testMatchesNegatedSetOnMultiByteCharacter() throws Exception {
+    Pattern pattern = Pattern.compile("[^a-z]+");
+    assertTrue(pattern.matches(utf8("\u0436\u4e2d\ud83d\ude00")));
+    assertFalse(pattern.matches(utf8("\u0436b")));
+  }
+
+  @Test
+  public void testNestedSetsAgreeWithMatcher() throws Exception {
+    String[] regexps = {"[^a-z&&[^aeiou]]", "[a-z&&[^m-p]\u00e0-\u00ff]", "[^\u0100-\u4e00[0-9]]", "[\u00df[^\u0000-\u00de]&&[^\u20ac]]"};
+    for (String regexp : regexps) {
+      Pattern pattern = Pattern.compile(regexp);
+      for (char c = 0; c < Character.MIN_SURROGATE; c++) {
+        final String text = String.valueOf(c);
+        assertEquals(regexp + " on " + (int) c, pattern.matches(text), pattern.matches(utf8(text)));
+      }
+    }
+  }
+
+  @Test
+  public void testFindAnchored() throws Exception {
+    ByteMatcher matcher = Pattern.compile("\u00e9.$").matcher(utf8("\u00e9a \u00e9\u20ac"));
+    assertTrue(matcher.find());
+    assertEquals(4, matcher.start());
+    assertEquals(9, matcher.end());
+    assertFalse(matcher.find());
+    matcher = Pattern.compile("^\u00e9").matcher(utf8("\u00e9\u00e9"));
+    assertTrue(matcher.find());
+    assertEquals(0, matcher.start());
+    assertFalse(matcher.find());
+  }
+
+  @Test
+  public void testFindReportsByteOffsets() throws Exception {
+    Pattern pattern = Pattern.compile("\u00e9+");
+    final byte[] bytes = utf8("a\u00e9\u00e9b\u00e9");
+    ByteMatcher matcher = pattern.matcher(bytes);
+    assertEquals(list(1, 5, 6, 8), finds(matcher));
+  }
+
+  @Test
+  public void testFindAgreesWithMatcher() throws Exception {
+    String[][] cases = {
+        {"a*", "sasha"},
+        {"dog", "my dog is the best dog"},
+        {".*th.*", "my dog is the best dog"},
+        {"abcd|c", "abcdc"},
+        {"a{2,3}", "aaaaaaa"},
+        {"[0-9&&[^345]]+", "0123456789"}
+    };
+    for (String[] pair : cases) {
+      Pattern pattern = Pattern.compile(pair[0]);
+      Matcher matcher = pattern.matcher(pair[1]);
+      List<Integer> expected = new ArrayList<Integer>();
+      while (matcher.find()) {
+        expected.add(matcher.start());
+        expected.add(matcher.end());
+      }
+      assertEquals(pair[0], expected, finds(pattern.matcher(utf8(pair[1]))));
+    }
+  }
+
+  @Test
+  public void testFindInSlice() throws Exception {
+    Pattern pattern = Pattern.compile("b+");
+    ByteMatcher matcher = pattern.matcher(utf8("bbabbab"), 1, 5);
+    assertEquals(list(1, 2, 3, 5), finds(matcher));
+    matcher.reset();
+    assertTrue(matcher.find());
+    assertEquals(1, matcher.start());
+  }
+
+  @Test
+  public void testFindInDirectBuffer() throws Exception {
+    Pattern pattern = Pattern.compile("b+");
+    ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+    buffer.put(utf8("bbabbab"));
+    buffer.flip();
+    buffer.position(1);
+    assertEquals(list(1, 2, 3, 5, 6, 7), finds(pattern.matcher(buffer)));
+    assertEquals(1, buffer.position());
+    ByteBuffer head = buffer.duplicate();
+    head.limit(2);
+    assertTrue(pattern.matches(head));
+  }
+
+  @Test
+  public void testFindInHeapBufferSlice() throws Exception {
+    Pattern pattern = Pattern.compile("\u00e9+");
+    ByteBuffer whole = ByteBuffer.wrap(utf8("xx\u00e9a\u00e9\u00e9"));
+    whole.position(2);
+    ByteBuffer slice = whole.slice();
+    assertEquals(list(0, 2, 3, 7), finds(pattern.matcher(slice)));
+    assertEquals(list(0, 2, 3, 7), finds(pattern.matcher(slice.asReadOnlyBuffer())));
+  }
+
+  private static List<Integer> finds(ByteMatcher matcher) {
+    List<Integer> offsets = new ArrayList<Integer>();
+    while (matcher.find()) {
+      offsets.add(matcher.start());
+      offsets.add(matcher.end());
+    }
+    return offsets;
+  }
+
+  private static List<Integer> list(Integer... items) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (Integer item : items) list.add(item);
+    return list;
+  }
+
+  private static byte[] utf8(String text) throws Exception {
+    return text.getBytes("UTF-8");
+  }
+
+}
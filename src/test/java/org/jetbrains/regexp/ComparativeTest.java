@@ -96,7 +96,24 @@ public class ComparativeTest {
         {"[a-zA-Z_0-9]", "9"},
         {"[a-zA-Z_0-9]", "A"},
         {"[a-zA-Z_0-9]", "z"},
-        {"[a-zA-Z_0-9]", "_"}
+        {"[a-zA-Z_0-9]", "_"},
+        {"foobar|fob|foo", "foobar fob foo fo"},
+        {"abc|xbc|bc", "abcxbcbc"},
+        {"a|b|[cd]", "abcde"},
+        {"(a*)*b", "aab b"},
+        {"a*a*b", "aab b"},
+        {"()a()", "bab"},
+        {"(ab|ac)*", "abacab"},
+        {"^abc", "abcabc"},
+        {"abc$", "abcabc"},
+        {"^(a|b)*$", "abba"},
+        {"^(a|b)*$", "abca"},
+        {"a*$", "baaa"},
+        {"^a*", "aab"},
+        {"\\Aab?\\z", "ab"},
+        {"[$^]x", "a$x^x"},
+        {"[^^]", "^a^"},
+        {"x?$", "abx"}
     });
   }
 
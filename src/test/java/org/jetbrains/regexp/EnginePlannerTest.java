@@ -0,0 +1,126 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.graphs.EpsilonTransitionsGraph;
+import org.jetbrains.regexp.parser.RegexParser;
+import org.jetbrains.regexp.parser.TokenOptimizer;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EnginePlannerTest {
+
+  private static final String[] TEXTS = {"", "a", "ab", "abb", "aabb", "babababb", "hello", "hell", "helloo",
+      "cat", "car", "dog", "cab", "color", "colour", "colouur", "xéy", "ééé", "abc", "b"};
+
+  private static NfaProgram program(String regexp) throws Exception {
+    final Token[] tokens = new TokenOptimizer(new RegexParser(regexp).getTokens()).getTokens();
+    return new NfaProgram(tokens, new EpsilonTransitionsGraph(tokens));
+  }
+
+  private static String repeat(String string, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(string);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testClassification() throws Exception {
+    assertEquals(Engine.LITERAL, Pattern.compile("hello").engine());
+    assertEquals(Engine.LITERAL, Pattern.compile("(ab)(cd)").engine());
+    assertEquals(Engine.LITERAL_SET, Pattern.compile("cat|car|dog").engine());
+    assertEquals(Engine.LITERAL_SET, Pattern.compile("colou?r").engine());
+    assertEquals(Engine.BIT_PARALLEL, Pattern.compile("(a|b)*abb").engine());
+    assertEquals(Engine.BIT_PARALLEL, Pattern.compile("[a-z]+").engine());
+    assertEquals(Engine.DFA, Pattern.compile("[a-z]{80}").engine());
+    assertEquals(Engine.NFA, Pattern.compile("(ab?){1000}").engine());
+  }
+
+  @Test
+  public void testCaseInsensitiveIsNotLiteral() throws Exception {
+    final Pattern pattern = Pattern.compile("hello", Pattern.CASE_INSENSITIVE);
+    assertEquals(Engine.LITERAL_SET, pattern.engine());
+    assertTrue(pattern.matches("HeLLo"));
+    assertEquals(Engine.BIT_PARALLEL, Pattern.compile("h[a-z]llo", Pattern.CASE_INSENSITIVE).engine());
+  }
+
+  @Test
+  public void testEnginesAgreeWithNfa() throws Exception {
+    String[] patterns = {"hello", "cat|car|dog", "colou?r", "(a|b)*abb", "a{2,4}b?", "[a-c&&[^b]]+x", ".*é.*",
+        "(ab|a)(bc|c)?", "[ab]*a[ab]{70}", "()"};
+    for (String regexp : patterns) {
+      final Pattern pattern = Pattern.compile(regexp);
+      final NfaProgram program = program(regexp);
+      for (String text : TEXTS) {
+        boolean expected = new NfaScanner(program).matches(text, 0, text.length());
+        assertEquals(regexp + " (" + pattern.engine() + ") on " + text, expected, pattern.matches(text));
+        assertEquals(regexp + " (" + pattern.engine() + ") on a builder of " + text, expected,
+            pattern.matches(new StringBuilder(text)));
+      }
+    }
+  }
+
+  @Test
+  public void testLiteralContains() throws Exception {
+    assertTrue(Pattern.compile("ll").containsMatchIn("hello"));
+    assertFalse(Pattern.compile("lo!").containsMatchIn("hello"));
+    assertTrue(Pattern.compile("^he").containsMatchIn("hello"));
+    assertFalse(Pattern.compile("^el").containsMatchIn("hello"));
+    assertTrue(Pattern.compile("lo$").containsMatchIn("hello"));
+    assertFalse(Pattern.compile("ll$").containsMatchIn("hello"));
+    assertTrue(Pattern.compile("^hello$").containsMatchIn("hello"));
+    assertFalse(Pattern.compile("^hell$").containsMatchIn("hello"));
+    assertTrue(Pattern.compile("()").containsMatchIn(""));
+    assertFalse(Pattern.compile("hello").containsMatchIn("hell"));
+  }
+
+  @Test
+  public void testHotPatternMovesToDfa() throws Exception {
+    final Pattern pattern = Pattern.compile("(a|b)*abb");
+    for (int i = 0; i < EnginePlanner.HOT_CALLS; i++) {
+      assertEquals(Engine.BIT_PARALLEL, pattern.engine());
+      assertTrue(pattern.matches("babababb"));
+    }
+    assertEquals(Engine.DFA, pattern.engine());
+    assertTrue(pattern.matches("babababb"));
+    assertFalse(pattern.matches("bababab"));
+  }
+
+  @Test
+  public void testThrashingDfaIsDropped() throws Exception {
+    final String regexp = "[ab]*a[ab]{70}";
+    final EnginePlanner planner = new EnginePlanner(program(regexp), 3000);
+    assertEquals(Engine.DFA, planner.engine());
+    final String matching = repeat("ba", 40);
+    for (int i = 0; i < EnginePlanner.THRASH_MISSES; i++) {
+      assertEquals(Engine.DFA, planner.engine());
+      assertTrue(planner.matches(matching, null, null));
+    }
+    assertEquals(Engine.NFA, planner.engine());
+    assertTrue(planner.matches(matching, null, null));
+    assertFalse(planner.matches(repeat("b", 80), null, null));
+  }
+
+  @Test
+  public void testThrashingSmallPatternGoesBackToBitParallel() throws Exception {
+    final EnginePlanner planner = new EnginePlanner(program("[ab]*a[ab]{20}"), 3000);
+    final String matching = repeat("ab", 20) + "a";
+    for (int i = 0; i < EnginePlanner.HOT_CALLS; i++) {
+      assertTrue(planner.matches(matching, null, null));
+    }
+    assertEquals(Engine.DFA, planner.engine());
+    for (int i = 0; i < EnginePlanner.THRASH_MISSES; i++) {
+      assertTrue(planner.matches(matching, null, null));
+    }
+    assertEquals(Engine.BIT_PARALLEL, planner.engine());
+    for (int i = 0; i < EnginePlanner.HOT_CALLS; i++) {
+      assertTrue(planner.matches(matching, null, null));
+    }
+    assertEquals(Engine.BIT_PARALLEL, planner.engine());
+  }
+
+}
@@ -3,8 +3,18 @@ package org.jetbrains.regexp;
 import org.jetbrains.utils.TestUtils;
 import org.junit.Test;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
 import static org.jetbrains.utils.TestUtils.list;
 import static org.jetbrains.utils.TestUtils.testMatches;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class FindTest {
 
@@ -51,5 +61,193 @@ public class FindTest {
     ));
   }
 
-  
+  @Test
+  public void testFindInStringBuilder() throws Exception {
+    Pattern pattern = Pattern.compile("dog");
+    Matcher matcher = pattern.matcher(new StringBuilder("my dog is the best dog"));
+    testMatches(matcher, 2);
+  }
+
+  @Test
+  public void testFindInRegion() throws Exception {
+    Pattern pattern = Pattern.compile("a+");
+    Matcher matcher = pattern.matcher(CharBuffer.wrap("aabaaab")).region(1, 5);
+    assertTrue(matcher.find());
+    assertEquals(1, matcher.start());
+    assertEquals(2, matcher.end());
+    assertTrue(matcher.find());
+    assertEquals(3, matcher.start());
+    assertEquals(5, matcher.end());
+    assertFalse(matcher.find());
+  }
+
+  @Test
+  public void testMatchesRegion() throws Exception {
+    Pattern pattern = Pattern.compile("b.*");
+    Matcher matcher = pattern.matcher("aabaaab").region(2, 6);
+    assertTrue(matcher.matches());
+    assertEquals(2, matcher.start());
+    assertEquals(6, matcher.end());
+    assertEquals("baaa", matcher.group());
+    assertFalse(matcher.region(1, 6).matches());
+  }
+
+  @Test
+  public void testGroupViewFollowsMatcher() throws Exception {
+    Pattern pattern = Pattern.compile("[a-z]+");
+    Matcher matcher = pattern.matcher("my dog");
+    assertTrue(matcher.find());
+    final CharSequence view = matcher.groupView();
+    assertEquals("my", view.toString());
+    assertTrue(matcher.find());
+    assertSame(view, matcher.groupView());
+    assertEquals(3, view.length());
+    assertEquals('g', view.charAt(2));
+    assertEquals("og", view.subSequence(1, 3).toString());
+  }
+
+  @Test
+  public void testCountAgreesWithFind() throws Exception {
+    String[][] cases = {
+        {"dog", "my dog is the best dog"},
+        {"a*", "sasha"},
+        {".*th.*", "my dog is the best dog"},
+        {"abcd|c", "abcdc"},
+        {"a{2,3}", "aaaaaaa"}
+    };
+    for (String[] pair : cases) {
+      Pattern pattern = Pattern.compile(pair[0]);
+      Matcher matcher = pattern.matcher(pair[1]);
+      int found = 0;
+      while (matcher.find()) found++;
+      assertEquals(pair[0], found, pattern.matcher(pair[1]).count());
+    }
+  }
+
+  @Test
+  public void testCountInRegion() throws Exception {
+    Pattern pattern = Pattern.compile("b+");
+    assertEquals(2, pattern.matcher("bbabbab").region(1, 5).count());
+  }
+
+  @Test
+  public void testContainsMatchIn() throws Exception {
+    Pattern pattern = Pattern.compile("be[a-z]t");
+    assertTrue(pattern.containsMatchIn("my dog is the best dog"));
+    assertFalse(pattern.containsMatchIn("my dog is the bet dog"));
+    assertTrue(Pattern.compile("x*").containsMatchIn(""));
+  }
+
+  @Test
+  public void testLazyFindAgreesWithMatch() throws Exception {
+    String[][] cases = {
+        {"dog", "my dog is the best dog"},
+        {"a*", "sasha"},
+        {"abcd|c", "abcdc"},
+        {"(ab|a)(bc|c)?", "abcabcab"}
+    };
+    for (String[] pair : cases) {
+      Pattern pattern = Pattern.compile(pair[0]);
+      Matcher lazy = pattern.matcher(pair[1]);
+      Matcher eager = pattern.matcher(pair[1]);
+      eager.match(false);
+      Iterator<Match> results = pattern.matcher(pair[1]).results();
+      while (eager.find()) {
+        assertTrue(lazy.find());
+        assertEquals(pair[0], eager.start(), lazy.start());
+        assertEquals(pair[0], eager.end(), lazy.end());
+        Match match = results.next();
+        assertEquals(pair[0], eager.start(), match.start());
+        assertEquals(pair[0], eager.group(), match.group());
+      }
+      assertFalse(lazy.find());
+      assertFalse(results.hasNext());
+      assertEquals(eager.end(), lazy.end());
+    }
+  }
+
+  @Test
+  public void testFindAll() throws Exception {
+    List<String> found = new ArrayList<String>();
+    for (Match match : Pattern.compile("[0-9]+").findAll("1 and 22 or 333")) {
+      found.add(match.group());
+    }
+    assertEquals(Arrays.asList("1", "22", "333"), found);
+  }
+
+  @Test
+  public void testForEachMatch() throws Exception {
+    final List<Integer> bounds = new ArrayList<Integer>();
+    int reported = Pattern.compile("dog").forEachMatch("my dog is the best dog", new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        bounds.add(start);
+        bounds.add(end);
+        return true;
+      }
+    });
+    assertEquals(2, reported);
+    assertEquals(Arrays.asList(3, 6, 19, 22), bounds);
+  }
+
+  @Test
+  public void testForEachMatchStops() throws Exception {
+    Matcher matcher = Pattern.compile("a").matcher("banana").region(2, 6);
+    int reported = matcher.forEachMatch(new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        assertEquals(3, start);
+        return false;
+      }
+    });
+    assertEquals(1, reported);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStartWithoutMatch() throws Exception {
+    Matcher matcher = Pattern.compile("x").matcher("abc");
+    assertFalse(matcher.find());
+    matcher.start();
+  }
+
+  @Test
+  public void testFindAnchoredAtStart() throws Exception {
+    Pattern pattern = Pattern.compile("^ab");
+    testMatches(pattern.matcher("ababab"), 1);
+    assertEquals(1, pattern.matcher("ababab").count());
+    assertFalse(pattern.containsMatchIn("xab"));
+    Matcher matcher = pattern.matcher("xabab").region(1, 5);
+    assertTrue(matcher.find());
+    assertEquals(1, matcher.start());
+    assertFalse(matcher.find());
+  }
+
+  @Test
+  public void testFindAnchoredAtEnd() throws Exception {
+    Pattern pattern = Pattern.compile("a+b?$");
+    Matcher matcher = pattern.matcher("aab aab");
+    assertTrue(matcher.find());
+    assertEquals(4, matcher.start());
+    assertEquals(7, matcher.end());
+    assertFalse(matcher.find());
+    assertTrue(pattern.containsMatchIn("xxab"));
+    assertFalse(pattern.containsMatchIn("xxabx"));
+    Matcher eager = pattern.matcher("aab aab");
+    eager.match(false);
+    testMatches(eager, 1);
+  }
+
+  @Test
+  public void testFindBoundedAnchoredAtEnd() throws Exception {
+    Pattern pattern = Pattern.compile("(ab|c)d?$");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("abd");
+    }
+    Matcher matcher = pattern.matcher(text);
+    assertTrue(matcher.find());
+    assertEquals(text.length() - 3, matcher.start());
+    assertEquals(1, pattern.matcher(text).count());
+  }
+
 }
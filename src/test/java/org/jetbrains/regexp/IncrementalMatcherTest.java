@@ -0,0 +1,145 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalMatcherTest {
+
+  private static List<String> expected(Pattern pattern, CharSequence text) {
+    List<String> found = new ArrayList<String>();
+    Matcher matcher = pattern.matcher(text.toString());
+    while (matcher.find()) {
+      found.add(matcher.start() + "," + matcher.end());
+    }
+    return found;
+  }
+
+  private static List<String> actual(IncrementalMatcher matcher) {
+    List<String> found = new ArrayList<String>();
+    for (int i = 0; i < matcher.matchCount(); i++) {
+      found.add(matcher.start(i) + "," + matcher.end(i));
+    }
+    return found;
+  }
+
+  @Test
+  public void testEdits() throws Exception {
+    Pattern pattern = Pattern.compile("dog");
+    IncrementalMatcher matcher = pattern.incrementalMatcher("my dog is the best dog");
+    assertEquals(2, matcher.matchCount());
+    matcher.replace(3, 6, "cat");
+    assertEquals(1, matcher.matchCount());
+    assertEquals("dog", matcher.group(0));
+    assertEquals(19, matcher.start(0));
+    matcher.insert(0, "dog, ");
+    assertEquals(expected(pattern, matcher.text()), actual(matcher));
+    matcher.delete(0, matcher.text().length());
+    assertEquals(0, matcher.matchCount());
+  }
+
+  @Test
+  public void testRandomEditsAgreeWithFind() throws Exception {
+    String[] patterns = {"ab", "a*", "(ab|a)(bc|c)?", "b[ac]+b", "a.*c", "^ab", "bc?$", "(a|b)*abb"};
+    Random random = new Random(7);
+    for (String regexp : patterns) {
+      Pattern pattern = Pattern.compile(regexp);
+      for (int round = 0; round < 20; round++) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(60); i > 0; i--) {
+          text.append((char) ('a' + random.nextInt(4)));
+        }
+        IncrementalMatcher matcher = pattern.incrementalMatcher(text, 1 + random.nextInt(8));
+        assertEquals(regexp, expected(pattern, text), actual(matcher));
+        for (int edit = 0; edit < 30; edit++) {
+          final int start = random.nextInt(matcher.text().length() + 1);
+          final int end = start + random.nextInt(Math.min(4, matcher.text().length() - start) + 1);
+          StringBuilder replacement = new StringBuilder();
+          for (int i = random.nextInt(4); i > 0; i--) {
+            replacement.append((char) ('a' + random.nextInt(4)));
+          }
+          final String before = matcher.text().toString();
+          matcher.replace(start, end, replacement);
+          assertEquals(regexp + " on " + before + " replacing " + start + "," + end + " with " + replacement,
+              expected(pattern, matcher.text()), actual(matcher));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEditAtStartOfAnchoredPattern() throws Exception {
+    Pattern pattern = Pattern.compile("^a*");
+    IncrementalMatcher matcher = pattern.incrementalMatcher("ca");
+    matcher.delete(0, 1);
+    assertEquals(expected(pattern, "a"), actual(matcher));
+    matcher = pattern.incrementalMatcher("c");
+    matcher.delete(0, 1);
+    assertEquals(expected(pattern, ""), actual(matcher));
+    matcher.insert(0, "aab");
+    assertEquals(expected(pattern, "aab"), actual(matcher));
+  }
+
+  @Test
+  public void testWorkProportionalToEdit() throws Exception {
+    Pattern pattern = Pattern.compile("[0-9]+(\\.[0-9]+)?");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      text.append("x = ").append(i).append(".5; ");
+    }
+    IncrementalMatcher matcher = pattern.incrementalMatcher(text);
+    final int matches = matcher.matchCount();
+    final int middle = text.length() / 2;
+    matcher.insert(middle, "42 ");
+    assertTrue(String.valueOf(matcher.lastScanned()), matcher.lastScanned() < 100);
+    assertEquals(matches + 1, matcher.matchCount());
+    matcher.delete(middle, middle + 3);
+    assertTrue(String.valueOf(matcher.lastScanned()), matcher.lastScanned() < 100);
+    assertEquals(matches, matcher.matchCount());
+  }
+
+  @Test
+  public void testCheckpointsWithoutMatches() throws Exception {
+    Pattern pattern = Pattern.compile("a+b");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      text.append("ac");
+    }
+    IncrementalMatcher matcher = pattern.incrementalMatcher(text);
+    assertEquals(0, matcher.matchCount());
+    matcher.replace(50001, 50002, "b");
+    assertTrue(String.valueOf(matcher.lastScanned()), matcher.lastScanned() < 2 * IncrementalMatcher.DEFAULT_CHECKPOINT_INTERVAL);
+    assertEquals(1, matcher.matchCount());
+    assertEquals(50000, matcher.start(0));
+    assertEquals(expected(pattern, matcher.text()), actual(matcher));
+  }
+
+  @Test(timeout = 10000)
+  public void testTypingInLongDocument() throws Exception {
+    Pattern pattern = Pattern.compile("fox|dog");
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 4000000) {
+      text.append("the quick brown fox jumps over the lazy dog ");
+    }
+    IncrementalMatcher matcher = pattern.incrementalMatcher(text);
+    final int matches = matcher.matchCount();
+    final int middle = text.length() / 2;
+    // a copy of the matches after every keystroke would be 100000 matches times 3000 edits
+    for (int i = 0; i < 3000; i++) {
+      matcher.insert(middle + i, i % 2 == 0 ? "d" : "o");
+    }
+    matcher.insert(0, "dog ");
+    assertEquals(matches + 1, matcher.matchCount());
+    assertEquals(middle + 4, matcher.text().toString().indexOf("dodo"));
+    for (int i = 3000; i > 0; i -= 2) {
+      matcher.replace(middle + 4 + i - 2, middle + 4 + i, "g ");
+    }
+    assertEquals(expected(pattern, matcher.text()), actual(matcher));
+  }
+
+}
@@ -0,0 +1,130 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntSymbolTest {
+
+  private static final String[] PATTERNS = {"hello", "cat|car|dog", "(a|b)*abb", "[a-z]+", "[a-c]{70}", "a.c",
+      "[^x]*", "(ab?){300}", "^ab", "b$"};
+  private static final String[] TEXTS = {"", "hello", "car", "dog", "ababb", "abb", "xyz", "abc", "aéc",
+      "ab", "aab", "bb", "xx"};
+
+  private static int[] symbols(String text) {
+    int[] symbols = new int[text.length()];
+    for (int i = 0; i < text.length(); i++) {
+      symbols[i] = text.charAt(i);
+    }
+    return symbols;
+  }
+
+  private static String repeat(String string, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(string);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testAgreesWithCharacters() throws Exception {
+    List<String> texts = new ArrayList<String>();
+    for (String text : TEXTS) {
+      texts.add(text);
+    }
+    texts.add(repeat("abc", 24).substring(0, 70));
+    texts.add(repeat("ab", 300));
+    for (String regexp : PATTERNS) {
+      final Pattern pattern = Pattern.compile(regexp);
+      // enough calls for the planner to move the small patterns to the DFA
+      for (int round = 0; round < 30; round++) {
+        for (String text : texts) {
+          assertEquals(regexp + " on " + text, pattern.matches(text), pattern.matches(symbols(text)));
+          assertEquals(regexp + " in " + text, pattern.containsMatchIn(text), pattern.containsMatchIn(symbols(text)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSymbolsAboveCharacters() throws Exception {
+    final Pattern pattern = Pattern.compile("\\x{10001}(\\x{10002}|b)*\\x{7fffffff}");
+    assertTrue(pattern.matches(new int[]{0x10001, 0x10002, 'b', 0x10002, Integer.MAX_VALUE}));
+    assertTrue(pattern.matches(new int[]{0x10001, Integer.MAX_VALUE}));
+    assertFalse(pattern.matches(new int[]{0x10001, 0x10003, Integer.MAX_VALUE}));
+    assertFalse(pattern.matches(new int[]{0x0001, Integer.MAX_VALUE}));
+    assertFalse(pattern.matches("\u0001b"));
+    final Pattern any = Pattern.compile("a.[^\\x{20000}]");
+    assertTrue(any.matches(new int[]{'a', 1 << 30, 0x20001}));
+    assertFalse(any.matches(new int[]{'a', 1 << 30, 0x20000}));
+    assertTrue(any.matches(new int[]{'a', -5, -6}));
+  }
+
+  @Test
+  public void testCodePointsAboveCharactersMatchTexts() throws Exception {
+    final String emoji = new String(Character.toChars(0x1F600));
+    for (String regexp : new String[]{"\\x{1F600}", "[a\\x{1F600}]", "\\x{1F600}+"}) {
+      final Pattern pattern = Pattern.compile(regexp);
+      assertEquals(regexp, java.util.regex.Pattern.compile(regexp).matcher(emoji).matches(), pattern.matches(emoji));
+      assertTrue(regexp, pattern.matches(new int[]{0x1F600}));
+      assertTrue(regexp, pattern.matches(java.nio.ByteBuffer.wrap(emoji.getBytes("UTF-8"))));
+      assertFalse(regexp, pattern.matches(new String(Character.toChars(0x1F601))));
+    }
+    assertTrue(Pattern.compile("[a\\x{1F600}]{2}").matches("a" + emoji));
+    assertTrue(Pattern.compile("x\\x{1F600}").containsMatchIn("ax" + emoji + "b"));
+  }
+
+  @Test
+  public void testRange() throws Exception {
+    final Pattern pattern = Pattern.compile("ab+");
+    final int[] symbols = {7, 'a', 'b', 'b', 7};
+    assertTrue(pattern.matches(symbols, 1, 3));
+    assertFalse(pattern.matches(symbols, 0, 4));
+    try {
+      pattern.matches(symbols, 3, 3);
+      throw new AssertionError();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  @Test
+  public void testForEachMatch() throws Exception {
+    final Pattern pattern = Pattern.compile("\\x{30000}\\x{30001}+");
+    final int[] events = {0x30000, 0x30001, 0x30001, 5, 0x30000, 0x30000, 0x30001, 0x30001, 0x30001};
+    final List<String> matches = new ArrayList<String>();
+    final int count = pattern.forEachMatch(events, new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        matches.add(start + "-" + end);
+        return true;
+      }
+    });
+    assertEquals(2, count);
+    assertEquals("[0-3, 5-9]", matches.toString());
+  }
+
+  @Test
+  public void testSequence() throws Exception {
+    final IntSequence evens = new IntSequence() {
+      @Override
+      public int length() {
+        return 1000;
+      }
+
+      @Override
+      public int symbolAt(int index) {
+        return 2 * index;
+      }
+    };
+    assertTrue(Pattern.compile("\\x{0}.*\\x{7ce}").matches(evens));
+    assertTrue(Pattern.compile("\\x{64}\\x{66}").containsMatchIn(evens));
+    assertFalse(Pattern.compile("\\x{64}\\x{68}").containsMatchIn(evens));
+  }
+
+}
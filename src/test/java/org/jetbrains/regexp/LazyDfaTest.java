@@ -0,0 +1,99 @@
+package org.jetbrains.regexp;
+
+import org.jetbrains.graphs.EpsilonTransitionsGraph;
+import org.jetbrains.regexp.parser.RegexParser;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LazyDfaTest {
+
+  private static NfaProgram program(String regexp) throws Exception {
+    final Token[] tokens = new RegexParser(regexp).getTokens();
+    return new NfaProgram(tokens, new EpsilonTransitionsGraph(tokens));
+  }
+
+  @Test
+  public void testAgreesWithNfa() throws Exception {
+    String[] patterns = {"(a|b)*abb", "a{2,4}b?", "[a-c&&[^b]]+x", ".*é.*", "(ab|a)(bc|c)?"};
+    String[] texts = {"", "abb", "aabb", "babababb", "aab", "aaaaab", "acx", "abx", "xéy", "abc", "ac"};
+    for (String pattern : patterns) {
+      NfaProgram program = program(pattern);
+      LazyDfa dfa = new LazyDfa(program, LazyDfa.DEFAULT_MEMORY_LIMIT);
+      for (String text : texts) {
+        boolean expected = new NfaScanner(program).matches(text, 0, text.length());
+        assertEquals(pattern + " on " + text, expected ? 1 : 0, dfa.matches(text, 0, text.length(), null));
+      }
+    }
+  }
+
+  @Test
+  public void testStatesAreReused() throws Exception {
+    LazyDfa dfa = new LazyDfa(program("(a|b)*abb"), LazyDfa.DEFAULT_MEMORY_LIMIT);
+    assertEquals(1, dfa.matches("abababb", 0, 7, null));
+    final int states = dfa.stateCount();
+    assertEquals(1, dfa.matches("babbabb", 0, 7, null));
+    assertEquals(states, dfa.stateCount());
+  }
+
+  @Test
+  public void testSymbolsAboveCachedOnesShareAScratch() throws Exception {
+    LazyDfa dfa = new LazyDfa(program("[а-я]+ [0-9]+"), LazyDfa.DEFAULT_MEMORY_LIMIT);
+    final DfaScratch scratch = dfa.newScratch();
+    assertEquals(1, dfa.matches("привет 42", 0, 9, scratch));
+    final int states = dfa.stateCount();
+    assertEquals(1, dfa.matches("мир 7", 0, 5, scratch));
+    assertEquals(0, dfa.matches("мир x", 0, 5, scratch));
+    final int[] symbols = {'д', 'а', ' ', '1'};
+    assertEquals(1, dfa.matches(new IntArraySequence(symbols, 0, symbols.length), 0, symbols.length, null));
+    assertEquals(states + 1, dfa.stateCount());
+  }
+
+  @Test
+  public void testMemoryLimit() throws Exception {
+    NfaProgram program = program("(a|b)*a(a|b)(a|b)(a|b)");
+    LazyDfa dfa = new LazyDfa(program, 3000);
+    assertEquals(LazyDfa.UNKNOWN, dfa.matches("abbbaaabab", 0, 10, null));
+    assertTrue(dfa.memoryUsed() <= 3000);
+    assertTrue(Pattern.compile("(a|b)*a(a|b)(a|b)(a|b)").matches("abbbaaabab"));
+  }
+
+  @Test
+  public void testSharedByThreads() throws Exception {
+    final Pattern pattern = Pattern.compile("[a-z]+@[a-z]+\\.(com|org)");
+    final String[] texts = {"me@here.com", "you@there.org", "no@where.net", "@x.com", "a@b.org"};
+    final boolean[] expected = {true, true, false, false, true};
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 32; t++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            for (int i = 0; i < 1000; i++) {
+              if (pattern.matches(texts[i % texts.length]) != expected[i % texts.length]) {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,248 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LexerTest {
+
+  private static final String[] NAMES = {"if", "else", "id", "number", "space", "op"};
+  private static final String[] RULES = {"if", "else", "[a-z_][a-z0-9_]*", "[0-9]+", "[ \n]+", "==|=|\\+|\\-|\\("};
+
+  private static List<String> tokens(final Lexer lexer, String text) {
+    final List<String> tokens = new ArrayList<String>();
+    lexer.tokenize(text, new Collector(lexer, tokens));
+    return tokens;
+  }
+
+  private static List<String> streamed(final Lexer lexer, String text, int chunk) throws IOException {
+    final List<String> tokens = new ArrayList<String>();
+    lexer.tokenize(new ChunkedReader(text, chunk), new Collector(lexer, tokens));
+    return tokens;
+  }
+
+  /**
+   * the longest prefix any rule matches, the first of the rules matching it, tried with every rule and prefix
+   */
+  private static List<String> bruteForce(String[] regexps, String text) throws Exception {
+    Pattern[] patterns = new Pattern[regexps.length];
+    for (int rule = 0; rule < regexps.length; rule++) {
+      patterns[rule] = Pattern.compile(regexps[rule]);
+    }
+    List<String> tokens = new ArrayList<String>();
+    int position = 0;
+    while (position < text.length()) {
+      int rule = Lexer.NO_RULE;
+      int end = position + 1;
+      for (int prefixEnd = text.length(); prefixEnd > position && rule == Lexer.NO_RULE; prefixEnd--) {
+        for (int candidate = 0; candidate < patterns.length; candidate++) {
+          if (patterns[candidate].matches(text.substring(position, prefixEnd))) {
+            rule = candidate;
+            end = prefixEnd;
+            break;
+          }
+        }
+      }
+      tokens.add(rule + ":" + text.substring(position, end));
+      position = end;
+    }
+    return tokens;
+  }
+
+  @Test
+  public void testLongestMatchAndPriority() throws Exception {
+    final Lexer lexer = Lexer.compile(NAMES, RULES);
+    assertEquals(6, lexer.ruleCount());
+    List<String> expected = new ArrayList<String>();
+    for (String token : new String[]{"if:if", "space: ", "op:(", "id:ifx", "op:==", "number:42", "space: ",
+        "else:else", "space: ", "id:elsewhere", "op:=", "id:x1", "op:+", "number:7"}) {
+      expected.add(token);
+    }
+    assertEquals(expected, tokens(lexer, "if (ifx==42 else elsewhere=x1+7"));
+  }
+
+  @Test
+  public void testUnmatchedCharacters() throws Exception {
+    final Lexer lexer = Lexer.compile(NAMES, RULES);
+    List<String> expected = new ArrayList<String>();
+    for (String token : new String[]{"id:a", "null:#", "null:#", "number:1", "null:!"}) {
+      expected.add(token);
+    }
+    assertEquals(expected, tokens(lexer, "a##1!"));
+  }
+
+  @Test
+  public void testEmptyMatchesMakeNoTokens() throws Exception {
+    final Lexer lexer = Lexer.compile(new String[]{"as", "b"}, new String[]{"a*", "b"});
+    List<String> expected = new ArrayList<String>();
+    for (String token : new String[]{"as:aa", "b:b", "null:c", "as:a"}) {
+      expected.add(token);
+    }
+    assertEquals(expected, tokens(lexer, "aabca"));
+  }
+
+  @Test
+  public void testAgreesWithBruteForce() throws Exception {
+    final String[][] ruleSets = {
+        {"ab", "a", "b+", "(ab)*c"},
+        {"a(b|c)*d", "[a-c]+", "d"},
+        {"x?y", "xx", "[xy]"},
+        {"(aa|b)*", "a", "ba+"},
+    };
+    final Random random = new Random(7);
+    for (String[] rules : ruleSets) {
+      final Lexer lexer = Lexer.compile(new String[rules.length], rules);
+      for (int n = 0; n < 50; n++) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(20); i > 0; i--) {
+          text.append("abcdxyz".charAt(random.nextInt(7)));
+        }
+        List<String> actual = new ArrayList<String>();
+        lexer.tokenize(text, new Collector(null, actual));
+        assertEquals(text.toString(), bruteForce(rules, text.toString()), actual);
+      }
+    }
+  }
+
+  @Test
+  public void testStreamAgreesWithString() throws Exception {
+    final Lexer lexer = Lexer.compile(NAMES, RULES);
+    StringBuilder text = new StringBuilder();
+    final Random random = new Random(3);
+    final String[] words = {"if", "else", "x", "foo_bar", "12345", " ", "\n", "==", "#", "a_very_long_identifier"};
+    while (text.length() < 30000) {
+      text.append(words[random.nextInt(words.length)]);
+    }
+    // a token longer than the buffer
+    for (int i = 0; i < 20000; i++) {
+      text.append('z');
+    }
+    text.append(" 1");
+    final List<String> expected = tokens(lexer, text.toString());
+    for (int chunk : new int[]{1, 7, 4096, 100000}) {
+      assertEquals(expected, streamed(lexer, text.toString(), chunk));
+    }
+  }
+
+  @Test
+  public void testPositionsAreAbsolute() throws Exception {
+    final Lexer lexer = Lexer.compile(NAMES, RULES);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      text.append("ab ");
+    }
+    final List<String> positions = new ArrayList<String>();
+    lexer.tokenize(new ChunkedReader(text.toString(), 100), new LexerCallback() {
+      @Override
+      public boolean onToken(int rule, CharSequence text, int start, int end) {
+        if (start % 3000 == 0) {
+          positions.add(start + "-" + end + ":" + text.subSequence(start, end));
+        }
+        return true;
+      }
+    });
+    assertEquals(5, positions.size());
+    assertEquals("12000-12002:ab", positions.get(4));
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    final Lexer lexer = Lexer.compile(NAMES, RULES);
+    final int[] seen = {0};
+    final int count = lexer.tokenize("a b c d e", new LexerCallback() {
+      @Override
+      public boolean onToken(int rule, CharSequence text, int start, int end) {
+        return ++seen[0] < 3;
+      }
+    });
+    assertEquals(3, count);
+    assertEquals(3, seen[0]);
+  }
+
+  @Test
+  public void testOutOfMemoryFallsBackToTheNfa() throws Exception {
+    final String[] rules = {"[ab]*a[ab]{6}", "[ab]", "c"};
+    final Lexer bounded = Lexer.compile(new String[rules.length], rules, 0, 0);
+    final Lexer unbounded = Lexer.compile(new String[rules.length], rules);
+    final Random random = new Random(11);
+    for (int n = 0; n < 20; n++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        text.append("abc".charAt(random.nextInt(3)));
+      }
+      assertEquals(tokens(unbounded, text.toString()), tokens(bounded, text.toString()));
+    }
+  }
+
+  @Test
+  public void testCaseInsensitive() throws Exception {
+    final Lexer lexer = Lexer.compile(new String[]{"kw", "id"}, new String[]{"select", "[a-z]+"},
+        Pattern.CASE_INSENSITIVE);
+    List<String> expected = new ArrayList<String>();
+    for (String token : new String[]{"kw:SeLeCt", "null: ", "id:Name"}) {
+      expected.add(token);
+    }
+    assertEquals(expected, tokens(lexer, "SeLeCt Name"));
+  }
+
+  @Test
+  public void testAnchoredRulesAreRejected() throws Exception {
+    try {
+      Lexer.compile(new String[]{"a", "b"}, new String[]{"a", "^b"});
+      fail();
+    } catch (ParseException e) {
+      assertEquals(1, e.getErrorOffset());
+    }
+  }
+
+  private static final class Collector implements LexerCallback {
+
+    private final Lexer lexer;
+    private final List<String> tokens;
+
+    private Collector(Lexer lexer, List<String> tokens) {
+      this.lexer = lexer;
+      this.tokens = tokens;
+    }
+
+    @Override
+    public boolean onToken(int rule, CharSequence text, int start, int end) {
+      tokens.add((lexer == null ? Integer.toString(rule) : lexer.name(rule)) + ":" + text.subSequence(start, end));
+      return true;
+    }
+  }
+
+  /**
+   * a reader giving at most a few characters per read, like a socket would
+   */
+  private static final class ChunkedReader extends Reader {
+
+    private final Reader reader;
+    private final int chunk;
+
+    private ChunkedReader(String text, int chunk) {
+      this.reader = new StringReader(text);
+      this.chunk = chunk;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      return reader.read(buffer, offset, Math.min(length, chunk));
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+}
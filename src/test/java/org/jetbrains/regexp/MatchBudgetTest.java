@@ -0,0 +1,93 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MatchBudgetTest {
+
+  private static String repeat(String part, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(part);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testEnoughBudget() throws Exception {
+    Matcher matcher = Pattern.compile("dog").matcher("my dog is the best dog").budget(MatchBudget.ofSteps(1000));
+    assertEquals(2, matcher.count());
+    assertTrue(matcher.find());
+    assertEquals(3, matcher.start());
+  }
+
+  @Test
+  public void testStepsExceededInFind() throws Exception {
+    Matcher matcher = Pattern.compile("(a|aa)*b").matcher(repeat("a", 1000)).budget(MatchBudget.ofSteps(500));
+    try {
+      matcher.find();
+      fail();
+    } catch (BudgetExceededException e) {
+      assertEquals(BudgetExceededException.Reason.STEPS, e.getReason());
+      assertTrue(e.getPosition() > 0 && e.getPosition() < 1000);
+      assertTrue(e.getSteps() > 500);
+    }
+  }
+
+  @Test
+  public void testStepsAreSharedByAllCalls() throws Exception {
+    Matcher matcher = Pattern.compile("ab").matcher(repeat("ab", 100)).budget(MatchBudget.ofSteps(500));
+    assertEquals(100, matcher.count());
+    try {
+      matcher.count();
+      fail();
+    } catch (BudgetExceededException e) {
+      assertEquals(BudgetExceededException.Reason.STEPS, e.getReason());
+    }
+  }
+
+  @Test(expected = BudgetExceededException.class)
+  public void testStepsExceededInMatches() throws Exception {
+    Pattern.compile("a*b").matcher(repeat("a", 100)).budget(MatchBudget.ofSteps(50)).matches();
+  }
+
+  @Test(expected = BudgetExceededException.class)
+  public void testStepsExceededInMatch() throws Exception {
+    Pattern.compile("a*b").matcher(repeat("a", 100)).budget(MatchBudget.ofSteps(50)).match(false);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    MatchBudget budget = MatchBudget.ofTime(1, TimeUnit.NANOSECONDS).checkingEvery(1);
+    Matcher matcher = Pattern.compile("x").matcher(repeat("a", 10000)).budget(budget);
+    Thread.sleep(1);
+    try {
+      matcher.find();
+      fail();
+    } catch (BudgetExceededException e) {
+      assertEquals(BudgetExceededException.Reason.TIME, e.getReason());
+      assertEquals(0, e.getPosition());
+    }
+  }
+
+  @Test
+  public void testInterrupted() throws Exception {
+    Matcher matcher = Pattern.compile("x").matcher(repeat("a", 10000)).budget(MatchBudget.interruptible());
+    Thread.currentThread().interrupt();
+    try {
+      matcher.count();
+      fail();
+    } catch (BudgetExceededException e) {
+      assertEquals(BudgetExceededException.Reason.INTERRUPTED, e.getReason());
+      assertEquals(1023, e.getPosition());
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+}
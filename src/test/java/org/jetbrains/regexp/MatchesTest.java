@@ -117,5 +117,34 @@ public class MatchesTest {
   public void testMatchesGroupMinMaxClosure() throws Exception {
     testPattern("(ab){2,3}", list("abab","ababab"), list("ab","abababab"));
   }
-  
+
+  @Test
+  public void testMatchesCaseInsensitiveCharacters() throws Exception {
+    testPattern("dog|cat", Pattern.CASE_INSENSITIVE, list("dog", "DOG", "cAt"), list("dot", "CATS"));
+  }
+
+  @Test
+  public void testMatchesCaseInsensitiveSets() throws Exception {
+    testPattern("[a-c]x[^q]", Pattern.CASE_INSENSITIVE, list("aXz", "Cxb", "BXA"), list("dxa", "axq", "AXQ"));
+    testPattern("[a-z&&[^m]]", Pattern.CASE_INSENSITIVE, list("a", "Z"), list("m", "M"));
+  }
+
+  @Test
+  public void testMatchesCaseInsensitiveOnlyAsciiByDefault() throws Exception {
+    testPattern("\u00e9k", Pattern.CASE_INSENSITIVE, list("\u00e9K"), list("\u00c9K", "\u00e9\u212a"));
+  }
+
+  @Test
+  public void testMatchesUnicodeCaseInsensitive() throws Exception {
+    final int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+    testPattern("\u00e9k", flags, list("\u00e9K", "\u00c9K", "\u00c9\u212a"), list("eK"));
+    testPattern("[\u00e0-\u00e9]", flags, list("\u00c0", "\u00c9"), list("\u00ca"));
+  }
+
+  @Test
+  public void testMatchesAnchored() throws Exception {
+    testPattern("^ab*$", list("a", "abbb"), list("", "ba", "aba"));
+    testPattern("\\A[0-9]+\\z", list("0", "123"), list("", "12a"));
+  }
+
 }
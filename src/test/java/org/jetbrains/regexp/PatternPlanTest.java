@@ -0,0 +1,71 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatternPlanTest {
+
+  @Test
+  public void testProgramIsExpanded() throws Exception {
+    assertEquals("(aaa?[^x-z]\\.)", Pattern.compile("a{2,3}[^x-z]\\.").explain().program());
+    assertEquals("([ab]*a[ab][ab][ab])", Pattern.compile("(a|b)*a(a|b){3}").explain().program());
+    assertEquals("([a-c&&[^b]]+x)", Pattern.compile("[a-c&&[^b]]+x").explain().program());
+    assertEquals("((\\x{d83d}\\x{de00}|\\x{1f600})\\x{a})", Pattern.compile("\\x{1F600}\\x{a}").explain().program());
+  }
+
+  @Test
+  public void testSizes() throws Exception {
+    final PatternPlan plan = Pattern.compile("foo[0-9]+bar").explain();
+    assertEquals(10, plan.tokenCount());
+    assertEquals(11, plan.stateCount());
+    assertEquals(4, plan.epsilonEdgeCount());
+    assertEquals(-1, plan.maxLength());
+    assertEquals(Engine.BIT_PARALLEL, plan.engine());
+    assertEquals(Collections.<String>emptyList(), plan.literals());
+    assertEquals(Arrays.asList("foo", "bar"), plan.requiredLiterals());
+    assertTrue(plan.retainedBytes() > 0);
+    assertTrue(plan.warnings().isEmpty());
+  }
+
+  @Test
+  public void testLiterals() throws Exception {
+    final PatternPlan plan = Pattern.compile("^colou?r$").explain();
+    assertEquals(Engine.LITERAL_SET, plan.engine());
+    assertEquals(Arrays.asList("color", "colour"), plan.literals());
+    assertTrue(plan.startAnchored());
+    assertTrue(plan.endAnchored());
+    assertEquals(6, plan.maxLength());
+  }
+
+  @Test
+  public void testDfaEstimate() throws Exception {
+    // the DFA remembers the last n + 1 characters read: 2^(n+1) states and the dead one
+    final PatternPlan small = Pattern.compile("(a|b)*a(a|b){3}").explain();
+    assertEquals(17, small.dfaStates());
+    assertTrue(small.dfaBytes() > 0);
+    final PatternPlan large = Pattern.compile("(a|b)*a(a|b){12}").explain();
+    assertEquals(PatternPlan.TOO_MANY_STATES, large.dfaStates());
+    assertEquals(1, large.warnings().size());
+    assertTrue(large.toString(), large.toString().contains("over the memory bound"));
+  }
+
+  @Test
+  public void testPatternIsNotChanged() throws Exception {
+    final Pattern pattern = Pattern.compile("[a-z]{70}x");
+    final long retained = pattern.retainedBytes();
+    final PatternPlan plan = pattern.explain();
+    assertEquals(retained, plan.retainedBytes());
+    assertEquals(Engine.DFA, pattern.engine());
+    assertEquals(73, plan.dfaStates());
+    // the closures are kept, the DFA is not
+    assertTrue(pattern.retainedBytes() < retained + plan.dfaBytes());
+    assertFalse(plan.warnings().contains("no string every match contains, an index can not narrow the search"));
+  }
+
+}
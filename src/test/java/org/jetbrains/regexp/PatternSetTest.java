@@ -0,0 +1,169 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PatternSetTest {
+
+  private static final String[] REGEXPS = {"hello", "error.*timeout", "abc|xyz", "ab[0-9]*abc", "(abcd)+",
+      "[xy]ab", "colou?r", "a[bc]d[ef]g", "q.z", "^abc", "end$", "^hello end$", "(ab|cd)(ef|gh)ij", "a*",
+      "[^a-z ]", "lo+rem", "x{2,3}y"};
+
+  private static final String[] TEXTS = {"", "hello", "abc end", "error then timeout", "xxy", "abcdabcd",
+      "a colour", "yab", "qaz end", "hello end", "cdghij", "lorem ipsum", "42", "the end is near", "abd"};
+
+  /**
+   * the rules each pattern finds a match of, tried one by one
+   */
+  private static int[] bruteForce(TreeMap<Integer, Pattern> rules, String text) {
+    List<Integer> found = new ArrayList<Integer>();
+    for (int rule : rules.keySet()) {
+      if (rules.get(rule).containsMatchIn(text)) {
+        found.add(rule);
+      }
+    }
+    int[] ids = new int[found.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = found.get(i);
+    }
+    return ids;
+  }
+
+  private static void assertAgrees(PatternSet set, TreeMap<Integer, Pattern> rules) {
+    assertEquals(rules.size(), set.size());
+    for (String text : TEXTS) {
+      final int[] expected = bruteForce(rules, text);
+      assertEquals(text, Arrays.toString(expected), Arrays.toString(set.matchingRules(text)));
+      assertEquals(text, expected.length > 0, set.containsMatchIn(text));
+    }
+  }
+
+  @Test
+  public void testMatchingRules() throws Exception {
+    for (long memoryLimit : new long[]{SetDfa.DEFAULT_MEMORY_LIMIT, 0}) {
+      final PatternSet set = new PatternSet(0, memoryLimit);
+      final TreeMap<Integer, Pattern> rules = new TreeMap<Integer, Pattern>();
+      for (String regexp : REGEXPS) {
+        rules.put(set.add(regexp).rule(), Pattern.compile(regexp));
+      }
+      assertAgrees(set, rules);
+    }
+  }
+
+  @Test
+  public void testChangesAgreeWithScanning() throws Exception {
+    final Random random = new Random(11);
+    final PatternSet set = new PatternSet();
+    final TreeMap<Integer, Pattern> rules = new TreeMap<Integer, Pattern>();
+    for (int change = 0; change < 400; change++) {
+      final int choice = random.nextInt(10);
+      if (choice < 6 || rules.isEmpty()) {
+        final String regexp = REGEXPS[random.nextInt(REGEXPS.length)];
+        final PatternSetUpdate update = set.add(regexp);
+        assertEquals(1, update.compiledRules());
+        assertTrue(update.rebuiltRules() <= PatternSet.DELTA_RULES);
+        assertEquals(regexp, set.regexp(update.rule()));
+        rules.put(update.rule(), Pattern.compile(regexp));
+      } else if (choice < 9) {
+        final Integer[] ids = rules.keySet().toArray(new Integer[rules.size()]);
+        final int rule = ids[random.nextInt(ids.length)];
+        final PatternSetUpdate update = set.remove(rule);
+        assertEquals(rule, update.rule());
+        assertEquals(0, update.compiledRules());
+        assertNull(set.regexp(rule));
+        rules.remove(rule);
+      } else {
+        set.merge();
+      }
+      if (change % 40 == 0) {
+        assertAgrees(set, rules);
+      }
+    }
+    assertAgrees(set, rules);
+  }
+
+  @Test
+  public void testMergeRemovesThePenalty() throws Exception {
+    final PatternSet set = new PatternSet();
+    PatternSetUpdate update = null;
+    for (int i = 0; i < 10 * PatternSet.DELTA_RULES; i++) {
+      update = set.add("rule" + i + "[a-z]+");
+    }
+    assertEquals(10, set.partitionCount());
+    assertEquals(10, update.partitionCount());
+    assertEquals(10.0, update.scanPenalty(), 0);
+    final PatternSetUpdate merged = set.merge();
+    assertEquals(PatternSetUpdate.NO_RULE, merged.rule());
+    assertEquals(10 * PatternSet.DELTA_RULES, merged.rebuiltRules());
+    assertEquals(1, merged.partitionCount());
+    assertEquals(1.0, set.scanPenalty(), 0);
+    assertEquals(0, set.merge().rebuiltRules());
+    // the next rule goes to a new small partition, the large one is kept
+    update = set.add("new");
+    assertEquals(1, update.rebuiltRules());
+    assertEquals(2, set.partitionCount());
+    assertTrue(Arrays.equals(new int[]{5, 10 * PatternSet.DELTA_RULES}, set.matchingRules("rule5x new")));
+  }
+
+  @Test
+  public void testMergeInTheBackground() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final PatternSet set = new PatternSet(Pattern.CASE_INSENSITIVE);
+      for (int i = 0; i < 3 * PatternSet.DELTA_RULES; i++) {
+        set.add("word" + i + "s?");
+      }
+      final PatternSetUpdate update = set.merge(executor).get();
+      assertEquals(1, update.partitionCount());
+      assertTrue(update.nanos() > 0);
+      assertTrue(Arrays.equals(new int[]{1, 17}, set.matchingRules("WORD1 and word17")));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    final PatternSet set = new PatternSet();
+    final int cat = set.add("cat").rule();
+    final int dog = set.add("dog").rule();
+    assertTrue(Arrays.equals(new int[]{cat, dog}, set.matchingRules("cat and dog")));
+    final PatternSetUpdate update = set.remove(cat);
+    assertEquals(1, update.rebuiltRules());
+    assertTrue(Arrays.equals(new int[]{dog}, set.matchingRules("cat and dog")));
+    assertEquals(0, set.remove(dog).partitionCount());
+    assertFalse(set.containsMatchIn("cat and dog"));
+    assertEquals(1.0, set.scanPenalty(), 0);
+    try {
+      set.remove(dog);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = ParseException.class)
+  public void testBadRegexp() throws Exception {
+    final PatternSet set = new PatternSet();
+    try {
+      set.add("(ab");
+    } finally {
+      assertEquals(0, set.size());
+    }
+  }
+
+}
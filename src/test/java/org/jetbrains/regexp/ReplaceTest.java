@@ -0,0 +1,85 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplaceTest {
+
+  @Test
+  public void testReplaceAll() throws Exception {
+    Pattern pattern = Pattern.compile("dog");
+    assertEquals("my cat is the best cat", pattern.matcher("my dog is the best dog").replaceAll("cat"));
+  }
+
+  @Test
+  public void testReplaceFirst() throws Exception {
+    Pattern pattern = Pattern.compile("dog");
+    assertEquals("my cat is the best dog", pattern.matcher("my dog is the best dog").replaceFirst("cat"));
+  }
+
+  @Test
+  public void testReplaceWithMatch() throws Exception {
+    Pattern pattern = Pattern.compile("a+");
+    assertEquals("b<aa>b<a>", pattern.matcher("baaba").replaceAll("<$0>"));
+    assertEquals("b$aa\\b$a\\", pattern.matcher("baaba").replaceAll("\\$$0\\\\"));
+  }
+
+  @Test
+  public void testReplaceEmptyMatches() throws Exception {
+    Pattern pattern = Pattern.compile("a*");
+    assertEquals("ha".replaceAll("a*", "-"), pattern.matcher("ha").replaceAll("-"));
+    assertEquals("sasha".replaceAll("a*", "<$0>"), pattern.matcher("sasha").replaceAll("<$0>"));
+  }
+
+  @Test
+  public void testReplaceInRegion() throws Exception {
+    Pattern pattern = Pattern.compile("a");
+    assertEquals("aXbX a", pattern.matcher("aaba a").region(1, 4).replaceAll("X"));
+  }
+
+  @Test
+  public void testReplaceIntoAppendable() throws Exception {
+    Replacement replacement = Replacement.compile("[$0]");
+    StringBuilder output = new StringBuilder("> ");
+    Pattern.compile("[0-9]+").matcher("1 and 22").replaceAll(replacement, output);
+    assertEquals("> [1] and [22]", output.toString());
+    Pattern.compile("x").matcher("-x-").replaceFirst(Replacement.literal("$0"), output);
+    assertEquals("> [1] and [22]-$0-", output.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReplacementGroupThatDoesNotExist() throws Exception {
+    Replacement.compile("$1");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReplacementDanglingEscape() throws Exception {
+    Replacement.compile("a\\");
+  }
+
+  @Test
+  public void testSplit() throws Exception {
+    testSplit(",", "a,b,,c,,");
+    testSplit(",", ",a,b");
+    testSplit(",", "abc");
+    testSplit(",", "");
+    testSplit(",", ",,,");
+    testSplit("a*", "bab");
+    testSplit("a*", "aab");
+    testSplit(" +", "my dog  is   the best dog ");
+  }
+
+  private static void testSplit(String regexp, String text) throws Exception {
+    List<String> pieces = new ArrayList<String>();
+    for (CharSequence piece : Pattern.compile(regexp).split(text)) {
+      pieces.add(piece.toString());
+    }
+    assertEquals(regexp + " on " + text, Arrays.asList(text.split(regexp)), pieces);
+  }
+
+}
@@ -0,0 +1,28 @@
+package org.jetbrains.regexp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class RetainedBytesTest {
+
+  @Test
+  public void testGrowsWithThePattern() throws Exception {
+    final long small = Pattern.compile("a[0-9]").retainedBytes();
+    final long large = Pattern.compile("a[0-9]{50}").retainedBytes();
+    assertTrue(small > 0);
+    assertTrue(small + " < " + large, large > small + 50 * 4);
+  }
+
+  @Test
+  public void testCountsWhatTheEnginesBuild() throws Exception {
+    final Pattern pattern = Pattern.compile("[a-z]{70}x");
+    final long compiled = pattern.retainedBytes();
+    pattern.matches("abc");
+    final long matched = pattern.retainedBytes();
+    assertTrue(compiled + " < " + matched, matched > compiled);
+    pattern.matches("hello".getBytes("UTF-8"));
+    assertTrue(matched + " < " + pattern.retainedBytes(), pattern.retainedBytes() > matched);
+  }
+
+}
@@ -0,0 +1,233 @@
+package org.jetbrains.regexp.benchmark;
+
+import org.jetbrains.regexp.Matcher;
+import org.jetbrains.regexp.Pattern;
+import org.jetbrains.regexp.PatternSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the bytes allocated per call of the matching methods, and the heap retained by compiled patterns.
+ * <p>
+ *   Allocation is read from the allocation counter the HotSpot thread bean keeps for every thread,
+ *   before and after many calls on the current thread, once the calls are warm. Every scenario is a
+ *   method of the public API on a realistic pattern and text, the list engine behind Matcher.match
+ *   included, and is printed with its bytes and nanoseconds per call.
+ * <p>
+ *   The retained heap is the used heap after collecting, with copies of every pattern of a corpus compiled
+ *   and held, less the used heap before, divided by the copies. It is printed next to Pattern.retainedBytes
+ *   for the same pattern, freshly compiled and after it has been used.
+ * <p>
+ *   Not a unit test, run the main method with the test classpath, optionally with the number of calls
+ *   per scenario and the number of copies per pattern as the arguments. Compare the tables of two
+ *   builds to see whether a change allocates or retains more.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ */
+public class AllocationBenchmark {
+
+  private static final String[] CORPUS = {
+      "[a-z0-9_\\.]+@[a-z0-9]+\\.(com|org|net)",
+      "https?://[a-z0-9\\.]+(/[a-z0-9_]*)*",
+      "[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}",
+      "[0-9]{4}\\-[0-9]{2}\\-[0-9]{2}",
+      "(ERROR|WARN|INFO|DEBUG) [a-zA-Z]+",
+      "[a-zA-Z_][a-zA-Z0-9_]*",
+      "\\+?[0-9]{2,3} [0-9]{3} [0-9]{4}",
+      "0x[0-9a-fA-F]+",
+      "public|private|protected|static|final|class|interface",
+      ".*timeout.*",
+      "GET /api/v[0-9]+/users/[0-9]+",
+      "hello",
+  };
+
+  public static void main(String[] args) throws Exception {
+    final int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    final Method allocatedBytes = allocatedBytesMethod();
+    if (allocatedBytes == null) {
+      System.out.println("this JVM does not count allocated bytes per thread, only the retained heap is measured");
+    } else {
+      printAllocations(allocatedBytes, calls);
+    }
+    printRetained(copies);
+  }
+
+  private static void printAllocations(Method allocatedBytes, int calls) throws Exception {
+    final String text = text(4000);
+    final String shortText = text(400);
+    final String line = "alice.smith@example.com";
+    final Pattern address = Pattern.compile(CORPUS[0]);
+    final Pattern identifier = Pattern.compile(CORPUS[5]);
+    final Pattern literal = Pattern.compile("hello");
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+    scenarios.add(new Scenario("Pattern.matches, 23 chars") {
+      @Override
+      void run() {
+        address.matches(line);
+      }
+    });
+    scenarios.add(new Scenario("Pattern.matches literal") {
+      @Override
+      void run() {
+        literal.matches("hello");
+      }
+    });
+    final Pattern cyrillic = Pattern.compile("[а-яё ]{118}[0-9]+");
+    final String phrase = "съешь же ещё этих мягких французских булок да выпей же чаю ";
+    final String cyrillicLine = phrase + phrase + "1912";
+    scenarios.add(new Scenario("Pattern.matches, Cyrillic DFA") {
+      @Override
+      void run() {
+        cyrillic.matches(cyrillicLine);
+      }
+    });
+    scenarios.add(new Scenario("Matcher.matches, 23 chars") {
+      @Override
+      void run() {
+        address.matcher(line).matches();
+      }
+    });
+    scenarios.add(new Scenario("Matcher.find first, 4000 chars") {
+      @Override
+      void run() {
+        address.matcher(text).find();
+      }
+    });
+    scenarios.add(new Scenario("Matcher.find all, 4000 chars") {
+      @Override
+      void run() {
+        final Matcher matcher = address.matcher(text);
+        while (matcher.find()) {
+          matcher.end();
+        }
+      }
+    });
+    scenarios.add(new Scenario("Matcher.count identifiers") {
+      @Override
+      void run() {
+        identifier.matcher(text).count();
+      }
+    });
+    scenarios.add(new Scenario("Pattern.containsMatchIn") {
+      @Override
+      void run() {
+        address.containsMatchIn(text);
+      }
+    });
+    scenarios.add(new Scenario("Matcher.match(false), 400 chars") {
+      @Override
+      void run() {
+        address.matcher(shortText).match(false);
+      }
+    });
+    final PatternSet rules = new PatternSet();
+    for (String regexp : CORPUS) {
+      rules.add(regexp);
+    }
+    scenarios.add(new Scenario("PatternSet.containsMatchIn") {
+      @Override
+      void run() {
+        rules.containsMatchIn(text);
+      }
+    });
+    scenarios.add(new Scenario("Pattern.compile") {
+      @Override
+      void run() throws Exception {
+        Pattern.compile(CORPUS[0]);
+      }
+    });
+    System.out.printf("%-36s %14s %12s%n", "scenario", "bytes/call", "ns/call");
+    for (Scenario scenario : scenarios) {
+      // the list engine keeps every partial match, a few calls of it take as long as all the others
+      final int times = scenario.name.startsWith("Matcher.match(") ? Math.max(1, calls / 1000) : calls;
+      for (int i = 0; i < times; i++) {
+        scenario.run();
+      }
+      final long allocatedBefore = allocated(allocatedBytes);
+      final long started = System.nanoTime();
+      for (int i = 0; i < times; i++) {
+        scenario.run();
+      }
+      final long elapsed = System.nanoTime() - started;
+      final long allocated = allocated(allocatedBytes) - allocatedBefore;
+      System.out.printf("%-36s %14d %12d%n", scenario.name, allocated / times, elapsed / times);
+    }
+    System.out.println();
+  }
+
+  private static void printRetained(int copies) throws Exception {
+    System.out.printf("%-56s %10s %10s %10s%n", "pattern", "heap", "estimate", "used");
+    for (String regexp : CORPUS) {
+      final long before = usedHeap();
+      List<Pattern> held = new ArrayList<Pattern>(copies);
+      for (int i = 0; i < copies; i++) {
+        held.add(Pattern.compile(regexp));
+      }
+      final long heap = (usedHeap() - before) / copies;
+      final Pattern pattern = held.get(0);
+      final long estimate = pattern.retainedBytes();
+      pattern.matches("some text to warm the engines up");
+      pattern.matcher("some text to warm the engines up").find();
+      System.out.printf("%-56s %10d %10d %10d%n", regexp, heap, estimate, pattern.retainedBytes());
+      held.clear();
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    final Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(20);
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+  /**
+   * the counter is only on the HotSpot interface of the bean, it is looked up by name so that any JVM can run the harness
+   */
+  private static Method allocatedBytesMethod() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    try {
+      final Method method = Class.forName("com.sun.management.ThreadMXBean")
+          .getMethod("getThreadAllocatedBytes", long.class);
+      method.invoke(bean, Thread.currentThread().getId());
+      return method;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static long allocated(Method allocatedBytes) throws Exception {
+    return (Long) allocatedBytes.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+  }
+
+  private static String text(int length) {
+    final Random random = new Random(42);
+    final String[] words = {"lorem", "ipsum", "x_1", "alice.smith@example.com", "bob@host.org", "dolor", "42"};
+    StringBuilder builder = new StringBuilder(length + 32);
+    while (builder.length() < length) {
+      builder.append(words[random.nextInt(words.length)]).append(' ');
+    }
+    return builder.substring(0, length);
+  }
+
+  private abstract static class Scenario {
+
+    private final String name;
+
+    Scenario(String name) {
+      this.name = name;
+    }
+
+    abstract void run() throws Exception;
+  }
+
+}
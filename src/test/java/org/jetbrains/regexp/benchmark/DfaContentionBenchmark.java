@@ -0,0 +1,102 @@
+package org.jetbrains.regexp.benchmark;
+
+import org.jetbrains.regexp.Pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures Pattern.matches on one pattern shared by 1, 8, 32 and 64 threads, the first round of each
+ * starting from a cold pattern, so both the building of the shared DFA under contention and the lock free
+ * reads afterwards are timed.
+ * <p>
+ *   Not a unit test, run the main method with the test classpath, optionally with the number of
+ *   matches per thread as the argument.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ */
+public class DfaContentionBenchmark {
+
+  private static final String REGEXP = "[a-z0-9.]+@[a-z0-9]+\\.(com|org|net)";
+  private static final int[] THREADS = {1, 8, 32, 64};
+
+  public static void main(String[] args) throws Exception {
+    final int matchesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final String[] inputs = inputs(1024);
+    for (int threads : THREADS) {
+      final Pattern cold = Pattern.compile(REGEXP);
+      final long coldNanos = run(cold, inputs, threads, matchesPerThread);
+      final long warmNanos = run(cold, inputs, threads, matchesPerThread);
+      final long total = (long) threads * matchesPerThread;
+      System.out.printf("%2d threads: cold %6d ms, warm %6d ms, warm %6.2f M matches/s%n",
+          threads, coldNanos / 1000000, warmNanos / 1000000, total * 1e3 / warmNanos);
+    }
+  }
+
+  private static long run(final Pattern pattern, final String[] inputs, int threads,
+                          final int matchesPerThread) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CountDownLatch ready = new CountDownLatch(threads);
+    final CountDownLatch go = new CountDownLatch(1);
+    try {
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int t = 0; t < threads; t++) {
+        final int offset = t * 31;
+        results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            ready.countDown();
+            go.await();
+            int matched = 0;
+            for (int i = 0; i < matchesPerThread; i++) {
+              if (pattern.matches(inputs[(offset + i) % inputs.length])) {
+                matched++;
+              }
+            }
+            return matched;
+          }
+        }));
+      }
+      ready.await();
+      final long started = System.nanoTime();
+      go.countDown();
+      int matched = 0;
+      for (Future<Integer> result : results) {
+        matched += result.get();
+      }
+      final long elapsed = System.nanoTime() - started;
+      if (matched < 0) {
+        throw new IllegalStateException();
+      }
+      return elapsed;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static String[] inputs(int count) {
+    final Random random = new Random(42);
+    final String[] domains = {"com", "org", "net", "io"};
+    String[] inputs = new String[count];
+    for (int i = 0; i < count; i++) {
+      StringBuilder builder = new StringBuilder();
+      for (int j = 0; j < 5 + random.nextInt(10); j++) {
+        builder.append((char) ('a' + random.nextInt(26)));
+      }
+      builder.append(random.nextInt(8) == 0 ? '#' : '@');
+      for (int j = 0; j < 3 + random.nextInt(8); j++) {
+        builder.append((char) ('a' + random.nextInt(26)));
+      }
+      builder.append('.').append(domains[random.nextInt(domains.length)]);
+      inputs[i] = builder.toString();
+    }
+    return inputs;
+  }
+
+}
@@ -0,0 +1,379 @@
+package org.jetbrains.regexp.benchmark;
+
+import org.jetbrains.regexp.Matcher;
+import org.jetbrains.regexp.Pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how the cost of Pattern.compile, Matcher.matches and Matcher.find grows with the size of the input,
+ * the size of the pattern and the number of live states, next to java.util.regex on the same cases.
+ * <p>
+ *   Every case is run at sizes doubling from a base size. The growth of a measure is the exponent of
+ *   its time from one size to the next, 1 for linear, 2 for quadratic, taken from the smallest to the
+ *   largest size so that the noise of a single size evens out. A growth above 1.5 is flagged as non-linear,
+ *   and the process then exits with 1, so the suite can guard a build.
+ * <p>
+ *   The cases include the inputs that make backtracking engines blow up. java.util.regex is given
+ *   a deadline on them and is reported as timed out when it misses it, or as overflowing when it runs
+ *   out of stack.
+ * <p>
+ *   Not a unit test, run the main method with the test classpath, optionally with the base input size,
+ *   the base pattern size and the number of sizes as the arguments.
+ *
+ * @author sasha.malahov@here.com (Sasha Malahov)
+ */
+public class ScalingBenchmark {
+
+  private static final double NON_LINEAR = 1.5;
+  private static final long JDK_DEADLINE_MILLIS = 1000;
+  private static final long MIN_MEASURE_NANOS = 50000000L;
+  private static final long TIMED_OUT = -1;
+  private static final long STACK_OVERFLOW = -2;
+
+  public static void main(String[] args) throws Exception {
+    final int inputSize = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final int patternSize = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+    final int sizes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    List<String> flagged = new ArrayList<String>();
+    for (Case scalingCase : cases()) {
+      final int base = scalingCase.patternAxis ? patternSize : inputSize;
+      System.out.printf("%n%s, %s size from %d%n", scalingCase.name,
+          scalingCase.patternAxis ? "pattern" : "input", base);
+      if (scalingCase.patternAxis) {
+        report(scalingCase, "compile", measureCompile(scalingCase, base, sizes), flagged);
+      }
+      report(scalingCase, "matches", measureMatches(scalingCase, base, sizes), flagged);
+      report(scalingCase, "find", measureFind(scalingCase, base, sizes), flagged);
+      printJdk("jdk matches", measureJdk(scalingCase, base, sizes, false));
+      printJdk("jdk find", measureJdk(scalingCase, base, sizes, true));
+    }
+    System.out.println();
+    if (flagged.isEmpty()) {
+      System.out.println("all measures grow linearly");
+    } else {
+      System.out.println("NON-LINEAR: " + flagged);
+      System.exit(1);
+    }
+  }
+
+  private static List<Case> cases() {
+    List<Case> cases = new ArrayList<Case>();
+    cases.add(new Case("(a|aa)*b over a's", false) {
+      @Override
+      String regexp(int size) {
+        return "(a|aa)*b";
+      }
+
+      @Override
+      String text(int size) {
+        return repeat("a", size);
+      }
+    });
+    cases.add(new Case("(a*)*b over a's", false) {
+      @Override
+      String regexp(int size) {
+        return "(a*)*b";
+      }
+
+      @Override
+      String text(int size) {
+        return repeat("a", size);
+      }
+    });
+    cases.add(new Case("(x+x+)+y over x's", false) {
+      @Override
+      String regexp(int size) {
+        return "(x+x+)+y";
+      }
+
+      @Override
+      String text(int size) {
+        return repeat("x", size);
+      }
+    });
+    cases.add(new Case("addresses in random text", false) {
+      @Override
+      String regexp(int size) {
+        return "[a-z0-9.]+@[a-z0-9]+\\.(com|org|net)";
+      }
+
+      @Override
+      String text(int size) {
+        return random("abcdefgh .@", size);
+      }
+    });
+    cases.add(new Case("counted repeat [ab]{n}c", true) {
+      @Override
+      String regexp(int size) {
+        return "[ab]{" + size + "}c";
+      }
+
+      @Override
+      String text(int size) {
+        return random("ab", 2000) + "c";
+      }
+    });
+    cases.add(new Case("ranged repeat a{1,n}", true) {
+      @Override
+      String regexp(int size) {
+        return "a{1," + size + "}";
+      }
+
+      @Override
+      String text(int size) {
+        return repeat("a", 2000);
+      }
+    });
+    cases.add(new Case("optional repeat (ab){0,n}", true) {
+      @Override
+      String regexp(int size) {
+        return "(ab){0," + size + "}";
+      }
+
+      @Override
+      String text(int size) {
+        return repeat("ab", 1000);
+      }
+    });
+    cases.add(new Case("alternation of n words", true) {
+      @Override
+      String regexp(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+          builder.append(i == 0 ? "" : "|").append("w").append(Integer.toString(i * 7919, 36));
+        }
+        return builder.toString();
+      }
+
+      @Override
+      String text(int size) {
+        return random("w0123456789 abc", 2000);
+      }
+    });
+    cases.add(new Case("n live states [ab]*a[ab]{n}", true) {
+      @Override
+      String regexp(int size) {
+        return "[ab]*a[ab]{" + size + "}";
+      }
+
+      @Override
+      String text(int size) {
+        return random("ab", 2000);
+      }
+    });
+    return cases;
+  }
+
+  private static long[] measureCompile(final Case scalingCase, int base, int sizes) throws Exception {
+    long[] nanos = new long[sizes];
+    for (int i = 0; i < sizes; i++) {
+      final String regexp = scalingCase.regexp(base << i);
+      nanos[i] = measure(new Operation() {
+        @Override
+        void run() throws Exception {
+          Pattern.compile(regexp);
+        }
+      });
+    }
+    return nanos;
+  }
+
+  private static long[] measureMatches(Case scalingCase, int base, int sizes) throws Exception {
+    long[] nanos = new long[sizes];
+    for (int i = 0; i < sizes; i++) {
+      final Pattern pattern = Pattern.compile(scalingCase.regexp(base << i));
+      final String text = scalingCase.text(base << i);
+      nanos[i] = measure(new Operation() {
+        @Override
+        void run() throws Exception {
+          pattern.matcher(text).matches();
+        }
+      });
+    }
+    return nanos;
+  }
+
+  private static long[] measureFind(Case scalingCase, int base, int sizes) throws Exception {
+    long[] nanos = new long[sizes];
+    for (int i = 0; i < sizes; i++) {
+      final Pattern pattern = Pattern.compile(scalingCase.regexp(base << i));
+      final String text = scalingCase.text(base << i);
+      nanos[i] = measure(new Operation() {
+        @Override
+        void run() throws Exception {
+          final Matcher matcher = pattern.matcher(text);
+          while (matcher.find()) {
+            matcher.end();
+          }
+        }
+      });
+    }
+    return nanos;
+  }
+
+  /**
+   * @return TIMED_OUT or STACK_OVERFLOW for the sizes java.util.regex failed on, larger sizes are not tried
+   */
+  private static long[] measureJdk(Case scalingCase, int base, int sizes, final boolean find) throws Exception {
+    long[] nanos = new long[sizes];
+    boolean timedOut = false;
+    for (int i = 0; i < sizes; i++) {
+      if (timedOut) {
+        nanos[i] = nanos[i - 1];
+        continue;
+      }
+      final java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(scalingCase.regexp(base << i));
+      final String text = scalingCase.text(base << i);
+      try {
+        nanos[i] = measure(new Operation() {
+          @Override
+          void run() throws Exception {
+            final java.util.regex.Matcher matcher = pattern.matcher(
+                new DeadlineSequence(text, System.currentTimeMillis() + JDK_DEADLINE_MILLIS));
+            if (find) {
+              while (matcher.find()) {
+                matcher.end();
+              }
+            } else {
+              matcher.matches();
+            }
+          }
+        });
+      } catch (DeadlineException e) {
+        nanos[i] = TIMED_OUT;
+        timedOut = true;
+      } catch (StackOverflowError e) {
+        nanos[i] = STACK_OVERFLOW;
+        timedOut = true;
+      }
+    }
+    return nanos;
+  }
+
+  /**
+   * @return the nanoseconds of one run, averaged over enough runs to take a measurable time
+   */
+  private static long measure(Operation operation) throws Exception {
+    operation.run();
+    for (int runs = 1; ; runs *= 2) {
+      final long started = System.nanoTime();
+      for (int i = 0; i < runs; i++) {
+        operation.run();
+      }
+      final long elapsed = System.nanoTime() - started;
+      if (elapsed >= MIN_MEASURE_NANOS) {
+        return elapsed / runs;
+      }
+    }
+  }
+
+  private static void report(Case scalingCase, String measure, long[] nanos, List<String> flagged) {
+    final double growth = Math.log((double) nanos[nanos.length - 1] / nanos[0]) / Math.log(2) / (nanos.length - 1);
+    final boolean nonLinear = growth > NON_LINEAR;
+    System.out.printf("  %-12s %s growth %.2f%s%n", measure, times(nanos), growth, nonLinear ? "  NON-LINEAR" : "");
+    if (nonLinear) {
+      flagged.add(scalingCase.name + " " + measure);
+    }
+  }
+
+  private static void printJdk(String measure, long[] nanos) {
+    System.out.printf("  %-12s %s%n", measure, times(nanos));
+  }
+
+  private static String times(long[] nanos) {
+    StringBuilder builder = new StringBuilder();
+    for (long time : nanos) {
+      if (time == TIMED_OUT || time == STACK_OVERFLOW) {
+        builder.append(String.format("%12s", time == TIMED_OUT ? "timeout" : "overflow"));
+      } else {
+        builder.append(String.format("%10.1fus", time / 1000.0));
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String repeat(String string, int times) {
+    StringBuilder builder = new StringBuilder(string.length() * times);
+    for (int i = 0; i < times; i++) {
+      builder.append(string);
+    }
+    return builder.toString();
+  }
+
+  private static String random(String alphabet, int length) {
+    final Random random = new Random(length);
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+
+  private abstract static class Case {
+
+    private final String name;
+    /**
+     * true if the size is the size of the pattern, false if it is the size of the input
+     */
+    private final boolean patternAxis;
+
+    Case(String name, boolean patternAxis) {
+      this.name = name;
+      this.patternAxis = patternAxis;
+    }
+
+    abstract String regexp(int size);
+
+    abstract String text(int size);
+  }
+
+  private abstract static class Operation {
+
+    abstract void run() throws Exception;
+  }
+
+  private static final class DeadlineException extends RuntimeException {
+  }
+
+  /**
+   * a text that stops java.util.regex once the deadline is passed, by failing the next character read
+   */
+  private static final class DeadlineSequence implements CharSequence {
+
+    private final String text;
+    private final long deadline;
+    private int reads = 0;
+
+    private DeadlineSequence(String text, long deadline) {
+      this.text = text;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int length() {
+      return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if ((++reads & 0xFFFF) == 0 && System.currentTimeMillis() > deadline) {
+        throw new DeadlineException();
+      }
+      return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return text;
+    }
+  }
+
+}
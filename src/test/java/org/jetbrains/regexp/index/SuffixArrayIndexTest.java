@@ -0,0 +1,183 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.MatchCallback;
+import org.jetbrains.regexp.Pattern;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SuffixArrayIndexTest {
+
+  private static final String[] PATTERNS = {"hello", "error.*timeout", "abc|xyz", "ab[0-9]*abc", "(abcd)+",
+      "[xy]ab", "colou?r", "a[bc]d[ef]g", "[a-z]+", "q.z", "^abc", "end$", "(ab|cd)(ef|gh)ij", "foo[0-9]+bar",
+      "ab+c", "x(yz)?end", "lo.em", "nothing here", "[xy]?ab[0-9a-z]*", "(ab|cd)?ij[a-z ]+", "abc[^x]*",
+      "o.*r"};
+
+  private static String text(int words) {
+    final Random random = new Random(7);
+    final String[] vocabulary = {"hello", "error", "timeout", "abc", "xyz", "ab12abc", "abcdabcd", "yab", "color",
+        "colour", "acdeg", "abdfg", "qaz", "end", "cdghij", "abefij", "lorem", "ipsum", "foo42bar", "abbbc"};
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      builder.append(vocabulary[random.nextInt(vocabulary.length)]).append(random.nextBoolean() ? " " : "");
+    }
+    return builder.toString();
+  }
+
+  private static List<String> scan(Pattern pattern, CharSequence text) {
+    final List<String> matches = new ArrayList<String>();
+    pattern.forEachMatch(text, collector(matches));
+    return matches;
+  }
+
+  private static MatchCallback collector(final List<String> matches) {
+    return new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        matches.add(start + "-" + end);
+        return true;
+      }
+    };
+  }
+
+  @Test
+  public void testSuffixesAreSorted() {
+    for (final String text : new String[]{"", "a", "banana", "aaaaaaaa", "abracadabra", "mississippi", text(300)}) {
+      List<Integer> naive = new ArrayList<Integer>();
+      for (int i = 0; i < text.length(); i++) {
+        naive.add(i);
+      }
+      Collections.sort(naive, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer first, Integer second) {
+          return text.substring(first).compareTo(text.substring(second));
+        }
+      });
+      final int[] suffixes = new SuffixArrayIndex(text).suffixes();
+      assertEquals(text, naive.size(), suffixes.length);
+      for (int i = 0; i < suffixes.length; i++) {
+        assertEquals(text, (int) naive.get(i), suffixes[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testOccurrences() {
+    final String text = text(500);
+    final SuffixArrayIndex index = new SuffixArrayIndex(text);
+    for (String string : new String[]{"a", "abc", "bb", "hello error", "lorem", "zzz", "foo42bar", ""}) {
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int i = text.indexOf(string); i >= 0 && i < text.length(); i = text.indexOf(string, i + 1)) {
+        expected.add(i);
+      }
+      final int[] occurrences = index.occurrences(string);
+      assertEquals(string, expected.size(), index.count(string));
+      assertEquals(string, expected.toString(), toList(occurrences).toString());
+    }
+  }
+
+  @Test
+  public void testMatchesAgreeWithScanning() throws Exception {
+    final String text = text(2000);
+    final SuffixArrayIndex index = new SuffixArrayIndex(text);
+    for (String regexp : PATTERNS) {
+      for (int flags : new int[]{0, Pattern.CASE_INSENSITIVE}) {
+        final Pattern pattern = Pattern.compile(regexp, flags);
+        final List<String> expected = scan(pattern, text);
+        final List<String> matches = new ArrayList<String>();
+        assertEquals(regexp, expected.size(), index.forEachMatch(pattern, collector(matches)));
+        assertEquals(regexp, expected, matches);
+        assertEquals(regexp, expected.size(), index.countMatches(pattern));
+      }
+    }
+  }
+
+  @Test
+  public void testCallbackStops() throws Exception {
+    final SuffixArrayIndex index = new SuffixArrayIndex("ab1ab2ab3ab4" + text(100) + "ab5");
+    final List<String> matches = new ArrayList<String>();
+    final int count = index.forEachMatch(Pattern.compile("ab[0-9]"), new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        matches.add(start + "-" + end);
+        return matches.size() < 2;
+      }
+    });
+    assertEquals(2, count);
+    assertEquals(Arrays.asList("0-3", "3-6"), matches);
+  }
+
+  @Test
+  public void testMatchesAfterBoundedPrefix() throws Exception {
+    final String text = "needle1 needle needle22" + text(300) + "needle needle333 xneedle4";
+    final SuffixArrayIndex index = new SuffixArrayIndex(text);
+    for (String regexp : new String[]{"needle[0-9]+", "x?needle[0-9]*", "(a|e)needle[0-9]+"}) {
+      final Pattern pattern = Pattern.compile(regexp);
+      final List<String> matches = new ArrayList<String>();
+      index.forEachMatch(pattern, collector(matches));
+      assertEquals(regexp, scan(pattern, text), matches);
+    }
+    final List<String> matches = new ArrayList<String>();
+    final int count = index.forEachMatch(Pattern.compile("needle[0-9]+"), new MatchCallback() {
+      @Override
+      public boolean onMatch(int start, int end) {
+        matches.add(start + "-" + end);
+        return matches.size() < 2;
+      }
+    });
+    assertEquals(2, count);
+    assertEquals(Arrays.asList("0-7", "15-23"), matches);
+  }
+
+  @Test
+  public void testContains() throws Exception {
+    final SuffixArrayIndex index = new SuffixArrayIndex("the quick brown fox");
+    assertTrue(index.contains(new TrigramAnalyzer(Pattern.compile("qu.ck")).getQuery()));
+    assertTrue(index.contains(new TrigramAnalyzer(Pattern.compile("(cat|fox)")).getQuery()));
+    assertFalse(index.contains(new TrigramAnalyzer(Pattern.compile("quack")).getQuery()));
+    assertTrue(index.contains(TrigramQuery.ALL));
+    assertFalse(index.contains(TrigramQuery.NONE));
+  }
+
+  @Test
+  public void testRequiredLiterals() throws Exception {
+    assertEquals(Arrays.asList("foo", "bar"), literals("foo[0-9]+bar"));
+    assertEquals(Arrays.asList("ab", "bc"), literals("ab+c"));
+    assertEquals(Arrays.asList("abcd"), literals("a(bc)d"));
+    assertEquals(Arrays.asList("a", "d"), literals("a(bc)?d"));
+    assertEquals(Arrays.asList("colo", "r"), literals("colou?r"));
+    assertEquals(Arrays.asList("abc"), literals("^abc$"));
+    assertEquals(Collections.<String>emptyList(), literals("a|b"));
+    assertEquals(Collections.<String>emptyList(), literals("[a-z]+"));
+    assertEquals(Arrays.asList(0, -1), maxPrefixLengths("foo[0-9]+bar"));
+    assertEquals(Arrays.asList(1, -1), maxPrefixLengths("[xy]ab+c"));
+    assertEquals(Arrays.asList(3, 8), maxPrefixLengths("(ab|c)?de(f|gh)i"));
+  }
+
+  private static List<Integer> maxPrefixLengths(String regexp) throws Exception {
+    return new RequiredLiterals(Pattern.compile(regexp).tokens()).getMaxPrefixLengths();
+  }
+
+  private static List<String> literals(String regexp) throws Exception {
+    return new RequiredLiterals(Pattern.compile(regexp).tokens()).getLiterals();
+  }
+
+  private static List<Integer> toList(int[] values) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (int value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+}
@@ -0,0 +1,54 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.Pattern;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrigramAnalyzerTest {
+
+  private static String query(String regexp) throws Exception {
+    return new TrigramAnalyzer(Pattern.compile(regexp)).getQuery().toString();
+  }
+
+  @Test
+  public void testLiterals() throws Exception {
+    assertEquals("\"hel\" \"ell\" \"llo\"", query("hello"));
+    assertEquals("+ALL", query("ab"));
+    assertEquals("(\"abc\"|\"xyz\")", query("abc|xyz"));
+    assertEquals("\"abc\" \"bcd\" (\"cde\"|\"cdf\")", query("abcd[ef]"));
+  }
+
+  @Test
+  public void testSequencesAroundUnknownParts() throws Exception {
+    assertEquals("\"err\" \"rro\" \"ror\" \"tim\" \"ime\" \"meo\" \"eou\" \"out\"", query("error.*timeout"));
+    assertEquals("\"abc\"", query("ab[0-9]*abc"));
+    assertEquals("\"abc\" \"bcd\"", query("(abcd)+"));
+  }
+
+  @Test
+  public void testJoints() throws Exception {
+    assertEquals("\"abc\" \"bcd\"", query("ab(c)d"));
+    assertEquals("(\"xab\"|\"yab\")", query("[a-z]*[xy]ab"));
+    assertEquals("\"ref\" \"efs\" \"fs/\" (\"s/h\" \"/he\" \"hea\" \"ead\" \"ads\"|\"s/t\" \"/ta\" \"tag\" \"ags\")",
+        query("refs/(heads|tags)"));
+  }
+
+  @Test
+  public void testNothingKnown() throws Exception {
+    assertEquals("+ALL", query("[a-z]+"));
+    assertEquals("+ALL", query("(hello)?"));
+    assertEquals("+ALL", query("a*"));
+    assertEquals("+ALL", query(".*"));
+  }
+
+  @Test
+  public void testCaseInsensitive() throws Exception {
+    final TrigramQuery query = new TrigramAnalyzer(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).getQuery();
+    assertEquals(TrigramQuery.Kind.OR, query.kind());
+    assertEquals(8, query.children().size());
+    assertTrue(query.children().contains(TrigramQuery.trigram("aBc")));
+  }
+
+}
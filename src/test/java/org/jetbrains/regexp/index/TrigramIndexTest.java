@@ -0,0 +1,116 @@
+package org.jetbrains.regexp.index;
+
+import org.jetbrains.regexp.Pattern;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrigramIndexTest {
+
+  private static final String[] PATTERNS = {"hello", "error.*timeout", "abc|xyz", "ab[0-9]*abc", "(abcd)+",
+      "[xy]ab", "colou?r", "a[bc]d[ef]g", "[a-z]+", "q.z", "^abc", "end$", "(ab|cd)(ef|gh)ij"};
+
+  private static CharSequence[] corpus(int size) {
+    final Random random = new Random(5);
+    final String[] words = {"hello", "error", "timeout", "abc", "xyz", "ab12abc", "abcdabcd", "yab", "color",
+        "colour", "acdeg", "abdfg", "qaz", "end", "cdghij", "abefij", "lorem", "ipsum", "dolor"};
+    CharSequence[] documents = new CharSequence[size];
+    for (int id = 0; id < size; id++) {
+      StringBuilder builder = new StringBuilder();
+      for (int i = random.nextInt(12); i > 0; i--) {
+        builder.append(words[random.nextInt(words.length)]).append(random.nextBoolean() ? " " : "");
+      }
+      documents[id] = builder.toString();
+    }
+    return documents;
+  }
+
+  private static int[] bruteForce(Pattern pattern, CharSequence[] documents) {
+    List<Integer> found = new ArrayList<Integer>();
+    for (int id = 0; id < documents.length; id++) {
+      if (pattern.matcher(documents[id]).find()) {
+        found.add(id);
+      }
+    }
+    int[] ids = new int[found.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = found.get(i);
+    }
+    return ids;
+  }
+
+  @Test
+  public void testSearchAgreesWithScanning() throws Exception {
+    final CharSequence[] documents = corpus(500);
+    final TrigramIndex index = new TrigramIndex(documents);
+    assertEquals(500, index.documentCount());
+    for (String regexp : PATTERNS) {
+      final Pattern pattern = Pattern.compile(regexp);
+      final int[] expected = bruteForce(pattern, documents);
+      assertArrayEquals(regexp, expected, index.search(pattern, documents));
+      final int[] candidates = index.candidates(pattern);
+      for (int id : expected) {
+        assertTrue(regexp + " misses " + id, Arrays.binarySearch(candidates, id) >= 0);
+      }
+    }
+  }
+
+  @Test
+  public void testCandidatesAreFew() throws Exception {
+    final CharSequence[] documents = corpus(500);
+    final TrigramIndex index = new TrigramIndex(documents);
+    final Pattern pattern = Pattern.compile("error.*timeout");
+    assertTrue(index.candidates(pattern).length < 500);
+    assertEquals(500, index.candidates(Pattern.compile("[a-z]+")).length);
+  }
+
+  @Test
+  public void testPostings() throws Exception {
+    final TrigramIndex index = new TrigramIndex(new CharSequence[]{"abcabc", "xyz", "", "zabc"});
+    assertArrayEquals(new int[]{0, 3}, index.documents("abc"));
+    assertArrayEquals(new int[]{1}, index.documents("xyz"));
+    assertArrayEquals(new int[0], index.documents("qqq"));
+    assertArrayEquals(new int[]{0, 1, 3},
+        index.candidates(TrigramQuery.or(TrigramQuery.trigram("abc"), TrigramQuery.trigram("xyz"))));
+    assertArrayEquals(new int[]{3},
+        index.candidates(TrigramQuery.and(TrigramQuery.trigram("abc"), TrigramQuery.trigram("zab"))));
+  }
+
+  @Test
+  public void testLargeIds() throws Exception {
+    CharSequence[] documents = new CharSequence[70000];
+    Arrays.fill(documents, "");
+    documents[3] = "needle";
+    documents[300] = "needle";
+    documents[69999] = "needle";
+    assertArrayEquals(new int[]{3, 300, 69999}, new TrigramIndex(documents).documents("eed"));
+  }
+
+  @Test
+  public void testWriteAndOpen() throws Exception {
+    final CharSequence[] documents = corpus(300);
+    final TrigramIndex index = new TrigramIndex(documents);
+    final File file = File.createTempFile("trigrams", ".idx");
+    file.deleteOnExit();
+    index.write(file);
+    assertEquals(index.sizeInBytes(), file.length());
+    for (boolean mapped : new boolean[]{false, true}) {
+      final TrigramIndex opened = TrigramIndex.open(file, mapped);
+      assertEquals(index.documentCount(), opened.documentCount());
+      assertEquals(index.trigramCount(), opened.trigramCount());
+      for (String regexp : PATTERNS) {
+        final Pattern pattern = Pattern.compile(regexp);
+        assertArrayEquals(regexp, index.candidates(pattern), opened.candidates(pattern));
+      }
+    }
+  }
+
+}
@@ -1,6 +1,7 @@
 package org.jetbrains.regexp.parser;
 
 import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.SymbolToken;
 import org.jetbrains.regexp.parser.token.element.Token;
 import org.jetbrains.regexp.parser.token.group.MatchingPair;
 import org.jetbrains.regexp.parser.token.group.MatchingRange;
@@ -13,6 +14,9 @@ import java.util.List;
 
 import static org.jetbrains.utils.TestUtils.list;
 import static org.jetbrains.utils.TestUtils.testParser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class RegexParserTest {
 
@@ -121,6 +125,45 @@ public class RegexParserTest {
     ));
   }
 
+  @Test
+  public void testParseAnchors() throws Exception {
+    Token[] expectedTokenList = list(
+        LanguageSymbols.OPEN_PAREN,
+        LanguageSymbols.BEGIN,
+        new CharacterToken('A'),
+        LanguageSymbols.END,
+        LanguageSymbols.CLOSE_PAREN
+    );
+    testParser("^A$", expectedTokenList);
+    testParser("\\AA\\z", expectedTokenList);
+    testParser("[$]", list(
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.<Token>asList(new CharacterToken('$')), false),
+        LanguageSymbols.CLOSE_PAREN
+    ));
+  }
+
+  @Test
+  public void testStripAnchors() throws Exception {
+    Anchors anchors = new Anchors(new RegexParser("^(a|b)$").getTokens());
+    assertTrue(anchors.isStartAnchored());
+    assertTrue(anchors.isEndAnchored());
+    assertEquals(new RegexParser("(a|b)").getTokens().length + 2, anchors.getTokens().length);
+    anchors = new Anchors(new RegexParser("ab$").getTokens());
+    assertFalse(anchors.isStartAnchored());
+    assertTrue(anchors.isEndAnchored());
+  }
+
+  @Test(expected = ParseException.class)
+  public void testAnchorInAlternative() throws Exception {
+    new Anchors(new RegexParser("^a|b").getTokens());
+  }
+
+  @Test(expected = ParseException.class)
+  public void testAnchorInTheMiddle() throws Exception {
+    new Anchors(new RegexParser("a^b").getTokens());
+  }
+
   @Test(expected = ParseException.class)
   public void testInvalidCharacterSet() throws Exception {
     new RegexParser("\\[ABCD]").getTokens();
@@ -205,9 +248,8 @@ public class RegexParserTest {
         LanguageSymbols.OPEN_PAREN,
         LanguageSymbols.OPEN_PAREN,
         new CharacterToken('a'),
-        LanguageSymbols.OR,
-        new CharacterToken('a'),
         new CharacterToken('a'),
+        LanguageSymbols.OPTIONAL,
         LanguageSymbols.CLOSE_PAREN,
         LanguageSymbols.CLOSE_PAREN));
   }
@@ -220,13 +262,10 @@ public class RegexParserTest {
         LanguageSymbols.OPEN_PAREN,
         new CharacterToken('a'), new CharacterToken('b'),
         LanguageSymbols.CLOSE_PAREN,
-        LanguageSymbols.OR,
-        LanguageSymbols.OPEN_PAREN,
-        new CharacterToken('a'), new CharacterToken('b'),
-        LanguageSymbols.CLOSE_PAREN,
         LanguageSymbols.OPEN_PAREN,
         new CharacterToken('a'), new CharacterToken('b'),
         LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.OPTIONAL,
         LanguageSymbols.CLOSE_PAREN,
         LanguageSymbols.CLOSE_PAREN));
   }
@@ -236,6 +275,38 @@ public class RegexParserTest {
     new RegexParser("a{,5}").getTokens();  
   }
 
+  @Test
+  public void testParseSymbols() throws Exception {
+    testParser("\\x{41}\\x{1F600}[\\x{10000}b]", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('A'),
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('\uD83D'), new CharacterToken('\uDE00'),
+        LanguageSymbols.OR,
+        new SymbolToken(0x1F600),
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.<Token>asList(new CharacterToken('b')), false),
+        LanguageSymbols.OR,
+        new CharacterToken('\uD800'), new CharacterToken('\uDC00'),
+        LanguageSymbols.OR,
+        new SymbolToken(0x10000),
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.CLOSE_PAREN));
+    testParser("[^\\x{10000}]\\x{110000}", list(
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.<Token>asList(new SymbolToken(0x10000)), true),
+        new SymbolToken(0x110000),
+        LanguageSymbols.CLOSE_PAREN));
+    for (String bad : new String[]{"\\x{}", "\\x{12", "\\x{zz}", "\\x{100000000}"}) {
+      try {
+        new RegexParser(bad);
+        throw new AssertionError(bad);
+      } catch (ParseException expected) {
+      }
+    }
+  }
+
   private MatchingSet getTupleSet(char first, char second) {
     Token[] arrayList = list(
         new CharacterToken(first),
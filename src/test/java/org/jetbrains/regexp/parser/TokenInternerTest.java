@@ -0,0 +1,43 @@
+package org.jetbrains.regexp.parser;
+
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TokenInternerTest {
+
+  @Test
+  public void testParsersShareCharacters() throws Exception {
+    final Token[] first = new RegexParser("abc").getTokens();
+    final Token[] second = new RegexParser("cba").getTokens();
+    assertSame(first[1], second[3]);
+    assertSame(first[3], second[1]);
+  }
+
+  @Test
+  public void testSetsAreShared() throws Exception {
+    final Token set = new MatchingSet(Arrays.<Token>asList(new CharacterToken('x'),
+        new MatchingRange(new CharacterToken('0'), new CharacterToken('9'))), false);
+    final Token copy = new MatchingSet(Arrays.<Token>asList(new CharacterToken('x'),
+        new MatchingRange(new CharacterToken('0'), new CharacterToken('9'))), false);
+    assertNotSame(set, copy);
+    assertSame(TokenInterner.intern(set), TokenInterner.intern(copy));
+  }
+
+  @Test
+  public void testOperatorsAreKept() throws Exception {
+    Token[] tokens = {LanguageSymbols.OPEN_PAREN, new CharacterToken('q'), LanguageSymbols.CLOSE_PAREN};
+    final Token[] interned = TokenInterner.intern(tokens);
+    assertSame(tokens, interned);
+    assertSame(LanguageSymbols.OPEN_PAREN, interned[0]);
+    assertSame(new RegexParser("q").getTokens()[1], interned[1]);
+  }
+
+}
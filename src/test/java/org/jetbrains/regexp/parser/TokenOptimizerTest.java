@@ -0,0 +1,165 @@
+package org.jetbrains.regexp.parser;
+
+import org.jetbrains.regexp.parser.token.element.CharacterToken;
+import org.jetbrains.regexp.parser.token.element.Token;
+import org.jetbrains.regexp.parser.token.group.MatchingRange;
+import org.jetbrains.regexp.parser.token.group.MatchingSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.jetbrains.utils.TestUtils.list;
+import static org.jetbrains.utils.TestUtils.testOptimizer;
+import static org.jetbrains.utils.TestUtils.testPattern;
+import static org.junit.Assert.assertTrue;
+
+public class TokenOptimizerTest {
+
+  @Test
+  public void testLeavesSimpleSequence() throws Exception {
+    testOptimizer("ABCD", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('A'),
+        new CharacterToken('B'),
+        new CharacterToken('C'),
+        new CharacterToken('D'),
+        LanguageSymbols.CLOSE_PAREN)
+    );
+  }
+
+  @Test
+  public void testFactorsCommonPrefixes() throws Exception {
+    testOptimizer("foo|foobar|fob", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('f'),
+        new CharacterToken('o'),
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.<Token>asList(new CharacterToken('o'), new CharacterToken('b')), false),
+        LanguageSymbols.OR,
+        new CharacterToken('o'), new CharacterToken('b'), new CharacterToken('a'), new CharacterToken('r'),
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.CLOSE_PAREN)
+    );
+    testPattern("foo|foobar|fob", list("foo", "foobar", "fob"), list("fo", "foob", "fobar"));
+  }
+
+  @Test
+  public void testFactorsNestedPrefixes() throws Exception {
+    testOptimizer("abxy|abz|abzw", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        new CharacterToken('b'),
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('x'),
+        new CharacterToken('y'),
+        LanguageSymbols.OR,
+        new CharacterToken('z'),
+        new CharacterToken('w'),
+        LanguageSymbols.OPTIONAL,
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.CLOSE_PAREN)
+    );
+  }
+
+  @Test
+  public void testFactorsCommonSuffixes() throws Exception {
+    testOptimizer("ac|bc", list(
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.<Token>asList(new CharacterToken('a'), new CharacterToken('b')), false),
+        new CharacterToken('c'),
+        LanguageSymbols.CLOSE_PAREN)
+    );
+  }
+
+  @Test
+  public void testMergesCharacterClasses() throws Exception {
+    Token range = new MatchingRange(new CharacterToken('c'), new CharacterToken('d'));
+    testOptimizer("a|[c-d]|b", list(
+        LanguageSymbols.OPEN_PAREN,
+        new MatchingSet(Arrays.asList(
+            new CharacterToken('a'),
+            new MatchingSet(Arrays.asList(range), false),
+            new CharacterToken('b')), false),
+        LanguageSymbols.CLOSE_PAREN)
+    );
+    testPattern("a|[c-d]|b", list("a", "b", "c", "d"), list("e", "ab"));
+  }
+
+  @Test
+  public void testCollapsesQuantifiers() throws Exception {
+    Token[] aStar = list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        LanguageSymbols.STAR,
+        LanguageSymbols.CLOSE_PAREN);
+    testOptimizer("a**", aStar);
+    testOptimizer("(a*)*", aStar);
+    testOptimizer("a*a*", aStar);
+    testOptimizer("(a+)?", aStar);
+    testOptimizer("a?a*", aStar);
+  }
+
+  @Test
+  public void testJoinsRepeatedItems() throws Exception {
+    Token[] aPlus = list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        LanguageSymbols.PLUS,
+        LanguageSymbols.CLOSE_PAREN);
+    testOptimizer("aa*", aPlus);
+    testOptimizer("a*a", aPlus);
+    testOptimizer("a+a*", aPlus);
+    testPattern("a{2,}b", list("aab", "aaaab"), list("ab", "b", "aa"));
+  }
+
+  @Test
+  public void testDropsEmptyGroups() throws Exception {
+    testOptimizer("()a(())*", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        LanguageSymbols.CLOSE_PAREN)
+    );
+    testOptimizer("", list(
+        LanguageSymbols.OPEN_PAREN,
+        LanguageSymbols.CLOSE_PAREN)
+    );
+  }
+
+  @Test
+  public void testNestsRangedClosure() throws Exception {
+    testOptimizer("a{3,6}", list(
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'), new CharacterToken('a'), new CharacterToken('a'),
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        LanguageSymbols.OPEN_PAREN,
+        new CharacterToken('a'),
+        new CharacterToken('a'),
+        LanguageSymbols.OPTIONAL,
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.OPTIONAL,
+        LanguageSymbols.CLOSE_PAREN,
+        LanguageSymbols.OPTIONAL,
+        LanguageSymbols.CLOSE_PAREN)
+    );
+    testPattern("a{3,6}", list("aaa", "aaaa", "aaaaaa"), list("aa", "aaaaaaa"));
+  }
+
+  @Test(timeout = 10000)
+  public void testFactorsLongRangedClosureQuickly() throws Exception {
+    // a{1,2000} is parsed into an a and 1999 optional ones, nested into each other
+    final Token[] optimized = new TokenOptimizer(new RegexParser("a{1,2000}").getTokens()).getTokens();
+    assertTrue(optimized.length < 10 * 2000);
+    final StringBuilder longest = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      longest.append('a');
+    }
+    testPattern("(ab){2,200}|a{1,2000}", list("a", "abab", longest.toString()), list("", "ab", longest + "a"));
+  }
+
+  @Test
+  public void testLeavesTopLevelAlternationOfGroups() throws Exception {
+    testOptimizer("(a)|(b)", new RegexParser("(a)|(b)").getTokens());
+  }
+
+}
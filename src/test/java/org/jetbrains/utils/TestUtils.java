@@ -4,6 +4,7 @@ import org.apache.log4j.Logger;
 import org.jetbrains.regexp.Matcher;
 import org.jetbrains.regexp.Pattern;
 import org.jetbrains.regexp.parser.RegexParser;
+import org.jetbrains.regexp.parser.TokenOptimizer;
 import org.jetbrains.regexp.parser.token.element.Token;
 
 import java.text.ParseException;
@@ -43,7 +44,11 @@ public final class TestUtils {
   }
 
   public static void testPattern(String pattern, String[] matches, String[] notMatches) throws ParseException {
-    Pattern compiledPattern = Pattern.compile(pattern);
+    testPattern(pattern, 0, matches, notMatches);
+  }
+
+  public static void testPattern(String pattern, int flags, String[] matches, String[] notMatches) throws ParseException {
+    Pattern compiledPattern = Pattern.compile(pattern, flags);
     for (String text : matches) {
       assertTrue("should have matched on " + text, compiledPattern.matches(text));
     }
@@ -56,6 +61,11 @@ public final class TestUtils {
     assertArrayEquals(expectedTokens, new RegexParser(pattern).getTokens());
   }
 
+  public static void testOptimizer(String pattern, Token[] expectedTokens) throws ParseException {
+    final Token[] parsed = new RegexParser(pattern).getTokens();
+    assertArrayEquals(expectedTokens, new TokenOptimizer(parsed).getTokens());
+  }
+
   /**
   * @author sasha.malahov@here.com (Sasha Malahov)
   */